@@ -0,0 +1,28 @@
+package com.demod.fbsr;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH main that writes the results as JSON to jmh-result.json unless the
+ * command line picks a result file or format, so each run leaves a file that
+ * trend tracking can pick up. Takes the usual JMH options, for example
+ * {@code RenderStage -p corpus=belt-bus}.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmd);
+		if (!cmd.getResultFormat().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmd.getResult().hasValue()) {
+			builder.result("jmh-result.json");
+		}
+		new Runner(builder.build()).run();
+	}
+}
@@ -0,0 +1,98 @@
+package com.demod.fbsr;
+
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.demod.fbsr.composite.MaskedTextureComposite;
+import com.demod.fbsr.composite.ShadowComposite;
+import com.demod.fbsr.composite.TintComposite;
+import com.demod.fbsr.composite.TintOverlayComposite;
+
+/**
+ * Draws a grid of sprites with each blend mode and custom composite. Sprite
+ * and destination are seeded noise with partial alpha, so every branch of the
+ * blend code is taken. Needs no prototypes or atlases.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompositeBenchmark {
+	private static final int IMAGE_SIZE = 1024;
+	private static final int SPRITE_SIZE = 128;
+
+	@Param({ "NORMAL", "ADDITIVE", "ADDITIVE_SOFT", "MULTIPLICATIVE", "MULTIPLICATIVE_WITH_ALPHA", "OVERWRITE",
+			"SHADOW", "TINT", "TINT_OVERLAY", "MASKED_TEXTURE" })
+	public String composite;
+
+	private Composite drawComposite;
+	private BufferedImage sprite;
+	private BufferedImage image;
+
+	private static BufferedImage createNoise(Random random, int size) {
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				image.setRGB(x, y, random.nextInt());
+			}
+		}
+		return image;
+	}
+
+	@Benchmark
+	public BufferedImage draw() {
+		Graphics2D g = image.createGraphics();
+		g.setComposite(drawComposite);
+		for (int y = 0; y < IMAGE_SIZE; y += SPRITE_SIZE) {
+			for (int x = 0; x < IMAGE_SIZE; x += SPRITE_SIZE) {
+				g.drawImage(sprite, x, y, null);
+			}
+		}
+		g.dispose();
+		return image;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(42);
+		sprite = createNoise(random, SPRITE_SIZE);
+		image = createNoise(random, IMAGE_SIZE);
+
+		switch (composite) {
+		case "SHADOW":
+			drawComposite = new ShadowComposite(new Color(0, 0, 0, 128));
+			break;
+		case "TINT":
+			drawComposite = new TintComposite(new Color(255, 160, 64, 200));
+			break;
+		case "TINT_OVERLAY":
+			drawComposite = new TintOverlayComposite(new Color(64, 160, 255, 200));
+			break;
+		case "MASKED_TEXTURE":
+			drawComposite = new MaskedTextureComposite();
+			break;
+		default:
+			drawComposite = BlendMode.valueOf(composite).getComposite();
+			break;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.demod.fbsr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Blueprint strings checked in under corpus/ in the resources. They are
+ * synthetic, generated to stress one part of the renderer each, and stay fixed
+ * so results can be compared from run to run.
+ */
+final class Corpus {
+	public static final String[] NAMES = { "belt-bus", "rail-grid", "circuit-heavy", "tile-heavy", "space-platform",
+			"megabase-book" };
+
+	public static String load(String name) throws IOException {
+		try (InputStream is = Corpus.class.getClassLoader().getResourceAsStream("corpus/" + name + ".txt")) {
+			if (is == null) {
+				throw new IOException("Missing corpus entry: " + name);
+			}
+			return new String(is.readAllBytes(), StandardCharsets.UTF_8).trim();
+		}
+	}
+
+	private Corpus() {
+	}
+}
@@ -0,0 +1,71 @@
+package com.demod.fbsr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.demod.dcba.CommandReporting;
+import com.demod.fbsr.FBSR.ImageRenderer;
+import com.demod.fbsr.bs.BSBlueprint;
+import com.demod.fbsr.bs.BSBlueprintString;
+
+/**
+ * One corpus entry, decoded, with every blueprint in it.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+	// Render stages in the order ImageRenderer.call() runs them
+	private static final List<Consumer<ImageRenderer>> STAGES = List.of(//
+			ImageRenderer::parseBlueprint, //
+			ImageRenderer::populateMap, //
+			ImageRenderer::populateLogistics, //
+			ImageRenderer::createRenderers, //
+			ImageRenderer::calculateBounds);
+
+	public static final int PARSED = 1;
+	public static final int POPULATED = 2;
+	public static final int LOGISTICS = 3;
+	public static final int RENDERERS = 4;
+	public static final int BOUNDS = 5;
+
+	@Param({ "belt-bus", "rail-grid", "circuit-heavy", "tile-heavy", "space-platform", "megabase-book" })
+	public String corpus;
+
+	public String blueprintString;
+	public JSONObject json;
+	public List<BSBlueprint> blueprints;
+
+	public RenderRequest createRequest(BSBlueprint blueprint) {
+		return new RenderRequest(blueprint, new CommandReporting("Benchmark", null, null));
+	}
+
+	/**
+	 * Fresh renderers for every blueprint, with the first {@code stages} render
+	 * stages run.
+	 */
+	public List<ImageRenderer> prepare(int stages) {
+		List<ImageRenderer> renderers = new ArrayList<>(blueprints.size());
+		for (BSBlueprint blueprint : blueprints) {
+			ImageRenderer renderer = new ImageRenderer(createRequest(blueprint));
+			STAGES.subList(0, stages).forEach(s -> s.accept(renderer));
+			renderers.add(renderer);
+		}
+		return renderers;
+	}
+
+	@Setup(Level.Trial)
+	public void setup(FBSRState fbsr) throws IOException {
+		blueprintString = Corpus.load(corpus);
+		json = BSBlueprintString.decodeRaw(blueprintString);
+		blueprints = new BSBlueprintString(json).findAllBlueprints();
+	}
+}
@@ -0,0 +1,42 @@
+package com.demod.fbsr;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.demod.fbsr.bs.BSBlueprintString;
+
+/**
+ * Blueprint string decoding (base64, inflate, JSON) and the construction of the
+ * blueprint objects from the JSON.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+	@Benchmark
+	public BSBlueprintString construct(CorpusState corpus) {
+		return new BSBlueprintString(corpus.json);
+	}
+
+	@Benchmark
+	public BSBlueprintString decode(CorpusState corpus) throws IOException {
+		return BSBlueprintString.decode(corpus.blueprintString);
+	}
+
+	@Benchmark
+	public JSONObject decodeRaw(CorpusState corpus) throws IOException {
+		return BSBlueprintString.decodeRaw(corpus.blueprintString);
+	}
+}
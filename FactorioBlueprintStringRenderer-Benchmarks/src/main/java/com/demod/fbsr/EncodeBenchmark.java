@@ -0,0 +1,76 @@
+package com.demod.fbsr;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes the render of the first blueprint of a corpus entry, the way the
+ * services send it, with ImageIO, with each {@link PngEncoder.Preset} and as
+ * QOI. JPG is written from an opaque copy, as the Discord bot does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+	@Param({ "IMAGEIO_PNG", "IMAGEIO_JPG", "FAST", "DEFAULT", "SMALL", "QOI" })
+	public String encoder;
+
+	private BufferedImage image;
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		switch (encoder) {
+		case "IMAGEIO_PNG":
+			ImageIO.write(image, "PNG", baos);
+			break;
+		case "IMAGEIO_JPG":
+			ImageIO.write(image, "JPG", baos);
+			break;
+		case "QOI":
+			QoiCodec.write(image, baos);
+			break;
+		default:
+			PngEncoder.write(image, PngEncoder.Preset.valueOf(encoder), baos);
+			break;
+		}
+		return baos.toByteArray();
+	}
+
+	@Setup(Level.Trial)
+	public void setup(CorpusState corpus) {
+		image = FBSR.renderBlueprint(corpus.createRequest(corpus.blueprints.get(0))).image;
+
+		if (encoder.equals("IMAGEIO_JPG")) {
+			BufferedImage noAlphaImage = new BufferedImage(image.getWidth(), image.getHeight(),
+					BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = noAlphaImage.createGraphics();
+			g.drawImage(image, 0, 0, Color.black, null);
+			g.dispose();
+			image = noAlphaImage;
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.demod.fbsr;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Loads the prototypes and atlases once per trial. Needs the config.json and
+ * prepared mods of the renderer, so run the benchmarks from its project folder.
+ */
+@State(Scope.Benchmark)
+public class FBSRState {
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		FBSR.initialize();
+	}
+}
@@ -0,0 +1,90 @@
+package com.demod.fbsr;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Pixel difference between a render and its golden image. A pixel counts as
+ * changed when any channel, alpha included, differs by more than the tolerance,
+ * which absorbs the small drift of filtering and blending. The heatmap shows
+ * the golden image dimmed to grey, with changed pixels in red by how far they
+ * moved.
+ */
+final class ImageDiff {
+
+	public static ImageDiff compare(BufferedImage golden, BufferedImage actual, int tolerance) {
+		if (golden.getWidth() != actual.getWidth() || golden.getHeight() != actual.getHeight()) {
+			return new ImageDiff(golden.getWidth() * golden.getHeight(), golden.getWidth() * golden.getHeight(), 255,
+					null);
+		}
+
+		int width = golden.getWidth();
+		int height = golden.getHeight();
+		int[] goldenRow = new int[width];
+		int[] actualRow = new int[width];
+		int[] heatRow = new int[width];
+		BufferedImage heatmap = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		long changed = 0;
+		int maxDelta = 0;
+		for (int y = 0; y < height; y++) {
+			golden.getRGB(0, y, width, 1, goldenRow, 0, width);
+			actual.getRGB(0, y, width, 1, actualRow, 0, width);
+			for (int x = 0; x < width; x++) {
+				int g = goldenRow[x];
+				int a = actualRow[x];
+				int delta = 0;
+				for (int shift = 0; shift < 32; shift += 8) {
+					delta = Math.max(delta, Math.abs(((g >>> shift) & 0xFF) - ((a >>> shift) & 0xFF)));
+				}
+				maxDelta = Math.max(maxDelta, delta);
+
+				int grey = ((((g >> 16) & 0xFF) + ((g >> 8) & 0xFF) + (g & 0xFF)) / 3) * ((g >>> 24) & 0xFF) / 255
+						/ 3;
+				if (delta > tolerance) {
+					changed++;
+					int red = 128 + delta / 2;
+					heatRow[x] = (red << 16) | (grey << 8) | grey;
+				} else {
+					heatRow[x] = (grey << 16) | (grey << 8) | grey;
+				}
+			}
+			heatmap.setRGB(0, y, width, 1, heatRow, 0, width);
+		}
+
+		return new ImageDiff(changed, (long) width * height, maxDelta, heatmap);
+	}
+
+	private final long changedPixels;
+	private final long totalPixels;
+	private final int maxDelta;
+	private final BufferedImage heatmap;
+
+	private ImageDiff(long changedPixels, long totalPixels, int maxDelta, BufferedImage heatmap) {
+		this.changedPixels = changedPixels;
+		this.totalPixels = totalPixels;
+		this.maxDelta = maxDelta;
+		this.heatmap = heatmap;
+	}
+
+	public long getChangedPixels() {
+		return changedPixels;
+	}
+
+	public double getChangedFraction() {
+		return (double) changedPixels / totalPixels;
+	}
+
+	/**
+	 * Null when the sizes differ, in which case every pixel counts as changed.
+	 */
+	public BufferedImage getHeatmap() {
+		return heatmap;
+	}
+
+	public int getMaxDelta() {
+		return maxDelta;
+	}
+
+	public boolean isSizeMismatch() {
+		return heatmap == null;
+	}
+}
@@ -0,0 +1,67 @@
+package com.demod.fbsr;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.demod.fbsr.FBSR.ImageRenderer;
+import com.demod.fbsr.map.MapRenderable;
+
+/**
+ * Rasterization of a single layer, over every blueprint of a corpus entry. The
+ * layer parameter covers every {@link Layer} by default, which is a long run;
+ * narrow it with {@code -p layer=OBJECT,SHADOW_BUFFER}. Layers a corpus entry
+ * does not use score close to zero.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LayerBenchmark {
+
+	@Param
+	public Layer layer;
+
+	private List<ImageRenderer> renderers;
+	private List<List<MapRenderable>> layerRenderers;
+	private List<BufferedImage> images;
+
+	@Benchmark
+	public void renderLayer() {
+		for (int i = 0; i < renderers.size(); i++) {
+			ImageRenderer renderer = renderers.get(i);
+			Graphics2D g = renderer.createWorldGraphics(images.get(i));
+			renderer.renderLayer(g, layerRenderers.get(i));
+			g.dispose();
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup(CorpusState corpus) {
+		renderers = corpus.prepare(CorpusState.BOUNDS);
+		layerRenderers = new ArrayList<>();
+		images = new ArrayList<>();
+		for (ImageRenderer renderer : renderers) {
+			layerRenderers.add(renderer.getRenderBuckets().get(layer));
+			images.add(new BufferedImage(renderer.getImageWidth(), renderer.getImageHeight(),
+					BufferedImage.TYPE_INT_ARGB));
+		}
+	}
+}
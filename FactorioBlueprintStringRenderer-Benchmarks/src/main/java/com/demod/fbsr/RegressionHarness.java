@@ -0,0 +1,304 @@
+package com.demod.fbsr;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.imageio.ImageIO;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.demod.dcba.CommandReporting;
+import com.demod.fbsr.bs.BSBlueprint;
+import com.demod.fbsr.bs.BSBlueprintString;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Renders the corpus through {@link FBSR#renderBlueprint(RenderRequest)} and
+ * checks every blueprint against its golden image and its time and allocation
+ * budget. Runs offline from the local atlas and data folders, like the
+ * benchmarks, from the renderer's project folder.
+ *
+ * <pre>
+ * regression/golden/&lt;corpus&gt;-&lt;index&gt;.png  golden renders
+ * regression/budgets.json                 time_ms and alloc_mb per render
+ * regression/report/                      report.json, report.html, actual renders and heatmaps
+ * </pre>
+ *
+ * With --record the run writes the golden images and budgets instead of
+ * checking them. Record on the machine that runs the checks, budgets do not
+ * carry over between machines. The process exits with 1 when any check fails.
+ */
+public class RegressionHarness {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RegressionHarness.class);
+
+	private static class Measurement {
+		BufferedImage image;
+		double timeMillis = Double.MAX_VALUE;
+		double allocMB = Double.MAX_VALUE;
+	}
+
+	private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	public static void main(String[] args) throws IOException {
+		OptionParser parser = new OptionParser();
+		OptionSpec<Void> optRecord = parser.accepts("record", "Write golden images and budgets instead of checking");
+		OptionSpec<File> optFolder = parser.accepts("folder", "Folder of golden images, budgets and the report")
+				.withRequiredArg().ofType(File.class).defaultsTo(new File("regression"));
+		OptionSpec<Integer> optTolerance = parser.accepts("tolerance", "Channel difference the pixel diff ignores")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(8);
+		OptionSpec<Double> optMaxChanged = parser.accepts("max-changed", "Fraction of pixels allowed to change")
+				.withRequiredArg().ofType(Double.class).defaultsTo(0.001);
+		OptionSpec<Double> optTimeSlack = parser.accepts("time-slack", "Fraction a render may exceed its time budget")
+				.withRequiredArg().ofType(Double.class).defaultsTo(0.25);
+		OptionSpec<Double> optAllocSlack = parser
+				.accepts("alloc-slack", "Fraction a render may exceed its allocation budget").withRequiredArg()
+				.ofType(Double.class).defaultsTo(0.10);
+		OptionSpec<Integer> optRuns = parser.accepts("runs", "Timed renders per blueprint, the best one counts")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(3);
+		OptionSpec<String> optCorpus = parser.nonOptions("Corpus entries, all by default").ofType(String.class);
+		OptionSet options = parser.parse(args);
+
+		File folder = options.valueOf(optFolder);
+		File folderGolden = new File(folder, "golden");
+		File folderReport = new File(folder, "report");
+		File fileBudgets = new File(folder, "budgets.json");
+		folderGolden.mkdirs();
+		folderReport.mkdirs();
+
+		boolean record = options.has(optRecord);
+		int tolerance = options.valueOf(optTolerance);
+		double maxChanged = options.valueOf(optMaxChanged);
+		double timeSlack = options.valueOf(optTimeSlack);
+		double allocSlack = options.valueOf(optAllocSlack);
+		int runs = options.valueOf(optRuns);
+		List<String> corpusNames = options.valuesOf(optCorpus);
+		if (corpusNames.isEmpty()) {
+			corpusNames = Arrays.asList(Corpus.NAMES);
+		}
+
+		JSONObject budgets = fileBudgets.exists()
+				? new JSONObject(new String(Files.readAllBytes(fileBudgets.toPath()), StandardCharsets.UTF_8))
+				: new JSONObject();
+
+		FBSR.initialize();
+
+		JSONArray jsonResults = new JSONArray();
+		int failures = 0;
+		for (String corpusName : corpusNames) {
+			List<BSBlueprint> blueprints = BSBlueprintString.decode(Corpus.load(corpusName)).findAllBlueprints();
+			for (int i = 0; i < blueprints.size(); i++) {
+				String key = corpusName + "-" + i;
+				Measurement measurement = measure(blueprints.get(i), runs);
+				File fileGolden = new File(folderGolden, key + ".png");
+
+				JSONObject jsonResult = new JSONObject();
+				jsonResult.put("key", key);
+				jsonResult.put("time_ms", Math.round(measurement.timeMillis * 10) / 10.0);
+				jsonResult.put("alloc_mb", Math.round(measurement.allocMB * 10) / 10.0);
+
+				if (record) {
+					ImageIO.write(measurement.image, "PNG", fileGolden);
+					JSONObject jsonBudget = new JSONObject();
+					jsonBudget.put("time_ms", jsonResult.get("time_ms"));
+					jsonBudget.put("alloc_mb", jsonResult.get("alloc_mb"));
+					budgets.put(key, jsonBudget);
+					jsonResult.put("status", "recorded");
+					LOGGER.info("{}: recorded, {} ms, {} MB", key, jsonResult.get("time_ms"),
+							jsonResult.get("alloc_mb"));
+					jsonResults.put(jsonResult);
+					continue;
+				}
+
+				List<String> problems = new ArrayList<>();
+
+				if (!fileGolden.exists()) {
+					problems.add("no golden image");
+				} else {
+					ImageDiff diff = ImageDiff.compare(ImageIO.read(fileGolden), measurement.image, tolerance);
+					jsonResult.put("changed_fraction", diff.getChangedFraction());
+					jsonResult.put("max_delta", diff.getMaxDelta());
+					if (diff.isSizeMismatch()) {
+						problems.add("size changed");
+					} else if (diff.getChangedFraction() > maxChanged) {
+						problems.add(String.format("%.3f%% of pixels changed", diff.getChangedFraction() * 100));
+					}
+					if (diff.getHeatmap() != null && diff.getChangedPixels() > 0) {
+						ImageIO.write(diff.getHeatmap(), "PNG", new File(folderReport, key + "-diff.png"));
+						jsonResult.put("heatmap", key + "-diff.png");
+					}
+				}
+				if (!problems.isEmpty()) {
+					ImageIO.write(measurement.image, "PNG", new File(folderReport, key + ".png"));
+					jsonResult.put("actual", key + ".png");
+				}
+
+				JSONObject jsonBudget = budgets.optJSONObject(key);
+				if (jsonBudget == null) {
+					problems.add("no budget");
+				} else {
+					double budgetMillis = jsonBudget.getDouble("time_ms");
+					double budgetMB = jsonBudget.getDouble("alloc_mb");
+					jsonResult.put("budget_time_ms", budgetMillis);
+					jsonResult.put("budget_alloc_mb", budgetMB);
+					if (measurement.timeMillis > budgetMillis * (1 + timeSlack)) {
+						problems.add(String.format("%.1f ms over the %.1f ms budget", measurement.timeMillis,
+								budgetMillis));
+					}
+					if (measurement.allocMB > budgetMB * (1 + allocSlack)) {
+						problems.add(String.format("%.1f MB over the %.1f MB budget", measurement.allocMB, budgetMB));
+					}
+				}
+
+				jsonResult.put("status", problems.isEmpty() ? "pass" : "fail");
+				jsonResult.put("problems", new JSONArray(problems));
+				if (problems.isEmpty()) {
+					LOGGER.info("{}: pass, {} ms, {} MB", key, jsonResult.get("time_ms"), jsonResult.get("alloc_mb"));
+				} else {
+					failures++;
+					LOGGER.warn("{}: FAIL, {}", key, String.join(", ", problems));
+				}
+				jsonResults.put(jsonResult);
+			}
+		}
+
+		if (record) {
+			Files.write(fileBudgets.toPath(), budgets.toString(2).getBytes(StandardCharsets.UTF_8));
+		}
+
+		JSONObject jsonReport = new JSONObject();
+		jsonReport.put("record", record);
+		jsonReport.put("tolerance", tolerance);
+		jsonReport.put("max_changed", maxChanged);
+		jsonReport.put("time_slack", timeSlack);
+		jsonReport.put("alloc_slack", allocSlack);
+		jsonReport.put("failures", failures);
+		jsonReport.put("results", jsonResults);
+		Files.write(new File(folderReport, "report.json").toPath(),
+				jsonReport.toString(2).getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(folderReport, "report.html").toPath(),
+				writeHtml(jsonReport).getBytes(StandardCharsets.UTF_8));
+
+		LOGGER.info("{} renders, {} failed, report in {}", jsonResults.length(), failures,
+				folderReport.getAbsolutePath());
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Allocated bytes of each live thread by id. Threads the JVM no longer knows
+	 * are left out.
+	 */
+	private static Map<Long, Long> allocatedBytesByThread() {
+		long[] threadIds = threadBean.getAllThreadIds();
+		long[] bytes = threadBean.getThreadAllocatedBytes(threadIds);
+		Map<Long, Long> ret = new HashMap<>();
+		for (int i = 0; i < threadIds.length; i++) {
+			if (bytes[i] >= 0) {
+				ret.put(threadIds[i], bytes[i]);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Renders once untimed, then keeps the best time and the lowest allocation of
+	 * the timed runs. Allocation is summed over all threads, since rendering also
+	 * runs on the common pool (the logistics pass uses a parallel stream). Other
+	 * work in the JVM is counted too, and a thread that exits mid-run loses what it
+	 * allocated, so this is close but not exact.
+	 */
+	private static Measurement measure(BSBlueprint blueprint, int runs) {
+		Measurement measurement = new Measurement();
+		FBSR.renderBlueprint(new RenderRequest(blueprint, new CommandReporting("Regression", null, null)));
+		for (int run = 0; run < runs; run++) {
+			RenderRequest request = new RenderRequest(blueprint, new CommandReporting("Regression", null, null));
+			Map<Long, Long> startBytes = allocatedBytesByThread();
+			long startNanos = System.nanoTime();
+			RenderResult result = FBSR.renderBlueprint(request);
+			long nanos = System.nanoTime() - startNanos;
+			long bytes = 0;
+			for (Entry<Long, Long> entry : allocatedBytesByThread().entrySet()) {
+				bytes += entry.getValue() - startBytes.getOrDefault(entry.getKey(), 0L);
+			}
+			measurement.image = result.image;
+			measurement.timeMillis = Math.min(measurement.timeMillis, nanos / 1000000.0);
+			measurement.allocMB = Math.min(measurement.allocMB, bytes / (1024.0 * 1024.0));
+		}
+		return measurement;
+	}
+
+	private static String writeHtml(JSONObject jsonReport) {
+		StringBuilder html = new StringBuilder();
+		html.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>FBSR Regression Report</title>\n");
+		html.append("<style>body{font-family:sans-serif}td,th{padding:4px 8px;border-bottom:1px solid #ccc;"
+				+ "vertical-align:top}.pass{color:#080}.fail{color:#c00}img{max-width:320px}</style>\n");
+		html.append("</head><body>\n<h1>FBSR Regression Report</h1>\n");
+		html.append("<p>").append(jsonReport.getInt("failures")).append(" of ")
+				.append(jsonReport.getJSONArray("results").length()).append(" renders failed. Tolerance ")
+				.append(jsonReport.getInt("tolerance")).append(", max changed ")
+				.append(jsonReport.getDouble("max_changed") * 100).append("%, time slack ")
+				.append(jsonReport.getDouble("time_slack") * 100).append("%, alloc slack ")
+				.append(jsonReport.getDouble("alloc_slack") * 100).append("%.</p>\n");
+		html.append("<table>\n<tr><th>Render</th><th>Status</th><th>Time ms</th><th>Alloc MB</th>"
+				+ "<th>Changed</th><th>Golden</th><th>Heatmap</th><th>Actual</th></tr>\n");
+		for (int i = 0; i < jsonReport.getJSONArray("results").length(); i++) {
+			JSONObject jsonResult = jsonReport.getJSONArray("results").getJSONObject(i);
+			String key = jsonResult.getString("key");
+			String status = jsonResult.getString("status");
+			html.append("<tr><td>").append(escape(key)).append("</td>");
+			html.append("<td class=\"").append(status).append("\">").append(status);
+			JSONArray jsonProblems = jsonResult.optJSONArray("problems");
+			if (jsonProblems != null) {
+				for (int p = 0; p < jsonProblems.length(); p++) {
+					html.append("<br>").append(escape(jsonProblems.getString(p)));
+				}
+			}
+			html.append("</td>");
+			html.append("<td>").append(jsonResult.get("time_ms"));
+			if (jsonResult.has("budget_time_ms")) {
+				html.append(" / ").append(jsonResult.get("budget_time_ms"));
+			}
+			html.append("</td><td>").append(jsonResult.get("alloc_mb"));
+			if (jsonResult.has("budget_alloc_mb")) {
+				html.append(" / ").append(jsonResult.get("budget_alloc_mb"));
+			}
+			html.append("</td><td>");
+			if (jsonResult.has("changed_fraction")) {
+				html.append(String.format("%.3f%%", jsonResult.getDouble("changed_fraction") * 100));
+			}
+			html.append("</td>");
+			html.append("<td><img src=\"../golden/").append(escape(key)).append(".png\"></td>");
+			html.append("<td>");
+			if (jsonResult.has("heatmap")) {
+				html.append("<img src=\"").append(escape(jsonResult.getString("heatmap"))).append("\">");
+			}
+			html.append("</td><td>");
+			if (jsonResult.has("actual")) {
+				html.append("<img src=\"").append(escape(jsonResult.getString("actual"))).append("\">");
+			}
+			html.append("</td></tr>\n");
+		}
+		html.append("</table>\n</body></html>\n");
+		return html.toString();
+	}
+}
@@ -0,0 +1,115 @@
+package com.demod.fbsr;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.demod.fbsr.FBSR.ImageRenderer;
+import com.demod.fbsr.bs.BSBlueprint;
+
+/**
+ * The stages of {@link ImageRenderer}, each timed over every blueprint of a
+ * corpus entry. The stages before the one measured run in per-invocation
+ * setup, which JMH keeps out of the score.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderStageBenchmark {
+
+	@State(Scope.Thread)
+	public static class Bounded {
+		List<ImageRenderer> renderers;
+
+		@Setup(Level.Invocation)
+		public void setup(CorpusState corpus) {
+			renderers = corpus.prepare(CorpusState.RENDERERS);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Fresh {
+		List<ImageRenderer> renderers;
+
+		@Setup(Level.Invocation)
+		public void setup(CorpusState corpus) {
+			renderers = corpus.prepare(0);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Logistics {
+		List<ImageRenderer> renderers;
+
+		@Setup(Level.Invocation)
+		public void setup(CorpusState corpus) {
+			renderers = corpus.prepare(CorpusState.LOGISTICS);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Parsed {
+		List<ImageRenderer> renderers;
+
+		@Setup(Level.Invocation)
+		public void setup(CorpusState corpus) {
+			renderers = corpus.prepare(CorpusState.PARSED);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Populated {
+		List<ImageRenderer> renderers;
+
+		@Setup(Level.Invocation)
+		public void setup(CorpusState corpus) {
+			renderers = corpus.prepare(CorpusState.POPULATED);
+		}
+	}
+
+	@Benchmark
+	public void calculateBounds(Bounded state) {
+		state.renderers.forEach(ImageRenderer::calculateBounds);
+	}
+
+	@Benchmark
+	public void createRenderers(Logistics state) {
+		state.renderers.forEach(ImageRenderer::createRenderers);
+	}
+
+	@Benchmark
+	public void fullRender(CorpusState corpus, Blackhole bh) {
+		for (BSBlueprint blueprint : corpus.blueprints) {
+			bh.consume(FBSR.renderBlueprint(corpus.createRequest(blueprint)));
+		}
+	}
+
+	@Benchmark
+	public void parseBlueprint(Fresh state) {
+		state.renderers.forEach(ImageRenderer::parseBlueprint);
+	}
+
+	@Benchmark
+	public void populateLogistics(Populated state) {
+		state.renderers.forEach(ImageRenderer::populateLogistics);
+	}
+
+	@Benchmark
+	public void populateMap(Parsed state) {
+		state.renderers.forEach(ImageRenderer::populateMap);
+	}
+}
@@ -1,19 +1,30 @@
 package com.demod.fbsr;
 
 import java.awt.Dimension;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 public class Atlas {
 
+    // Full, half, quarter and eighth resolution
+    public static final int MIP_LEVELS = 4;
+    // Sprite cells are aligned and sized to this, so that no mip pixel of the
+    // lower levels mixes two sprites
+    public static final int MIP_ALIGN = 1 << (MIP_LEVELS - 1);
+
     public static class AtlasRef {
         private boolean valid = false;
         private Atlas atlas = null;
         private Rectangle rect = null;
         private Point trim = null;
+        private Rectangle[] mipRects = null;
 
         public AtlasRef() {
         }
@@ -27,6 +38,7 @@ public class Atlas {
             this.atlas = atlas;
             this.rect = rect;
             this.trim = trim;
+            mipRects = null;
         }
 
         void reset() {
@@ -34,6 +46,7 @@ public class Atlas {
             atlas = null;
             rect = null;
             trim = null;
+            mipRects = null;
         }
 
         public Atlas getAtlas() {
@@ -44,9 +57,80 @@ public class Atlas {
             return rect;
         }
 
+        /**
+         * The rect on the given mip level, covering every mip pixel that the full
+         * resolution rect touches. The rect is aligned to {@link #MIP_ALIGN}, so
+         * the extra pixels on the right and bottom only hold the transparent
+         * padding of its own cell.
+         */
+        public Rectangle getRect(int level) {
+            if (level == 0) {
+                return rect;
+            }
+            Rectangle[] rects = mipRects;
+            if (rects == null) {
+                rects = new Rectangle[MIP_LEVELS];
+                rects[0] = rect;
+                for (int l = 1; l < MIP_LEVELS; l++) {
+                    int x = rect.x >> l;
+                    int y = rect.y >> l;
+                    int x2 = (rect.x + rect.width + (1 << l) - 1) >> l;
+                    int y2 = (rect.y + rect.height + (1 << l) - 1) >> l;
+                    rects[l] = new Rectangle(x, y, x2 - x, y2 - y);
+                }
+                mipRects = rects;
+            }
+            return rects[level];
+        }
+
         public Point getTrim() {
             return trim;
         }
+
+        /**
+         * Draws the rect from the given mip level onto the unit square of the
+         * current transform. A lower level rect also covers some padding past the
+         * sprite, so it is drawn past the unit square by the same amount.
+         */
+        public void draw(Graphics2D g, int level) {
+            BufferedImage image = atlas.getImage(level);
+            Rectangle source = getRect(level);
+            if (level == 0) {
+                g.drawImage(image, 0, 0, 1, 1, source.x, source.y, source.x + source.width,
+                        source.y + source.height, null);
+                return;
+            }
+            AffineTransform pat = g.getTransform();
+            g.scale((double) (source.width << level) / rect.width, (double) (source.height << level) / rect.height);
+            g.drawImage(image, 0, 0, 1, 1, source.x, source.y, source.x + source.width, source.y + source.height,
+                    null);
+            g.setTransform(pat);
+        }
+
+        /**
+         * Draws a region of the rect, relative to its top left corner, from the
+         * given mip level onto the unit square of the current transform. The
+         * region need not be aligned, the mip pixels covering it are drawn past the
+         * unit square by as much as they overhang it.
+         */
+        public void draw(Graphics2D g, int level, Rectangle region) {
+            BufferedImage image = atlas.getImage(level);
+            int x = rect.x + region.x;
+            int y = rect.y + region.y;
+            if (level == 0) {
+                g.drawImage(image, 0, 0, 1, 1, x, y, x + region.width, y + region.height, null);
+                return;
+            }
+            int x1 = x >> level;
+            int y1 = y >> level;
+            int x2 = (x + region.width + (1 << level) - 1) >> level;
+            int y2 = (y + region.height + (1 << level) - 1) >> level;
+            AffineTransform pat = g.getTransform();
+            g.translate((double) ((x1 << level) - x) / region.width, (double) ((y1 << level) - y) / region.height);
+            g.scale((double) ((x2 - x1) << level) / region.width, (double) ((y2 - y1) << level) / region.height);
+            g.drawImage(image, 0, 0, 1, 1, x1, y1, x2, y2, null);
+            g.setTransform(pat);
+        }
     }
 
     private final AtlasPackage atlasPackage;
@@ -59,18 +143,23 @@ public class Atlas {
     private final int iconColumns;
     private final int iconMaxCount;
     
-    private final BufferedImage image;
-    private final Quadtree occupied;
+    private BufferedImage image;
+    // Set when the page is read on demand by the AtlasStore
+    private AtlasStore.Page page = null;
+    // Mip chain of the current image, index 0 being the image itself
+    private volatile BufferedImage[] mips = null;
+    private final MaxRectsPacker packer;
     private final List<Dimension> failedPackingSizes;
-    private int iconCount = 0;
+    private final BitSet iconSlots = new BitSet();
+    private long usedPixels = 0;
 
-    private Atlas(AtlasPackage atlasPackage, int id, int width, int height, BufferedImage image, Quadtree occupied, boolean iconMode, int iconSize) {
+    private Atlas(AtlasPackage atlasPackage, int id, int width, int height, BufferedImage image, MaxRectsPacker packer, boolean iconMode, int iconSize) {
         this.atlasPackage = atlasPackage;
         this.id = id;
         this.width = width;
         this.height = height;
         this.image = image;
-        this.occupied = occupied;
+        this.packer = packer;
         this.failedPackingSizes = new ArrayList<>();
 
         this.iconMode = iconMode;
@@ -96,11 +185,122 @@ public class Atlas {
     }
     
     public BufferedImage getImage() {
-        return image;
+        return (page != null) ? page.getImage() : image;
+    }
+
+    /**
+     * Returns the image at the given mip level. The lower levels are built from
+     * the full image the first time any of them is used, and again if the page
+     * was evicted and read back.
+     */
+    public BufferedImage getImage(int level) {
+        BufferedImage base = getImage();
+        if (level == 0) {
+            return base;
+        }
+        BufferedImage[] levels = mips;
+        if (levels == null || levels[0] != base) {
+            synchronized (this) {
+                levels = mips;
+                if (levels == null || levels[0] != base) {
+                    levels = new BufferedImage[MIP_LEVELS];
+                    levels[0] = base;
+                    long mipBytes = 0;
+                    for (int l = 1; l < MIP_LEVELS; l++) {
+                        levels[l] = downsample(levels[l - 1]);
+                        mipBytes += 4L * levels[l].getWidth() * levels[l].getHeight();
+                    }
+                    mips = levels;
+                    if (page != null) {
+                        AtlasStore.onMips(page, base, mipBytes);
+                    }
+                }
+            }
+        }
+        return levels[level];
+    }
+
+    /**
+     * Picks the smallest mip level that still has at least one pixel per
+     * destination pixel, given how many destination pixels a full resolution
+     * pixel covers.
+     */
+    public static int selectMipLevel(double scale) {
+        int level = 0;
+        while (level < MIP_LEVELS - 1 && scale <= 0.5) {
+            scale *= 2;
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Halves the image with a 2x2 box filter, weighting colors by alpha so that
+     * transparent pixels do not darken the edges. Sprite cells are aligned to
+     * {@link #MIP_ALIGN}, so filtering the whole page never mixes two sprites.
+     */
+    private static BufferedImage downsample(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] src;
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            src = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        } else {
+            src = image.getRGB(0, 0, width, height, null, 0, width);
+        }
+
+        int mipWidth = (width + 1) / 2;
+        int mipHeight = (height + 1) / 2;
+        BufferedImage mip = new BufferedImage(mipWidth, mipHeight, BufferedImage.TYPE_INT_ARGB);
+        int[] dst = ((DataBufferInt) mip.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < mipHeight; y++) {
+            int y0 = y * 2;
+            int y1 = Math.min(y0 + 1, height - 1);
+            for (int x = 0; x < mipWidth; x++) {
+                int x0 = x * 2;
+                int x1 = Math.min(x0 + 1, width - 1);
+                int p00 = src[y0 * width + x0];
+                int p01 = src[y0 * width + x1];
+                int p10 = src[y1 * width + x0];
+                int p11 = src[y1 * width + x1];
+                if ((p00 | p01 | p10 | p11) == 0) {
+                    continue;
+                }
+                int a00 = p00 >>> 24, a01 = p01 >>> 24, a10 = p10 >>> 24, a11 = p11 >>> 24;
+                int sumA = a00 + a01 + a10 + a11;
+                if (sumA == 0) {
+                    continue;
+                }
+                int r = (((p00 >> 16) & 0xFF) * a00 + ((p01 >> 16) & 0xFF) * a01 + ((p10 >> 16) & 0xFF) * a10
+                        + ((p11 >> 16) & 0xFF) * a11) / sumA;
+                int g = (((p00 >> 8) & 0xFF) * a00 + ((p01 >> 8) & 0xFF) * a01 + ((p10 >> 8) & 0xFF) * a10
+                        + ((p11 >> 8) & 0xFF) * a11) / sumA;
+                int b = ((p00 & 0xFF) * a00 + (p01 & 0xFF) * a01 + (p10 & 0xFF) * a10 + (p11 & 0xFF) * a11) / sumA;
+                dst[y * mipWidth + x] = (((sumA + 2) / 4) << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+        return mip;
+    }
+
+    /**
+     * The cell a sprite rect takes up on a sprite page, its size rounded up to
+     * {@link #MIP_ALIGN}. Packing only such cells keeps every position aligned.
+     */
+    public static Rectangle mipCell(Rectangle rect) {
+        int mask = MIP_ALIGN - 1;
+        return new Rectangle(rect.x, rect.y, (rect.width + mask) & ~mask, (rect.height + mask) & ~mask);
     }
 
-    public Quadtree getOccupied() {
-        return occupied;
+    public MaxRectsPacker getPacker() {
+        return packer;
+    }
+
+    public long getUsedPixels() {
+        return usedPixels;
+    }
+
+    void addUsedPixels(long pixels) {
+        usedPixels += pixels;
     }
 
     public boolean isIconMode() {
@@ -108,11 +308,43 @@ public class Atlas {
     }
 
     public int getIconCount() {
-        return iconCount;
+        return iconSlots.cardinality();
+    }
+
+    /**
+     * Claims the lowest free icon slot, or returns -1 if the atlas is full.
+     */
+    public int allocateIconSlot() {
+        int slot = iconSlots.nextClearBit(0);
+        if (slot >= iconMaxCount) {
+            return -1;
+        }
+        iconSlots.set(slot);
+        return slot;
+    }
+
+    public Rectangle getIconSlotRect(int slot) {
+        return new Rectangle((slot % iconColumns) * iconSize, (slot / iconColumns) * iconSize, iconSize, iconSize);
     }
 
-    public void setIconCount(int iconCount) {
-        this.iconCount = iconCount;
+    public int getIconSlot(int x, int y) {
+        return (y / iconSize) * iconColumns + (x / iconSize);
+    }
+
+    void markIconSlot(int slot) {
+        iconSlots.set(slot);
+    }
+
+    void setImage(BufferedImage image) {
+        this.image = image;
+    }
+
+    void clearMips() {
+        mips = null;
+    }
+
+    void setPage(AtlasStore.Page page) {
+        this.page = page;
     }
 
     public int getIconColumns() {
@@ -129,8 +361,8 @@ public class Atlas {
 
     public static Atlas init(AtlasPackage atlasPackage, int id, int width, int height) {
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Quadtree occupied = new Quadtree(0, new Rectangle(0, 0, width, height));
-        return new Atlas(atlasPackage, id, width, height, image, occupied, false, -1);
+        MaxRectsPacker packer = new MaxRectsPacker(width, height);
+        return new Atlas(atlasPackage, id, width, height, image, packer, false, -1);
     }
 
     public static Atlas initIcons(AtlasPackage atlasPackage, int id, int width, int height, int iconSize) {
@@ -138,12 +370,32 @@ public class Atlas {
         return new Atlas(atlasPackage, id, width, height, image, null, true, iconSize);
     }
 
+    /**
+     * Recreates an existing atlas page without its pixels, so that an incremental
+     * update can pack into it. The image is only set if the page gets rewritten.
+     */
+    public static Atlas reopen(AtlasPackage atlasPackage, int id, int width, int height, int iconSize) {
+        if (iconSize > 0) {
+            return new Atlas(atlasPackage, id, width, height, null, null, true, iconSize);
+        }
+        MaxRectsPacker packer = new MaxRectsPacker(width, height);
+        return new Atlas(atlasPackage, id, width, height, null, packer, false, -1);
+    }
+
     public static Atlas load(AtlasPackage atlasPackage, int id, BufferedImage image) {
         int width = image.getWidth();
         int height = image.getHeight();
         return new Atlas(atlasPackage, id, width, height, image, null, false, -1);
     }
 
+    /**
+     * Creates a loaded page whose pixels are read by the {@link AtlasStore} on
+     * first use.
+     */
+    public static Atlas lazy(AtlasPackage atlasPackage, int id, int width, int height) {
+        return new Atlas(atlasPackage, id, width, height, null, null, false, -1);
+    }
+
     public List<Dimension> getFailedPackingSizes() {
         return failedPackingSizes;
     }
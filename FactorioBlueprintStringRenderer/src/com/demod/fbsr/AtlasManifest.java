@@ -0,0 +1,482 @@
+package com.demod.fbsr;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.demod.fbsr.def.ImageDef;
+
+/**
+ * Binary atlas manifest, memory-mapped at load.
+ *
+ * <pre>
+ * header   magic, version, stringCount, entryCount, pageCount, stringBytes (6 ints, padded to 32 bytes)
+ * pages    pageCount x (id, width, height, iconSize)
+ * strings  stringCount x (length, UTF-8 bytes), padded to 8 bytes
+ * stamps   stringCount x sheet stamp, see {@link ImageDef#getSheetStamp()}
+ * records  entryCount x (pathId, srcX, srcY, srcW, srcH, atlasId, x, y, w, h, trimX, trimY, hash1, hash2)
+ * index    entryCount x (keyHash, record, pad), sorted by keyHash
+ * </pre>
+ *
+ * The strings are the sheet paths, and the stamp of each lets an update tell
+ * which sheets changed without decoding them.
+ *
+ * Lookups hash the def key directly and binary search the index, so no key
+ * strings are built for the hundreds of thousands of entries.
+ *
+ * Each write is a new generation file (atlas-manifest-N.bin) instead of
+ * replacing the current one, since a mapped file can not be replaced or
+ * deleted on Windows. Older generations are deleted once nothing maps them.
+ */
+final class AtlasManifest {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AtlasManifest.class);
+
+	public static class Entry {
+		private final String path;
+		private final long stamp;
+		private final Rectangle source;
+		private final int atlasId;
+		private final Rectangle rect;
+		private final Point trim;
+		private final PixelHash hash;
+
+		public Entry(String path, long stamp, Rectangle source, int atlasId, Rectangle rect, Point trim,
+				PixelHash hash) {
+			this.path = path;
+			this.stamp = stamp;
+			this.source = source;
+			this.atlasId = atlasId;
+			this.rect = rect;
+			this.trim = trim;
+			this.hash = hash;
+		}
+
+		public int getAtlasId() {
+			return atlasId;
+		}
+
+		public PixelHash getHash() {
+			return hash;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public Rectangle getRect() {
+			return rect;
+		}
+
+		public Rectangle getSource() {
+			return source;
+		}
+
+		/**
+		 * Stamp of the sheet when the entry was extracted.
+		 */
+		public long getStamp() {
+			return stamp;
+		}
+
+		public Point getTrim() {
+			return trim;
+		}
+	}
+
+	public static class Page {
+		private final int id;
+		private final int width;
+		private final int height;
+		private final int iconSize;
+
+		public Page(int id, int width, int height, int iconSize) {
+			this.id = id;
+			this.width = width;
+			this.height = height;
+			this.iconSize = iconSize;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * Icon grid size, or 0 for a packed sprite page.
+		 */
+		public int getIconSize() {
+			return iconSize;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+	}
+
+	private static final int MAGIC = 0x4642414D; // FBAM
+	// 2: sprite rects aligned to Atlas.MIP_ALIGN
+	// 3: sheet stamps
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 32;
+	private static final int PAGE_SIZE = 16;
+	private static final int RECORD_SIZE = 64;
+	private static final int INDEX_SIZE = 16;
+	private static final String FILE_PREFIX = "atlas-manifest-";
+	private static final String FILE_SUFFIX = ".bin";
+
+	private static int align8(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+	private static long keyHash(String path, int x, int y, int w, int h) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0, n = path.length(); i < n; i++) {
+			hash = (hash ^ path.charAt(i)) * 0x100000001b3L;
+		}
+		hash = (hash ^ x) * 0x100000001b3L;
+		hash = (hash ^ y) * 0x100000001b3L;
+		hash = (hash ^ w) * 0x100000001b3L;
+		hash = (hash ^ h) * 0x100000001b3L;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Deletes every manifest generation older than the given one. A generation
+	 * that is still mapped can not be deleted on Windows, and is left for a later
+	 * boot.
+	 */
+	public static void deleteOlder(File folder, AtlasManifest current) {
+		int currentGeneration = generation(current.file);
+		File[] files = folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			int generation = generation(file);
+			if (generation != -1 && generation < currentGeneration && !file.delete()) {
+				LOGGER.debug("Old atlas manifest is still in use: {}", file.getName());
+			}
+		}
+	}
+
+	/**
+	 * Returns the newest manifest generation in the folder, or null if there is
+	 * none.
+	 */
+	public static File findLatest(File folder) {
+		File latest = null;
+		File[] files = folder.listFiles();
+		if (files == null) {
+			return null;
+		}
+		for (File file : files) {
+			int generation = generation(file);
+			if (generation != -1 && (latest == null || generation > generation(latest))) {
+				latest = file;
+			}
+		}
+		return latest;
+	}
+
+	private static int generation(File file) {
+		String name = file.getName();
+		if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	public static AtlasManifest open(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new AtlasManifest(file, buffer);
+		}
+	}
+
+	/**
+	 * Writes the manifest as the next generation in the folder, skipping repeated
+	 * keys, and returns the new file. Every existing generation is left in place,
+	 * so a manifest that is still mapped stays readable on every platform.
+	 */
+	public static File write(File folder, List<Entry> entries, List<Page> pages) throws IOException {
+		Map<String, Entry> unique = new LinkedHashMap<>();
+		for (Entry entry : entries) {
+			Rectangle s = entry.source;
+			unique.putIfAbsent(entry.path + "|" + s.x + "|" + s.y + "|" + s.width + "|" + s.height, entry);
+		}
+		List<Entry> records = new ArrayList<>(unique.values());
+
+		Map<String, Integer> pathIds = new HashMap<>();
+		List<byte[]> strings = new ArrayList<>();
+		List<Long> stamps = new ArrayList<>();
+		int stringBytes = 0;
+		for (Entry entry : records) {
+			if (!pathIds.containsKey(entry.path)) {
+				pathIds.put(entry.path, strings.size());
+				byte[] bytes = entry.path.getBytes(StandardCharsets.UTF_8);
+				strings.add(bytes);
+				stamps.add(entry.stamp);
+				stringBytes += 4 + bytes.length;
+			}
+		}
+
+		long[] index = new long[records.size() * 2];
+		Integer[] order = new Integer[records.size()];
+		long[] keyHashes = new long[records.size()];
+		for (int i = 0; i < records.size(); i++) {
+			Entry entry = records.get(i);
+			Rectangle s = entry.source;
+			keyHashes[i] = keyHash(entry.path, s.x, s.y, s.width, s.height);
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(keyHashes[a], keyHashes[b]));
+		for (int i = 0; i < order.length; i++) {
+			index[i * 2] = keyHashes[order[i]];
+			index[i * 2 + 1] = order[i];
+		}
+
+		folder.mkdirs();
+		File latest = findLatest(folder);
+		File file = new File(folder, FILE_PREFIX + ((latest != null) ? generation(latest) + 1 : 1) + FILE_SUFFIX);
+		File temp = new File(folder, file.getName() + ".tmp");
+		try (DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(strings.size());
+			dos.writeInt(records.size());
+			dos.writeInt(pages.size());
+			dos.writeInt(stringBytes);
+			dos.writeLong(0);
+
+			for (Page page : pages) {
+				dos.writeInt(page.id);
+				dos.writeInt(page.width);
+				dos.writeInt(page.height);
+				dos.writeInt(page.iconSize);
+			}
+
+			for (byte[] bytes : strings) {
+				dos.writeInt(bytes.length);
+				dos.write(bytes);
+			}
+			int stringsEnd = HEADER_SIZE + pages.size() * PAGE_SIZE + stringBytes;
+			for (int i = stringsEnd; i < align8(stringsEnd); i++) {
+				dos.writeByte(0);
+			}
+			for (long stamp : stamps) {
+				dos.writeLong(stamp);
+			}
+
+			for (Entry entry : records) {
+				dos.writeInt(pathIds.get(entry.path));
+				dos.writeInt(entry.source.x);
+				dos.writeInt(entry.source.y);
+				dos.writeInt(entry.source.width);
+				dos.writeInt(entry.source.height);
+				dos.writeInt(entry.atlasId);
+				dos.writeInt(entry.rect.x);
+				dos.writeInt(entry.rect.y);
+				dos.writeInt(entry.rect.width);
+				dos.writeInt(entry.rect.height);
+				dos.writeInt(entry.trim.x);
+				dos.writeInt(entry.trim.y);
+				dos.writeLong(entry.hash.getH1());
+				dos.writeLong(entry.hash.getH2());
+			}
+
+			for (int i = 0; i < records.size(); i++) {
+				dos.writeLong(index[i * 2]);
+				dos.writeInt((int) index[i * 2 + 1]);
+				dos.writeInt(0);
+			}
+		}
+		Files.move(temp.toPath(), file.toPath());
+		return file;
+	}
+
+	private final File file;
+	private final ByteBuffer buffer;
+	private final String[] paths;
+	private final int stampsOffset;
+	private final int entryCount;
+	private final int pageCount;
+	private final int pagesOffset;
+	private final int recordsOffset;
+	private final int indexOffset;
+
+	private AtlasManifest(File file, ByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not an atlas manifest");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported atlas manifest version: " + buffer.getInt(4));
+		}
+		int stringCount = buffer.getInt(8);
+		entryCount = buffer.getInt(12);
+		pageCount = buffer.getInt(16);
+		int stringBytes = buffer.getInt(20);
+
+		pagesOffset = HEADER_SIZE;
+		int stringsOffset = pagesOffset + pageCount * PAGE_SIZE;
+		stampsOffset = align8(stringsOffset + stringBytes);
+		recordsOffset = stampsOffset + stringCount * 8;
+		indexOffset = recordsOffset + entryCount * RECORD_SIZE;
+
+		// Only the distinct sheet paths are decoded, not one string per entry
+		paths = new String[stringCount];
+		ByteBuffer strings = buffer.duplicate();
+		strings.position(stringsOffset);
+		for (int i = 0; i < stringCount; i++) {
+			byte[] bytes = new byte[strings.getInt()];
+			strings.get(bytes);
+			paths[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Returns the record index for this def key, or -1 if it is not in the
+	 * manifest.
+	 */
+	public int find(String path, Rectangle source) {
+		long hash = keyHash(path, source.x, source.y, source.width, source.height);
+		int lo = 0;
+		int hi = entryCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (buffer.getLong(indexOffset + mid * INDEX_SIZE) < hash) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		for (int i = lo; i < entryCount && buffer.getLong(indexOffset + i * INDEX_SIZE) == hash; i++) {
+			int record = buffer.getInt(indexOffset + i * INDEX_SIZE + 8);
+			int base = recordsOffset + record * RECORD_SIZE;
+			if (buffer.getInt(base + 4) == source.x && buffer.getInt(base + 8) == source.y
+					&& buffer.getInt(base + 12) == source.width && buffer.getInt(base + 16) == source.height
+					&& paths[buffer.getInt(base)].equals(path)) {
+				return record;
+			}
+		}
+		return -1;
+	}
+
+	public int getAtlasId(int record) {
+		return buffer.getInt(recordsOffset + record * RECORD_SIZE + 20);
+	}
+
+	public Entry getEntry(int record) {
+		return new Entry(getPath(record), getStamp(record), getSource(record), getAtlasId(record), getRect(record),
+				getTrim(record), getHash(record));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	public PixelHash getHash(int record) {
+		int base = recordsOffset + record * RECORD_SIZE;
+		return new PixelHash(buffer.getLong(base + 48), buffer.getLong(base + 56));
+	}
+
+	public Page getPage(int index) {
+		int base = pagesOffset + index * PAGE_SIZE;
+		return new Page(buffer.getInt(base), buffer.getInt(base + 4), buffer.getInt(base + 8),
+				buffer.getInt(base + 12));
+	}
+
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	public String getPath(int record) {
+		return paths[buffer.getInt(recordsOffset + record * RECORD_SIZE)];
+	}
+
+	public Rectangle getRect(int record) {
+		int base = recordsOffset + record * RECORD_SIZE;
+		return new Rectangle(buffer.getInt(base + 24), buffer.getInt(base + 28), buffer.getInt(base + 32),
+				buffer.getInt(base + 36));
+	}
+
+	public Rectangle getSource(int record) {
+		int base = recordsOffset + record * RECORD_SIZE;
+		return new Rectangle(buffer.getInt(base + 4), buffer.getInt(base + 8), buffer.getInt(base + 12),
+				buffer.getInt(base + 16));
+	}
+
+	/**
+	 * Stamp of the record's sheet when it was extracted.
+	 */
+	public long getStamp(int record) {
+		return buffer.getLong(stampsOffset + buffer.getInt(recordsOffset + record * RECORD_SIZE) * 8);
+	}
+
+	public Point getTrim(int record) {
+		int base = recordsOffset + record * RECORD_SIZE;
+		return new Point(buffer.getInt(base + 40), buffer.getInt(base + 44));
+	}
+
+	/**
+	 * Debug export in the old JSON layout, one array per entry:
+	 * [path, srcX, srcY, srcW, srcH, atlasId, x, y, w, h, trimX, trimY, hash]
+	 */
+	public JSONArray toJson() {
+		JSONArray jsonManifest = new JSONArray();
+		for (int record = 0; record < entryCount; record++) {
+			Entry entry = getEntry(record);
+			JSONArray jsonEntry = new JSONArray();
+			jsonEntry.put(entry.path);
+			jsonEntry.put(entry.source.x);
+			jsonEntry.put(entry.source.y);
+			jsonEntry.put(entry.source.width);
+			jsonEntry.put(entry.source.height);
+			jsonEntry.put(entry.atlasId);
+			jsonEntry.put(entry.rect.x);
+			jsonEntry.put(entry.rect.y);
+			jsonEntry.put(entry.rect.width);
+			jsonEntry.put(entry.rect.height);
+			jsonEntry.put(entry.trim.x);
+			jsonEntry.put(entry.trim.y);
+			jsonEntry.put(entry.hash.toString());
+			jsonManifest.put(jsonEntry);
+		}
+		return jsonManifest;
+	}
+}
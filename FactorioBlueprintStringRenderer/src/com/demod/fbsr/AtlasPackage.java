@@ -1,37 +1,35 @@
 package com.demod.fbsr;
 
 import java.awt.Dimension;
-import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import javax.imageio.IIOImage;
@@ -41,7 +39,6 @@ import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
 
 import org.json.JSONArray;
-import org.json.JSONTokener;
 import org.rapidoid.commons.Arr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,18 +46,33 @@ import org.slf4j.LoggerFactory;
 import com.demod.fbsr.Atlas.AtlasRef;
 import com.demod.fbsr.def.ImageDef;
 import com.demod.fbsr.def.ImageDef.ImageSheetLoader;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.Sets;
-import com.google.common.collect.Sets.SetView;
 import com.google.common.io.Files;
 
 public class AtlasPackage {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AtlasPackage.class);
 
+	public static enum PageFormat {
+		PNG(".png"), // Portable, slowest to load
+		RAW(".argb"), // Uncompressed, memory-mapped
+		LZ4(".lz4"), // LZ4 blocks, memory-mapped
+		;
+
+		private final String extension;
+
+		private PageFormat(String extension) {
+			this.extension = extension;
+		}
+
+		public String getExtension() {
+			return extension;
+		}
+	}
+
 	public static int ATLAS_SIZE = 4096;
 	public static int ATLAS_ICONS_SIZE = 2048;
+	// Also write the manifest as zipped JSON, for inspecting by hand
+	public static boolean EXPORT_JSON_MANIFEST = false;
+	public static PageFormat PAGE_FORMAT = PageFormat.PNG;
 
     private File packageFolder;
 
@@ -71,98 +83,405 @@ public class AtlasPackage {
         this.packageFolder = packageFolder;
     }
 
-    private static final int MAX_PARALLEL_LOADS = Runtime.getRuntime().availableProcessors() * 2;
-	private final Semaphore loadingSemaphore = new Semaphore(MAX_PARALLEL_LOADS);
-	private static final int CLEANUP_INTERVAL = 1000;
+	private static final int LOG_INTERVAL = 1000;
+	// Sheets decoded and held at once, with their sprites, while building
+	private static final int SHEET_BATCH = Runtime.getRuntime().availableProcessors();
+	private static final int PARALLEL_PACKING_ATLASES = 4;
+	// Share of atlas space lost to removed sprites before an update compacts
+	private static final double FRAGMENTATION_THRESHOLD = 0.25;
 
-	private JSONArray generateAtlases(File folderAtlas, File fileManifest) throws IOException {
+	private AtlasManifest generateAtlases(File folderAtlas) throws IOException {
 		for (ImageDef def : defs) {
 			def.getAtlasRef().reset();
 		}
 
-		Map<String, ImageSheetLoader> loaders = new LinkedHashMap<>();
+		Map<String, Long> stamps = sheetStamps(defs);
+
+		List<Atlas> atlases = new ArrayList<>();
+		atlases.add(Atlas.init(this, atlases.size(), ATLAS_SIZE, ATLAS_SIZE));
+		Map<String, Sprite> spriteByKey = new HashMap<>();
+		Map<PixelHash, AtlasRef> hashCheck = new HashMap<>();
+		streamSprites(defs, spriteByKey, batchDefs -> {
+			blitSprites(packSprites(batchDefs, spriteByKey, atlases, hashCheck));
+		});
+		logAtlasUsage(atlases);
+
+		folderAtlas.mkdirs();
+		// A manifest that is still mapped is left on Windows, and only raises the
+		// next generation number
+		for (File file : folderAtlas.listFiles()) {
+			file.delete();
+		}
+
+		writeAtlases(folderAtlas, atlases);
+		AtlasManifest manifest = writeManifest(folderAtlas, atlases, def -> spriteByKey.get(spriteKey(def)).hash,
+				stamps);
+
+		LOGGER.info("Atlas generation complete.");
+		return manifest;
+	}
+
+	/**
+	 * Updates the atlases in place when only some sprites changed. Only the sheets
+	 * whose stamp changed, or that hold a new sprite, are decoded, and entries
+	 * whose key and pixels are unchanged keep their placement. Entries whose
+	 * pixels changed are treated as removed and added again, new sprites are
+	 * packed into free space (including holes left by removed sprites) or fresh
+	 * pages, and only the pages that changed are rewritten.
+	 * 
+	 * Returns null if a full rebuild is needed instead, because too much atlas
+	 * space could be lost to holes. That is decided before anything is decoded.
+	 */
+	private AtlasManifest updateAtlases(File folderAtlas, AtlasManifest oldManifest) throws IOException {
+		Map<String, AtlasManifest.Entry> oldEntries = new HashMap<>();
+		Map<String, Long> oldStamps = new HashMap<>();
+		for (int i = 0; i < oldManifest.getEntryCount(); i++) {
+			AtlasManifest.Entry entry = oldManifest.getEntry(i);
+			oldEntries.put(locationKey(entry), entry);
+			oldStamps.putIfAbsent(entry.getPath(), entry.getStamp());
+		}
+
 		for (ImageDef def : defs) {
-			loaders.put(def.getPath(), def.getLoader());
+			def.getAtlasRef().reset();
 		}
 
-		LoadingCache<String, BufferedImage> imageSheets = CacheBuilder.newBuilder()
-				.softValues()
-				.maximumSize(MAX_PARALLEL_LOADS * 100)
-				.removalListener(notification -> {
-					if (notification.getValue() instanceof BufferedImage) {
-						((BufferedImage) notification.getValue()).flush();
-					}
-				})
-				.build(new CacheLoader<String, BufferedImage>() {
-					@Override
-					public BufferedImage load(String key) throws Exception {
-						return loaders.get(key).apply(key);
-					}
-				});
-
-		LOGGER.info("Trimming Images...");
-		AtomicInteger processedCount = new AtomicInteger(0);
-		defs.parallelStream().forEach(def -> {
-			if (def.isTrimmable()) {
-				try {
-					loadingSemaphore.acquire();
-					BufferedImage imageSheet;
-					try {
-						imageSheet = imageSheets.get(def.getPath());
-						Rectangle trimmed = trimEmptyRect(imageSheet, def.getSource());
-						def.setTrimmed(trimmed);
-					} finally {
-						loadingSemaphore.release();
-						if (processedCount.incrementAndGet() % CLEANUP_INTERVAL == 0) {
-							// imageSheets.cleanUp();
-							// imageSheets.invalidateAll();
-							LOGGER.info("Trimming Images... {}/{}", processedCount.get(), defs.size());
-						}
-					}
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					throw new RuntimeException("Interrupted while processing images", e);
-				} catch (ExecutionException e) {
-					e.printStackTrace();
-					System.exit(-1);
-				}
+		// A sheet that can not be stamped is taken as changed
+		Map<String, Long> stamps = sheetStamps(defs);
+		Set<String> changedSheets = new HashSet<>();
+		for (Map.Entry<String, Long> e : stamps.entrySet()) {
+			Long oldStamp = oldStamps.get(e.getKey());
+			if (e.getValue() == 0 || oldStamp == null || oldStamp.longValue() != e.getValue()) {
+				changedSheets.add(e.getKey());
+			}
+		}
+
+		List<ImageDef> extractDefs = new ArrayList<>();
+		Set<String> unchangedKeys = new HashSet<>();
+		for (ImageDef def : defs) {
+			String locationKey = locationKey(def);
+			if (changedSheets.contains(def.getPath()) || !oldEntries.containsKey(locationKey)) {
+				extractDefs.add(def);
 			} else {
-				def.setTrimmed(def.getSource());
+				unchangedKeys.add(locationKey);
 			}
+		}
+
+		// Every entry on a changed sheet may turn into a hole, and a rebuild would
+		// decode those sheets anyway
+		long keptPixels = rectPixels(oldEntries.values(), e -> unchangedKeys.contains(locationKey(e)));
+		long holePixels = rectPixels(oldEntries.values(), e -> true) - keptPixels;
+		if (holePixels > FRAGMENTATION_THRESHOLD * (keptPixels + holePixels)) {
+			LOGGER.info("Atlas fragmentation could reach {}%, over {}%, compacting with a full rebuild.",
+					(100 * holePixels) / (keptPixels + holePixels), (int) (100 * FRAGMENTATION_THRESHOLD));
+			return null;
+		}
+
+		LOGGER.info("Updating Atlases: {} of {} sheets to decode",
+				extractDefs.stream().map(ImageDef::getPath).distinct().count(), stamps.size());
+
+		List<Atlas> atlases = new ArrayList<>();
+		for (int i = 0; i < oldManifest.getPageCount(); i++) {
+			AtlasManifest.Page page = oldManifest.getPage(i);
+			atlases.add(Atlas.reopen(this, page.getId(), page.getWidth(), page.getHeight(), page.getIconSize()));
+		}
+		int oldPageCount = atlases.size();
+
+		// Entries on changed sheets keep their rects reserved until their pixels are
+		// known, so nothing is packed over them in this update. Several entries can
+		// share one rect, which stays reserved while any of them is
+		Set<String> currentKeys = new HashSet<>(unchangedKeys);
+		for (ImageDef def : extractDefs) {
+			currentKeys.add(locationKey(def));
+		}
+		Map<String, AtlasManifest.Entry> reservedRects = new LinkedHashMap<>();
+		for (AtlasManifest.Entry entry : oldEntries.values()) {
+			if (currentKeys.contains(locationKey(entry))) {
+				reservedRects.putIfAbsent(rectKey(entry), entry);
+			}
+		}
+		Map<String, AtlasManifest.Entry> deadRects = new LinkedHashMap<>();
+		for (AtlasManifest.Entry entry : oldEntries.values()) {
+			if (!reservedRects.containsKey(rectKey(entry))) {
+				deadRects.putIfAbsent(rectKey(entry), entry);
+			}
+		}
+		int removedCount = (int) oldEntries.keySet().stream().filter(k -> !currentKeys.contains(k)).count();
+
+		for (AtlasManifest.Entry entry : reservedRects.values()) {
+			Atlas atlas = atlases.get(entry.getAtlasId());
+			Rectangle rect = entry.getRect();
+			if (atlas.isIconMode()) {
+				atlas.markIconSlot(atlas.getIconSlot(rect.x, rect.y));
+			} else {
+				atlas.getPacker().place(Atlas.mipCell(rect));
+			}
+			atlas.addUsedPixels(rect.width * rect.height);
+		}
+
+		Map<PixelHash, AtlasRef> hashCheck = new HashMap<>();
+		Map<String, AtlasRef> rectRefs = new HashMap<>();
+		List<ImageDef> keptDefs = new ArrayList<>();
+		for (ImageDef def : defs) {
+			if (unchangedKeys.contains(locationKey(def))) {
+				keepEntry(def, oldEntries.get(locationKey(def)), atlases, rectRefs, hashCheck);
+				keptDefs.add(def);
+			}
+		}
+
+		// Pages are loaded when first written to, and a def is kept or packed once its
+		// sheet has been decoded
+		Set<Atlas> modified = new LinkedHashSet<>();
+		Set<String> changedKeys = new HashSet<>();
+		List<ImageDef> addedDefs = new ArrayList<>();
+		Map<String, Sprite> spriteByKey = new HashMap<>();
+		streamSprites(extractDefs, spriteByKey, batchDefs -> {
+			// A key whose pixels or trim differ from its entry is stale for every def
+			for (ImageDef def : batchDefs) {
+				AtlasManifest.Entry entry = oldEntries.get(locationKey(def));
+				if (entry != null && !spriteByKey.get(spriteKey(def)).matches(entry)) {
+					changedKeys.add(locationKey(def));
+				}
+			}
+			List<ImageDef> packDefs = new ArrayList<>();
+			for (ImageDef def : batchDefs) {
+				String locationKey = locationKey(def);
+				if (oldEntries.containsKey(locationKey) && !changedKeys.contains(locationKey)) {
+					keepEntry(def, oldEntries.get(locationKey), atlases, rectRefs, hashCheck);
+					keptDefs.add(def);
+				} else {
+					packDefs.add(def);
+				}
+			}
+			addedDefs.addAll(packDefs);
+
+			List<Blit> blits = packSprites(packDefs, spriteByKey, atlases, hashCheck);
+			List<Atlas> loads = new ArrayList<>();
+			for (Blit blit : blits) {
+				if (modified.add(blit.atlas)) {
+					loads.add(blit.atlas);
+				}
+			}
+			loads.parallelStream().forEach(atlas -> loadPage(folderAtlas, atlas, oldPageCount, deadRects.values()));
+			blitSprites(blits);
 		});
+		logAtlasUsage(atlases);
+
+		// A changed entry's rect is a hole from now on, unless a kept entry shares it
+		List<AtlasManifest.Entry> changedRects = new ArrayList<>();
+		for (String locationKey : changedKeys) {
+			AtlasManifest.Entry entry = oldEntries.get(locationKey);
+			if (!rectRefs.containsKey(rectKey(entry)) && deadRects.putIfAbsent(rectKey(entry), entry) == null) {
+				changedRects.add(entry);
+			}
+		}
+		for (AtlasManifest.Entry entry : changedRects) {
+			Atlas atlas = atlases.get(entry.getAtlasId());
+			if (modified.add(atlas)) {
+				loadPage(folderAtlas, atlas, oldPageCount, deadRects.values());
+			} else {
+				clearRects(atlas, Collections.singletonList(entry));
+			}
+		}
+		for (AtlasManifest.Entry entry : deadRects.values()) {
+			Atlas atlas = atlases.get(entry.getAtlasId());
+			if (modified.add(atlas)) {
+				loadPage(folderAtlas, atlas, oldPageCount, deadRects.values());
+			}
+		}
+
+		LOGGER.info("Updated Atlases: {} kept, {} added, {} removed, {} changed", keptDefs.size(),
+				addedDefs.size(), removedCount, changedKeys.size());
+
+		writeAtlases(folderAtlas, modified);
+		AtlasManifest manifest = writeManifest(folderAtlas, atlases, def -> {
+			Sprite sprite = spriteByKey.get(spriteKey(def));
+			return (sprite != null) ? sprite.hash : oldEntries.get(locationKey(def)).getHash();
+		}, stamps);
+
+		LOGGER.info("Atlas update complete: {} of {} atlases rewritten.", modified.size(), atlases.size());
+		return manifest;
+	}
+
+	/**
+	 * Points the def at its manifest entry, sharing one ref per rect.
+	 */
+	private static void keepEntry(ImageDef def, AtlasManifest.Entry entry, List<Atlas> atlases,
+			Map<String, AtlasRef> rectRefs, Map<PixelHash, AtlasRef> hashCheck) {
+		Rectangle source = def.getSource();
+		Rectangle rect = entry.getRect();
+		Point trim = entry.getTrim();
+		AtlasRef shared = rectRefs.get(rectKey(entry));
+		if (shared != null) {
+			def.getAtlasRef().set(shared.getAtlas(), shared.getRect(), trim);
+		} else {
+			def.getAtlasRef().set(atlases.get(entry.getAtlasId()), rect, trim);
+			rectRefs.put(rectKey(entry), def.getAtlasRef());
+		}
+		def.setTrimmed(new Rectangle(source.x + trim.x, source.y + trim.y, rect.width, rect.height));
+		hashCheck.putIfAbsent(entry.getHash(), def.getAtlasRef());
+	}
+
+	/**
+	 * Gives a reopened page its image, read back from disk, with the dead rects on
+	 * it cleared. A fresh page already has an image.
+	 */
+	private static void loadPage(File folderAtlas, Atlas atlas, int oldPageCount,
+			Collection<AtlasManifest.Entry> deadRects) {
+		if (atlas.getImage() != null) {
+			return; // Fresh page
+		}
+		BufferedImage image = new BufferedImage(atlas.getWidth(), atlas.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		if (atlas.getId() < oldPageCount) {
+			BufferedImage oldImage = readAtlasImage(folderAtlas, atlas.getId());
+			oldImage.getRGB(0, 0, atlas.getWidth(), atlas.getHeight(), data, 0, atlas.getWidth());
+		}
+		atlas.setImage(image);
+		clearRects(atlas, deadRects);
+	}
+
+	private static void clearRects(Atlas atlas, Collection<AtlasManifest.Entry> entries) {
+		int[] data = ((DataBufferInt) atlas.getImage().getRaster().getDataBuffer()).getData();
+		for (AtlasManifest.Entry entry : entries) {
+			if (entry.getAtlasId() == atlas.getId()) {
+				Rectangle rect = entry.getRect();
+				for (int row = 0; row < rect.height; row++) {
+					int offset = (rect.y + row) * atlas.getWidth() + rect.x;
+					Arrays.fill(data, offset, offset + rect.width, 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pixels of the distinct rects of the entries that pass the filter.
+	 */
+	private static long rectPixels(Collection<AtlasManifest.Entry> entries,
+			Predicate<AtlasManifest.Entry> filter) {
+		Map<String, Rectangle> rects = new HashMap<>();
+		for (AtlasManifest.Entry entry : entries) {
+			if (filter.test(entry)) {
+				rects.putIfAbsent(rectKey(entry), entry.getRect());
+			}
+		}
+		return rects.values().stream().mapToLong(r -> (long) r.width * r.height).sum();
+	}
+
+	/**
+	 * The stamp of every sheet the defs use, see {@link ImageDef#getSheetStamp()}.
+	 * Only file metadata is read.
+	 */
+	private static Map<String, Long> sheetStamps(List<ImageDef> stampDefs) {
+		Map<String, ImageDef> defBySheet = new LinkedHashMap<>();
+		for (ImageDef def : stampDefs) {
+			defBySheet.putIfAbsent(def.getPath(), def);
+		}
+		return defBySheet.values().parallelStream()
+				.collect(Collectors.toMap(ImageDef::getPath, ImageDef::getSheetStamp));
+	}
+
+	/**
+	 * Stage 1, streamed a batch of sheets at a time into the consumer for stages 2
+	 * and 3. Each sheet is decoded once, and all of its distinct source rects are
+	 * trimmed, extracted and hashed before the sheet is let go. The consumer then
+	 * packs and copies the batch, after which the sprite pixels are dropped, so at
+	 * most {@link #SHEET_BATCH} sheets and their sprites are held at once. Sheets
+	 * with the largest sprites go first, so packing still sees roughly descending
+	 * sizes.
+	 * 
+	 * Fills spriteByKey with the sprite of every def, which keeps its trim and
+	 * hash.
+	 */
+	private void streamSprites(List<ImageDef> extractDefs, Map<String, Sprite> spriteByKey,
+			Consumer<List<ImageDef>> batchConsumer) {
+		Map<String, ImageSheetLoader> loaders = new LinkedHashMap<>();
+		Map<String, List<ImageDef>> defsBySheet = new LinkedHashMap<>();
+		Map<String, List<Sprite>> spritesBySheet = new HashMap<>();
+		Map<String, Long> largestBySheet = new HashMap<>();
+		for (ImageDef def : extractDefs) {
+			loaders.put(def.getPath(), def.getLoader());
+			defsBySheet.computeIfAbsent(def.getPath(), p -> new ArrayList<>()).add(def);
+			spriteByKey.computeIfAbsent(spriteKey(def), k -> {
+				Sprite sprite = new Sprite(def);
+				spritesBySheet.computeIfAbsent(def.getPath(), p -> new ArrayList<>()).add(sprite);
+				return sprite;
+			});
+			Rectangle source = def.getSource();
+			largestBySheet.merge(def.getPath(), (long) source.width * source.height, Math::max);
+		}
+		List<String> sheets = new ArrayList<>(defsBySheet.keySet());
+		sheets.sort(Comparator.<String, Long>comparing(largestBySheet::get).reversed());
+
+		LOGGER.info("Building Atlases...");
+		long stageStart = System.currentTimeMillis();
+		int spriteCount = spritesBySheet.values().stream().mapToInt(List::size).sum();
+		AtomicInteger sheetDecodes = new AtomicInteger(0);
+		int processedCount = 0;
+		for (int start = 0; start < sheets.size(); start += SHEET_BATCH) {
+			List<String> batch = sheets.subList(start, Math.min(start + SHEET_BATCH, sheets.size()));
+			batch.parallelStream().forEach(path -> {
+				BufferedImage imageSheet = loaders.get(path).apply(path);
+				sheetDecodes.incrementAndGet();
+				if (imageSheet == null) {
+					LOGGER.error("Failed to load image sheet: {}", path);
+					System.exit(-1);
+					return;
+				}
+				for (Sprite sprite : spritesBySheet.get(path)) {
+					sprite.extract(imageSheet);
+				}
+				imageSheet.flush();
+			});
+
+			List<ImageDef> batchDefs = new ArrayList<>();
+			for (String path : batch) {
+				for (ImageDef def : defsBySheet.get(path)) {
+					def.setTrimmed(spriteByKey.get(spriteKey(def)).trimmed);
+					batchDefs.add(def);
+				}
+			}
+			batchConsumer.accept(batchDefs);
 
-		LOGGER.info("Atlas Packing...");
-		defs.sort(Comparator.<ImageDef, Integer>comparing(i -> {
+			int batchSprites = 0;
+			for (String path : batch) {
+				for (Sprite sprite : spritesBySheet.get(path)) {
+					sprite.release();
+					batchSprites++;
+				}
+			}
+			processedCount += batchSprites;
+			if (processedCount / LOG_INTERVAL != (processedCount - batchSprites) / LOG_INTERVAL) {
+				LOGGER.info("Building Atlases... {}/{}", processedCount, spriteCount);
+			}
+		}
+		LOGGER.info("Built {} images ({} distinct) from {} sheets, {} sheet decodes, in {} ms", extractDefs.size(),
+				spriteCount, sheets.size(), sheetDecodes.get(), System.currentTimeMillis() - stageStart);
+	}
+
+	/**
+	 * Stage 2: packs the defs into the atlases, deduplicating by location and by
+	 * pixel hash, and adding pages as needed. Returns the pixel copies to make.
+	 */
+	private List<Blit> packSprites(List<ImageDef> packDefs, Map<String, Sprite> spriteByKey, List<Atlas> atlases,
+			Map<PixelHash, AtlasRef> hashCheck) {
+		packDefs = new ArrayList<>(packDefs);
+		packDefs.sort(Comparator.<ImageDef, Integer>comparing(i -> {
 			Rectangle r = i.getTrimmed();
 			return r.width * r.height;
 		}).reversed());
 
 		Map<String, AtlasRef> locationCheck = new HashMap<>();
-		Map<String, AtlasRef> md5Check = new HashMap<>();
-
-		long totalPixels = defs.stream().mapToLong(def -> {
-			Rectangle r = def.getTrimmed();
-			return r.width * r.height;
-		}).sum();
-		long progressPixels = 0;
-
-		List<Atlas> atlases = new ArrayList<>();
-		atlases.add(Atlas.init(this, atlases.size(), ATLAS_SIZE, ATLAS_SIZE));
-		Atlas iconsAtlas = null;
-		int imageCount = 0;
-		for (ImageDef def : defs) {
-			imageCount++;
+		List<Blit> blits = new ArrayList<>();
 
+		for (ImageDef def : packDefs) {
 			if (def.getAtlasRef().isValid()) {
 				continue;// Shared ref
 			}
 
 			Rectangle source = def.getSource();
 			Rectangle trimmed = def.getTrimmed();
-			progressPixels += trimmed.width * trimmed.height;
 
-			String locationKey = def.getPath() + "|" + source.x + "|" + source.y + "|" + source.width + "|"
-					+ source.height;
+			String locationKey = locationKey(def);
 
 			AtlasRef cached = locationCheck.get(locationKey);
 			if (cached != null) {
@@ -170,16 +489,8 @@ public class AtlasPackage {
 				continue;
 			}
 
-			BufferedImage imageSheet;
-			try {
-				imageSheet = imageSheets.get(def.getPath());
-			} catch (ExecutionException e) {
-				e.printStackTrace();
-				System.exit(-1);
-				return null;
-			}
-			String md5key = computeMD5(imageSheet, trimmed);
-			cached = md5Check.get(md5key);
+			Sprite sprite = spriteByKey.get(spriteKey(def));
+			cached = hashCheck.get(sprite.hash);
 			if (cached != null) {
 				def.getAtlasRef().set(cached.getAtlas(), cached.getRect(), cached.getTrim());
 				locationCheck.put(locationKey, def.getAtlasRef());
@@ -189,299 +500,499 @@ public class AtlasPackage {
 			Rectangle rect = new Rectangle(trimmed.width, trimmed.height);
 			boolean icon = (rect.width <= IconManager.ICON_SIZE)  && (rect.height <= IconManager.ICON_SIZE);
 
-			Atlas atlas;
+			Atlas atlas = null;
 			if (icon) {
-				if (iconsAtlas == null || (iconsAtlas.getIconCount() >= iconsAtlas.getIconMaxCount())) {
-					iconsAtlas = Atlas.initIcons(this, atlases.size(), ATLAS_ICONS_SIZE, ATLAS_ICONS_SIZE, IconManager.ICON_SIZE);
-					LOGGER.info("Icons Atlas {} -  {}/{} ({}%)", atlases.size(), imageCount, defs.size(),
-							(100 * progressPixels) / totalPixels);
-					atlases.add(iconsAtlas);
+				int slot = -1;
+				for (Atlas iconsAtlas : atlases) {
+					if (iconsAtlas.isIconMode() && (slot = iconsAtlas.allocateIconSlot()) != -1) {
+						atlas = iconsAtlas;
+						break;
+					}
+				}
+				if (atlas == null) {
+					atlas = Atlas.initIcons(this, atlases.size(), ATLAS_ICONS_SIZE, ATLAS_ICONS_SIZE, IconManager.ICON_SIZE);
+					LOGGER.info("Icons Atlas {}", atlases.size());
+					atlases.add(atlas);
+					slot = atlas.allocateIconSlot();
 				}
-				atlas = iconsAtlas;
-				int iconCount = atlas.getIconCount();
-				int iconColumns = atlas.getIconColumns();
-				int iconSize = atlas.getIconSize();
-				rect.x = (iconCount % iconColumns) * iconSize;
-				rect.y = (iconCount / iconColumns) * iconSize;
-				copyToAtlas(imageSheet, def, atlas, rect);
-				atlas.setIconCount(iconCount + 1);
+				Rectangle slotRect = atlas.getIconSlotRect(slot);
+				rect.x = slotRect.x;
+				rect.y = slotRect.y;
 
 			} else {
-				nextImage: while (true) {
-					nextAtlas: for (int id = atlases.size() - 1; id >= 0; id--) {
-						atlas = atlases.get(id);
-						if (atlas.isIconMode()) {
-							continue;
-						}
-
-						List<Dimension> failedPackingSizes = atlas.getFailedPackingSizes();
-						for (Dimension size : failedPackingSizes) {
-							if (rect.width >= size.width && rect.height >= size.height) {
-								continue nextAtlas;
-							}
-						}
-
-						Quadtree occupied = atlas.getOccupied();
-						for (rect.y = 0; rect.y < ATLAS_SIZE - rect.height; rect.y++) {
-							int nextY = ATLAS_SIZE;
-							for (rect.x = 0; rect.x < ATLAS_SIZE - rect.width; rect.x++) {
-								Rectangle collision = occupied.insertIfNoCollision(rect);
-								if (collision != null) {
-									rect.x = collision.x + collision.width - 1;
-									nextY = Math.min(nextY, collision.y + collision.height);
-								} else {
-									copyToAtlas(imageSheet, def, atlas, rect);
-									break nextImage;
-								}
-							}
-							rect.y = nextY - 1;
-						}
-
-						{
-							boolean replaced = false;
-							for (Dimension size : failedPackingSizes) {
-								if (rect.width <= size.width && rect.height <= size.height) {
-									size.setSize(rect.width, rect.height);
-									replaced = true;
-									break;
-								}
-							}
-							if (!replaced) {
-								failedPackingSizes.add(new Dimension(rect.width, rect.height));
-							}
-						}
-					}
-					LOGGER.info("Atlas {} -  {}/{} ({}%)", atlases.size(), imageCount, defs.size(),
-							(100 * progressPixels) / totalPixels);
+				Rectangle cell = Atlas.mipCell(rect);
+				Placement placement = findPlacement(atlases, cell);
+				if (placement == null) {
+					LOGGER.info("Atlas {}", atlases.size());
 					atlases.add(Atlas.init(this, atlases.size(), ATLAS_SIZE, ATLAS_SIZE));
+					placement = findPlacement(atlases, cell);
+					if (placement == null) {
+						LOGGER.error("Image is too large for an atlas: {} ({}x{})", def.getPath(), rect.width,
+								rect.height);
+						System.exit(-1);
+						return null;
+					}
 				}
+				atlas = atlases.get(placement.getAtlasId());
+				cell = placement.getRect();
+				atlas.getPacker().place(cell);
+				rect.x = cell.x;
+				rect.y = cell.y;
 			}
+			atlas.addUsedPixels(rect.width * rect.height);
+			blits.add(new Blit(atlas, rect, sprite));
 
 			Point trim = new Point(trimmed.x - source.x, trimmed.y - source.y);
 			def.getAtlasRef().set(atlas, rect, trim);
 			locationCheck.put(locationKey, def.getAtlasRef());
-			md5Check.put(md5key, def.getAtlasRef());
+			hashCheck.put(sprite.hash, def.getAtlasRef());
 		}
+		return blits;
+	}
 
-		LOGGER.info("Freeing Image Sheets...");
-		imageSheets.invalidateAll();
-		imageSheets.cleanUp();
+	private static void logAtlasUsage(List<Atlas> atlases) {
+		long usedPixels = 0;
+		long atlasPixels = 0;
+		int iconAtlasCount = 0;
+		for (Atlas atlas : atlases) {
+			usedPixels += atlas.getUsedPixels();
+			atlasPixels += (long) atlas.getWidth() * atlas.getHeight();
+			if (atlas.isIconMode()) {
+				iconAtlasCount++;
+			}
+			LOGGER.debug("Atlas {}{} - {}% used", atlas.getId(), atlas.isIconMode() ? " (icons)" : "",
+					(100 * atlas.getUsedPixels()) / ((long) atlas.getWidth() * atlas.getHeight()));
+		}
+		LOGGER.info("Atlas Packing: {} atlases ({} icons), {}/{} pixels used ({}%)", atlases.size(),
+				iconAtlasCount, usedPixels, atlasPixels, (100 * usedPixels) / atlasPixels);
+	}
 
+	/**
+	 * Stage 3: copies pixels into the atlas rasters, one page per task.
+	 */
+	private static void blitSprites(List<Blit> blits) {
+		Map<Atlas, List<Blit>> blitsByAtlas = blits.stream().collect(Collectors.groupingBy(b -> b.atlas));
+		blitsByAtlas.entrySet().parallelStream().forEach(e -> {
+			Atlas atlas = e.getKey();
+			int[] data = ((DataBufferInt) atlas.getImage().getRaster().getDataBuffer()).getData();
+			int stride = atlas.getWidth();
+			for (Blit blit : e.getValue()) {
+				Rectangle rect = blit.rect;
+				int[] pixels = blit.sprite.pixels;
+				for (int row = 0; row < rect.height; row++) {
+					System.arraycopy(pixels, row * rect.width, data, (rect.y + row) * stride + rect.x, rect.width);
+				}
+			}
+		});
+	}
+
+	private static void writeAtlases(File folderAtlas, Collection<Atlas> atlases) {
 		folderAtlas.mkdirs();
-		for (File file : folderAtlas.listFiles()) {
-			file.delete();
-		}		
+		atlases.stream().forEach(atlas -> {
+			File fileAtlas = new File(folderAtlas, "atlas-" + atlas.getId() + PAGE_FORMAT.getExtension());
+			try {
+				if (PAGE_FORMAT == PageFormat.PNG) {
+					writePNG(fileAtlas, atlas.getImage());
+				} else {
+					AtlasPageFile.write(fileAtlas, atlas.getImage(), PAGE_FORMAT == PageFormat.LZ4);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			// A page rewritten in another format must not be shadowed by its old file
+			for (PageFormat format : PageFormat.values()) {
+				if (format != PAGE_FORMAT) {
+					new File(folderAtlas, "atlas-" + atlas.getId() + format.getExtension()).delete();
+				}
+			}
+
+			LOGGER.info("Write Atlas: {}", fileAtlas.getAbsolutePath());
+		});
+	}
+
+	private static void writePNG(File fileAtlas, BufferedImage image) throws IOException {
+		Iterator<ImageWriter> writerIterator = ImageIO.getImageWritersByFormatName("png");
+		if (!writerIterator.hasNext()) {
+			throw new RuntimeException("PNG writer not available!");
+		}
+
+		ImageWriter writer = writerIterator.next();
+		try (ImageOutputStream ios = ImageIO.createImageOutputStream(fileAtlas)) {
+			writer.setOutput(ios);
+			ImageWriteParam writeParam = writer.getDefaultWriteParam();
+			
+			if (writeParam.canWriteCompressed()) {
+				writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				writeParam.setCompressionType("Deflate");
+				// Use moderate compression for good balance of size vs quality
+				writeParam.setCompressionQuality(0.9f);
+			}
+			
+			writer.write(null, new IIOImage(image, null, null), writeParam);
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Reads an atlas page in whichever format it was written, including legacy
+	 * WebP pages.
+	 */
+	private static BufferedImage readAtlasImage(File folderAtlas, int id) {
+		File fileAtlas = null;
+		for (PageFormat format : PageFormat.values()) {
+			File file = new File(folderAtlas, "atlas-" + id + format.getExtension());
+			if (file.exists()) {
+				fileAtlas = file;
+				break;
+			}
+		}
+		File fileAtlasWebP = new File(folderAtlas, "atlas-" + id + ".webp");
+		if (fileAtlas == null && fileAtlasWebP.exists()) {
+			// Support legacy WebP files if they exist
+			fileAtlas = fileAtlasWebP;
+			LOGGER.info("Using legacy WebP atlas file: {}", fileAtlasWebP.getName());
+		}
+		if (fileAtlas == null) {
+			LOGGER.error("No atlas file found for atlas {}", id);
+			System.exit(-1);
+			return null;
+		}
 
-		JSONArray jsonManifest = new JSONArray();
+		try {
+			if (fileAtlas.getName().endsWith(PageFormat.RAW.getExtension())
+					|| fileAtlas.getName().endsWith(PageFormat.LZ4.getExtension())) {
+				return AtlasPageFile.read(fileAtlas);
+			}
+			return ImageIO.read(fileAtlas);
+		} catch (IOException e) {
+			LOGGER.error("Failed to read atlas: {}", fileAtlas.getAbsolutePath(), e);
+			System.exit(-1);
+			return null;
+		}
+	}
+
+	private AtlasManifest writeManifest(File folderAtlas, List<Atlas> atlases,
+			Function<ImageDef, PixelHash> hashes, Map<String, Long> stamps) throws IOException {
+		List<AtlasManifest.Entry> entries = new ArrayList<>();
 		for (ImageDef def : defs) {
-			Rectangle source = def.getSource();
 			AtlasRef atlasRef = def.getAtlasRef();
-			JSONArray jsonEntry = new JSONArray();
 			Atlas atlas = atlasRef.getAtlas();
-			Rectangle rect = atlasRef.getRect();
-			Point trim = atlasRef.getTrim();
 
 			if (atlas.getAtlasPackage() != this) {
 				LOGGER.error("Image does not belong to this atlas package: {}", def.getPath());
 				System.exit(-1);
 			}
 
-			jsonEntry.put(def.getPath());
-			jsonEntry.put(source.x);
-			jsonEntry.put(source.y);
-			jsonEntry.put(source.width);
-			jsonEntry.put(source.height);
-			jsonEntry.put(atlas.getId());
-			jsonEntry.put(rect.x);
-			jsonEntry.put(rect.y);
-			jsonEntry.put(rect.width);
-			jsonEntry.put(rect.height);
-			jsonEntry.put(trim.x);
-			jsonEntry.put(trim.y);
-			jsonManifest.put(jsonEntry);
+			entries.add(new AtlasManifest.Entry(def.getPath(), stamps.get(def.getPath()), def.getSource(),
+					atlas.getId(), atlasRef.getRect(), atlasRef.getTrim(), hashes.apply(def)));
 		}
 
-		atlases.stream().forEach(atlas -> {
-			// Use PNG format for atlas generation
-			Iterator<ImageWriter> writerIterator = ImageIO.getImageWritersByFormatName("png");
-			String format = "png";
-			String fileExtension = ".png";
-			
-			if (!writerIterator.hasNext()) {
-				throw new RuntimeException("PNG writer not available!");
-			}
-			
-			ImageWriter writer = writerIterator.next();
-			try (ImageOutputStream ios = ImageIO.createImageOutputStream(new File(folderAtlas,
-					"atlas-" + atlas.getId() + fileExtension))) {
-				writer.setOutput(ios);
-				ImageWriteParam writeParam = writer.getDefaultWriteParam();
-				
-				if (writeParam.canWriteCompressed()) {
-					writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-					writeParam.setCompressionType("Deflate");
-					// Use moderate compression for good balance of size vs quality
-					writeParam.setCompressionQuality(0.9f);
-				}
-				
-				writer.write(null, new IIOImage(atlas.getImage(), null, null), writeParam);
-			} catch (IOException e) {
-				e.printStackTrace();
-			} finally {
-				writer.dispose();
-			}
+		List<AtlasManifest.Page> pages = new ArrayList<>();
+		for (Atlas atlas : atlases) {
+			pages.add(new AtlasManifest.Page(atlas.getId(), atlas.getWidth(), atlas.getHeight(),
+					atlas.isIconMode() ? atlas.getIconSize() : 0));
+		}
 
-			LOGGER.info("Write Atlas: {}", new File(folderAtlas, "atlas-" + atlas.getId() + fileExtension).getAbsolutePath());
-		});
+		File fileManifest = AtlasManifest.write(folderAtlas, entries, pages);
+		AtlasManifest manifest = AtlasManifest.open(fileManifest);
+		LOGGER.info("Write Manifest: {} ({} entries)", fileManifest.getAbsolutePath(), manifest.getEntryCount());
+
+		if (EXPORT_JSON_MANIFEST) {
+			exportJsonManifest(new File(folderAtlas, "atlas-manifest.zip"), manifest);
+		}
+		return manifest;
+	}
 
-		Files.createParentDirs(fileManifest);
-		try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(fileManifest))) {
+	private static void exportJsonManifest(File fileJson, AtlasManifest manifest) throws IOException {
+		JSONArray jsonPages = new JSONArray();
+		for (int i = 0; i < manifest.getPageCount(); i++) {
+			AtlasManifest.Page page = manifest.getPage(i);
+			JSONArray jsonPage = new JSONArray();
+			jsonPage.put(page.getId());
+			jsonPage.put(page.getWidth());
+			jsonPage.put(page.getHeight());
+			jsonPage.put(page.getIconSize());
+			jsonPages.put(jsonPage);
+		}
+
+		Files.createParentDirs(fileJson);
+		try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(fileJson))) {
 			zos.putNextEntry(new ZipEntry("atlas-manifest.json"));
-			zos.write(jsonManifest.toString(2).getBytes(StandardCharsets.UTF_8));
+			zos.write(manifest.toJson().toString(2).getBytes(StandardCharsets.UTF_8));
 			zos.closeEntry();
+			zos.putNextEntry(new ZipEntry("atlas-pages.json"));
+			zos.write(jsonPages.toString(2).getBytes(StandardCharsets.UTF_8));
+			zos.closeEntry();
+		}
+		LOGGER.info("Export Manifest: {}", fileJson.getAbsolutePath());
+	}
+
+	/**
+	 * The trimmed pixels of one distinct source rect, extracted once and shared
+	 * by every def that points at the same rect.
+	 */
+	private static class Sprite {
+		private final ImageDef def;
+		private Rectangle trimmed;
+		private int[] pixels;
+		private PixelHash hash;
+
+		public Sprite(ImageDef def) {
+			this.def = def;
 		}
-		LOGGER.info("Write Manifest: {} ({} entries)", fileManifest.getAbsolutePath(), defs.size());
 
-		LOGGER.info("Atlas generation complete.");
-		return jsonManifest;
+		public void extract(BufferedImage imageSheet) {
+			Rectangle source = def.getSource();
+			int[] sourcePixels = readPixels(imageSheet, source);
+			Rectangle trim = def.isTrimmable() ? trimEmptyRect(sourcePixels, source.width, source.height)
+					: new Rectangle(source.width, source.height);
+			trimmed = new Rectangle(source.x + trim.x, source.y + trim.y, trim.width, trim.height);
+			pixels = new int[trim.width * trim.height];
+			for (int row = 0; row < trim.height; row++) {
+				int srcOffset = (trim.y + row) * source.width + trim.x;
+				int dstOffset = row * trim.width;
+				for (int col = 0; col < trim.width; col++) {
+					int argb = sourcePixels[srcOffset + col];
+					// Fully transparent pixels would not show on the atlas either
+					pixels[dstOffset + col] = ((argb >>> 24) == 0) ? 0 : argb;
+				}
+			}
+			hash = PixelHash.of(pixels, trim.width, trim.height);
+		}
+
+		/**
+		 * Drops the pixels once they are on the atlas, keeping the trim and hash.
+		 */
+		public void release() {
+			pixels = null;
+		}
+
+		/**
+		 * True if the manifest entry still holds these pixels at the same trim.
+		 */
+		public boolean matches(AtlasManifest.Entry entry) {
+			Rectangle source = def.getSource();
+			Point trim = entry.getTrim();
+			return hash.equals(entry.getHash()) && trimmed.x - source.x == trim.x && trimmed.y - source.y == trim.y;
+		}
 	}
 
-    public void initialize() throws IOException {
-		File folderAtlas = new File(packageFolder, "atlas");
-		File fileManifest = new File(folderAtlas, "atlas-manifest.zip");
+	private static class Blit {
+		private final Atlas atlas;
+		private final Rectangle rect;
+		private final Sprite sprite;
+
+		public Blit(Atlas atlas, Rectangle rect, Sprite sprite) {
+			this.atlas = atlas;
+			this.rect = rect;
+			this.sprite = sprite;
+		}
+	}
 
-		JSONArray jsonManifest = null;
-		if (!fileManifest.exists() || !checkValidManifest(jsonManifest = readManifest(fileManifest))) {
-			jsonManifest = generateAtlases(folderAtlas, fileManifest);
+	private static String locationKey(ImageDef def) {
+		Rectangle source = def.getSource();
+		return def.getPath() + "|" + source.x + "|" + source.y + "|" + source.width + "|" + source.height;
+	}
+
+	private static String locationKey(AtlasManifest.Entry entry) {
+		Rectangle source = entry.getSource();
+		return entry.getPath() + "|" + source.x + "|" + source.y + "|" + source.width + "|" + source.height;
+	}
+
+	private static String rectKey(AtlasManifest.Entry entry) {
+		Rectangle rect = entry.getRect();
+		return entry.getAtlasId() + "|" + rect.x + "|" + rect.y + "|" + rect.width + "|" + rect.height;
+	}
+
+	private static String spriteKey(ImageDef def) {
+		Rectangle source = def.getSource();
+		return def.getPath() + "|" + source.x + "|" + source.y + "|" + source.width + "|" + source.height + "|"
+				+ def.isTrimmable();
+	}
+
+	/**
+	 * Reads the source rect as ARGB, leaving any part that falls outside of the
+	 * sheet transparent.
+	 */
+	private static int[] readPixels(BufferedImage imageSheet, Rectangle source) {
+		int[] pixels = new int[source.width * source.height];
+		Rectangle clip = source.intersection(new Rectangle(imageSheet.getWidth(), imageSheet.getHeight()));
+		if (!clip.isEmpty()) {
+			int offset = (clip.y - source.y) * source.width + (clip.x - source.x);
+			imageSheet.getRGB(clip.x, clip.y, clip.width, clip.height, pixels, offset, source.width);
 		}
+		return pixels;
+	}
 
-		if (jsonManifest == null) {
-			jsonManifest = readManifest(fileManifest);
+	private static class Placement {
+		private final int atlasId;
+		private final MaxRectsPacker.Placement fit;
+
+		public Placement(int atlasId, MaxRectsPacker.Placement fit) {
+			this.atlasId = atlasId;
+			this.fit = fit;
+		}
+
+		public int getAtlasId() {
+			return atlasId;
+		}
+
+		public Rectangle getRect() {
+			return fit.getRect();
 		}
-		loadAtlases(folderAtlas, jsonManifest);
 	}
 
-    private static JSONArray readManifest(File fileManifest) throws IOException {
-		JSONArray jsonManifest;
-		try (ZipFile zipFile = new ZipFile(fileManifest)) {
-			ZipEntry entry = zipFile.getEntry("atlas-manifest.json");
-			if (entry == null) {
-				throw new IOException("Missing atlas-manifest.json in zip file");
+	/**
+	 * Scores the rect against every open sprite atlas, in parallel once there are
+	 * several pages, and returns the tightest fit. Ties go to the lowest atlas id
+	 * so the result does not depend on thread timing.
+	 */
+	private static Placement findPlacement(List<Atlas> atlases, Rectangle rect) {
+		MaxRectsPacker.Placement[] fits = new MaxRectsPacker.Placement[atlases.size()];
+		IntStream ids = IntStream.range(0, atlases.size());
+		if (atlases.size() >= PARALLEL_PACKING_ATLASES) {
+			ids = ids.parallel();
+		}
+		ids.forEach(id -> {
+			Atlas atlas = atlases.get(id);
+			if (atlas.isIconMode()) {
+				return;
+			}
+
+			List<Dimension> failedPackingSizes = atlas.getFailedPackingSizes();
+			for (Dimension size : failedPackingSizes) {
+				if (rect.width >= size.width && rect.height >= size.height) {
+					return;
+				}
 			}
-			try (var reader = new InputStreamReader(zipFile.getInputStream(entry), StandardCharsets.UTF_8)) {
-				jsonManifest = new JSONArray(new JSONTokener(reader));
+
+			fits[id] = atlas.getPacker().findPosition(rect.width, rect.height);
+
+			if (fits[id] == null) {
+				boolean replaced = false;
+				for (Dimension size : failedPackingSizes) {
+					if (rect.width <= size.width && rect.height <= size.height) {
+						size.setSize(rect.width, rect.height);
+						replaced = true;
+						break;
+					}
+				}
+				if (!replaced) {
+					failedPackingSizes.add(new Dimension(rect.width, rect.height));
+				}
+			}
+		});
+
+		int bestId = -1;
+		for (int id = 0; id < fits.length; id++) {
+			if (fits[id] != null && (bestId == -1 || fits[id].isBetterThan(fits[bestId]))) {
+				bestId = id;
 			}
 		}
-		LOGGER.info("Read Manifest: {} ({} entries)", fileManifest.getAbsolutePath(), jsonManifest.length());
-		return jsonManifest;
+		return (bestId == -1) ? null : new Placement(bestId, fits[bestId]);
 	}
 
-	private boolean checkValidManifest(JSONArray jsonManifest) throws IOException {
-		Set<String> currentKeys = new HashSet<>();
-		for (ImageDef image : defs) {
-			Rectangle source = image.getSource();
-			String locationKey = image.getPath() + "|" + source.x + "|" + source.y + "|" + source.width + "|"
-					+ source.height;
-			currentKeys.add(locationKey);
+    public void initialize() throws IOException {
+		File folderAtlas = new File(packageFolder, "atlas");
+		File fileManifest = AtlasManifest.findLatest(folderAtlas);
+
+		AtlasManifest manifest = null;
+		if (fileManifest != null) {
+			try {
+				manifest = AtlasManifest.open(fileManifest);
+			} catch (IOException e) {
+				LOGGER.info("Atlas manifest can not be used ({}), full rebuild required.", e.getMessage());
+			}
 		}
+		if (manifest == null) {
+			if (fileManifest == null && new File(folderAtlas, "atlas-manifest.zip").exists()) {
+				LOGGER.info("Atlas manifest is in the old JSON format, full rebuild required.");
+			}
+			manifest = generateAtlases(folderAtlas);
+		} else {
+			LOGGER.info("Read Manifest: {} ({} entries)", fileManifest.getAbsolutePath(), manifest.getEntryCount());
+			if (!checkValidManifest(manifest)) {
+				AtlasManifest updated = updateAtlases(folderAtlas, manifest);
+				manifest = (updated != null) ? updated : generateAtlases(folderAtlas);
+			}
+		}
+		AtlasManifest.deleteOlder(folderAtlas, manifest);
 
-		Set<String> manifestKeys = new HashSet<>();
+		loadAtlases(folderAtlas, manifest);
+	}
 
-		for (int i = 0; i < jsonManifest.length(); i++) {
-			JSONArray jsonEntry = jsonManifest.getJSONArray(i);
-			String path = jsonEntry.getString(0);
-			int srcX = jsonEntry.getInt(1);
-			int srcY = jsonEntry.getInt(2);
-			int width = jsonEntry.getInt(3);
-			int height = jsonEntry.getInt(4);
-			String locationKey = path + "|" + srcX + "|" + srcY + "|" + width + "|" + height;
-			manifestKeys.add(locationKey);
+	/**
+	 * Checks that the manifest has exactly the keys of the defs, and that no sheet
+	 * was changed since. A sheet that can not be stamped is not checked.
+	 */
+	private boolean checkValidManifest(AtlasManifest manifest) {
+		Map<String, Long> stamps = sheetStamps(defs);
+		Set<String> checkedSheets = new HashSet<>();
+		int changedSheets = 0;
+
+		// Defs can repeat a key, so count each manifest record once
+		BitSet matched = new BitSet(manifest.getEntryCount());
+		int missing = 0;
+		for (ImageDef image : defs) {
+			int record = manifest.find(image.getPath(), image.getSource());
+			if (record == -1) {
+				missing++;
+				continue;
+			}
+			matched.set(record);
+			if (checkedSheets.add(image.getPath())) {
+				long stamp = stamps.get(image.getPath());
+				if (stamp != 0 && stamp != manifest.getStamp(record)) {
+					changedSheets++;
+				}
+			}
 		}
+		int mismatched = missing + (manifest.getEntryCount() - matched.cardinality());
 
-		SetView<String> mismatched = Sets.symmetricDifference(currentKeys, manifestKeys);
-
-		if (!mismatched.isEmpty()) {
-			LOGGER.error("Atlas manifest mismatch detected: {} keys are different", mismatched.size());
+		if (mismatched > 0 || changedSheets > 0) {
+			LOGGER.error("Atlas manifest mismatch detected: {} keys are different, {} sheets changed", mismatched,
+					changedSheets);
 		}
 
-		return mismatched.isEmpty();
+		return mismatched == 0 && changedSheets == 0;
 	}
 
-	private void loadAtlases(File folderAtlas, JSONArray jsonManifest) throws IOException {
+	private void loadAtlases(File folderAtlas, AtlasManifest manifest) throws IOException {
 
 		defs.forEach(d -> d.getAtlasRef().reset());
 
-		int[] atlasIds = IntStream.range(0, jsonManifest.length()).map(i -> jsonManifest.getJSONArray(i).getInt(5))
-				.distinct().toArray();
+		int[] atlasIds = IntStream.range(0, manifest.getPageCount()).map(i -> manifest.getPage(i).getId()).toArray();
 		LOGGER.info("Read Atlases: {} {}", folderAtlas.getAbsolutePath(), Arrays.toString(atlasIds));
-		atlases = Arrays.stream(atlasIds).parallel().mapToObj(id -> {
-			// Look for PNG atlas files (generated format)
-			File fileAtlasPNG = new File(folderAtlas, "atlas-" + id + ".png");
-			File fileAtlasWebP = new File(folderAtlas, "atlas-" + id + ".webp");
-			
-			File fileAtlas = null;
-			if (fileAtlasPNG.exists()) {
-				fileAtlas = fileAtlasPNG;
-			} else if (fileAtlasWebP.exists()) {
-				// Support legacy WebP files if they exist
-				fileAtlas = fileAtlasWebP;
-				LOGGER.info("Using legacy WebP atlas file: {}", fileAtlasWebP.getName());
-			} else {
-				LOGGER.error("No atlas file found for atlas {} (looking for PNG or WebP)", id);
-				System.exit(-1);
-				return null;
+		if (AtlasStore.isLazy()) {
+			atlases = new ArrayList<>();
+			for (int i = 0; i < manifest.getPageCount(); i++) {
+				AtlasManifest.Page page = manifest.getPage(i);
+				int id = page.getId();
+				Atlas atlas = Atlas.lazy(this, id, page.getWidth(), page.getHeight());
+				AtlasStore.register(atlas, packageFolder.getName(), () -> readAtlasImage(folderAtlas, id));
+				atlases.add(atlas);
 			}
-			
-			try {
-				BufferedImage image = ImageIO.read(fileAtlas);
-				return Atlas.load(this, id, image);
-			} catch (IOException e) {
-				LOGGER.error("Failed to read atlas: {}", fileAtlas.getAbsolutePath(), e);
-				System.exit(-1);
-				return null;
-			}
-		}).sorted(Comparator.comparing(a -> a.getId())).collect(Collectors.toList());
-
-		// XXX not an elegant approach
-		class RefValues {
-			Atlas atlas;
-			Rectangle rect;
-			Point trim;
-		}
-		Map<String, RefValues> locationMap = new HashMap<>();
-		for (int i = 0; i < jsonManifest.length(); i++) {
-			JSONArray jsonEntry = jsonManifest.getJSONArray(i);
-			String path = jsonEntry.getString(0);
-			int srcX = jsonEntry.getInt(1);
-			int srcY = jsonEntry.getInt(2);
-			int srcWidth = jsonEntry.getInt(3);
-			int srcHeight = jsonEntry.getInt(4);
-			int id = jsonEntry.getInt(5);
-			int atlasX = jsonEntry.getInt(6);
-			int atlasY = jsonEntry.getInt(7);
-			int atlasWidth = jsonEntry.getInt(8);
-			int atlasHeight = jsonEntry.getInt(9);
-			int trimX = jsonEntry.getInt(10);
-			int trimY = jsonEntry.getInt(11);
-			String locationKey = path + "|" + srcX + "|" + srcY + "|" + srcWidth + "|" + srcHeight;
-			RefValues ref = new RefValues();
-			ref.atlas = atlases.get(id);
-			ref.rect = new Rectangle(atlasX, atlasY, atlasWidth, atlasHeight);
-			ref.trim = new Point(trimX, trimY);
-			locationMap.put(locationKey, ref);
+			LOGGER.info("Registered {} atlases to read on first use", atlases.size());
+		} else {
+			long loadStart = System.currentTimeMillis();
+			atlases = Arrays.stream(atlasIds).parallel()
+					.mapToObj(id -> Atlas.load(this, id, readAtlasImage(folderAtlas, id)))
+					.sorted(Comparator.comparing(a -> a.getId())).collect(Collectors.toList());
+			LOGGER.info("Read {} atlases in {} ms", atlases.size(), System.currentTimeMillis() - loadStart);
 		}
 
 		for (ImageDef image : defs) {
 			Rectangle source = image.getSource();
-			String locationKey = image.getPath() + "|" + source.x + "|" + source.y + "|" + source.width + "|"
-					+ source.height;
-			RefValues ref = locationMap.get(locationKey);
-			if (ref == null) {
-				LOGGER.error("MISSING ATLAS ENTRY FOR {}", locationKey);
+			int record = manifest.find(image.getPath(), source);
+			if (record == -1) {
+				LOGGER.error("MISSING ATLAS ENTRY FOR {}", locationKey(image));
 			} else {
-				image.getAtlasRef().set(ref.atlas, ref.rect, ref.trim);
-				image.setTrimmed(
-						new Rectangle(source.x + ref.trim.x, source.y + ref.trim.y, ref.rect.width, ref.rect.height));
+				Rectangle rect = manifest.getRect(record);
+				Point trim = manifest.getTrim(record);
+				image.getAtlasRef().set(atlases.get(manifest.getAtlasId(record)), rect, trim);
+				image.setTrimmed(new Rectangle(source.x + trim.x, source.y + trim.y, rect.width, rect.height));
 			}
 		}
 
@@ -494,74 +1005,12 @@ public class AtlasPackage {
 		defs.add(def);
 	}
 
-    private static void copyToAtlas(BufferedImage imageSheet, ImageDef def, Atlas atlas, Rectangle rect) {
-		// XXX Inefficient to make a context for every image
-		Graphics2D g = atlas.getImage().createGraphics();
-		Rectangle src = def.getTrimmed();
-		Rectangle dst = rect;
-		g.drawImage(imageSheet, dst.x, dst.y, dst.x + dst.width, dst.y + dst.height, src.x, src.y, src.x + src.width,
-				src.y + src.height, null);
-		g.dispose();
-	}
-
-    private static String computeMD5(BufferedImage imageSheet, Rectangle rect) {
-		int x = rect.x;
-		int y = rect.y;
-		int width = rect.width;
-		int height = rect.height;
-		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
-		Graphics2D g = image.createGraphics();
-		g.drawImage(imageSheet, 0, 0, width, height, x, y, x + width, y + height, null);
-		g.dispose();
-		byte[] imageBytes = extractPixelData(image);
-		MessageDigest md;
-		try {
-			md = MessageDigest.getInstance("MD5");
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
-			System.exit(-1);
-			return null;
-		}
-		byte[] digest = md.digest(imageBytes);
-		StringBuilder sb = new StringBuilder();
-		for (byte b : digest) {
-			sb.append(String.format("%02x", b));
-		}
-		return sb.toString();
-	}
-
-    private static byte[] extractPixelData(BufferedImage image) {
-		if (image.getRaster().getDataBuffer() instanceof DataBufferByte) {
-			// Fastest for images with a direct byte buffer
-			return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-		} else if (image.getRaster().getDataBuffer() instanceof DataBufferInt) {
-			// Convert int[] to byte[]
-			int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			for (int pixel : pixels) {
-				baos.write((pixel >> 24) & 0xFF);
-				baos.write((pixel >> 16) & 0xFF);
-				baos.write((pixel >> 8) & 0xFF);
-				baos.write(pixel & 0xFF);
-			}
-			return baos.toByteArray();
-		} else {
-			// Fallback for images that require conversion
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			try {
-				ImageIO.write(image, "png", baos);
-			} catch (Exception e) {
-				throw new RuntimeException("Error encoding image", e);
-			}
-			return baos.toByteArray();
-		}
-	}
-
-    private static Rectangle trimEmptyRect(BufferedImage imageSheet, Rectangle rect) {
-		Rectangle ret = new Rectangle(rect.width, rect.height);
-		int[] pixels = new int[rect.width * rect.height];
-		int span = ret.width;
-		imageSheet.getRGB(rect.x, rect.y, rect.width, rect.height, pixels, 0, span);
+	/**
+	 * Returns the bounds of the non-transparent pixels, relative to the block.
+	 */
+    private static Rectangle trimEmptyRect(int[] pixels, int width, int height) {
+		Rectangle ret = new Rectangle(width, height);
+		int span = width;
 
 		// Top
 		boolean fullEmpty = true;
@@ -579,8 +1028,6 @@ public class AtlasPackage {
 		if (fullEmpty) { // 1x1 transparent
 			ret.width = 1;
 			ret.height = 1;
-			ret.x += rect.x;
-			ret.y += rect.y;
 			return ret;
 		}
 
@@ -618,8 +1065,6 @@ public class AtlasPackage {
 			}
 		}
 
-		ret.x += rect.x;
-		ret.y += rect.y;
 		return ret;
 	}
 }
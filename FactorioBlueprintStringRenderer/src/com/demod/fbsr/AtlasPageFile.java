@@ -0,0 +1,139 @@
+package com.demod.fbsr;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Atlas page stored as ARGB ints, either uncompressed or as independent LZ4
+ * blocks of a few rows each. Both are read through a memory mapping, so an
+ * uncompressed page loads with a single bulk copy into the raster and no PNG
+ * inflate or unfiltering.
+ *
+ * <pre>
+ * header   magic, version, compressed, width, height, blockRows, blockCount (7 little-endian ints, padded to 32 bytes)
+ * lengths  blockCount x compressed block length (LZ4 only)
+ * pixels   width x height little-endian ARGB ints, raw or as LZ4 blocks
+ * </pre>
+ */
+final class AtlasPageFile {
+	private static final int MAGIC = 0x46424150; // FBAP
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	// About 256 KB of pixels per LZ4 block
+	private static final int BLOCK_PIXELS = 1 << 16;
+
+	public static BufferedImage read(File file) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not an atlas page: " + file.getName());
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported atlas page version: " + buffer.getInt(4));
+		}
+		boolean compressed = buffer.getInt(8) != 0;
+		int width = buffer.getInt(12);
+		int height = buffer.getInt(16);
+		int blockRows = buffer.getInt(20);
+		int blockCount = buffer.getInt(24);
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		if (!compressed) {
+			buffer.position(HEADER_SIZE);
+			buffer.asIntBuffer().get(data);
+			return image;
+		}
+
+		int blockBytes = blockRows * width * 4;
+		byte[] packed = new byte[Lz4.maxCompressedLength(blockBytes)];
+		byte[] unpacked = new byte[blockBytes];
+		IntBuffer unpackedInts = ByteBuffer.wrap(unpacked).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		int offset = HEADER_SIZE + blockCount * 4;
+		for (int block = 0; block < blockCount; block++) {
+			int length = buffer.getInt(HEADER_SIZE + block * 4);
+			buffer.position(offset);
+			buffer.get(packed, 0, length);
+			offset += length;
+
+			int pixels = Lz4.decompress(packed, 0, length, unpacked, 0) / 4;
+			unpackedInts.clear();
+			unpackedInts.get(data, block * blockRows * width, pixels);
+		}
+		return image;
+	}
+
+	/**
+	 * Writes the page next to the target and moves it into place.
+	 */
+	public static void write(File file, BufferedImage image, boolean compress) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] data;
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		} else {
+			data = image.getRGB(0, 0, width, height, null, 0, width);
+		}
+
+		int blockRows = Math.max(1, BLOCK_PIXELS / width);
+		int blockCount = (height + blockRows - 1) / blockRows;
+		byte[] unpacked = new byte[blockRows * width * 4];
+		IntBuffer unpackedInts = ByteBuffer.wrap(unpacked).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(compress ? 1 : 0).putInt(width).putInt(height)
+					.putInt(blockRows).putInt(compress ? blockCount : 0);
+			dos.write(header.array());
+
+			List<byte[]> blocks = new ArrayList<>();
+			ByteBuffer lengths = ByteBuffer.allocate(blockCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+			for (int block = 0; block < blockCount; block++) {
+				int start = block * blockRows * width;
+				int pixels = Math.min(blockRows * width, data.length - start);
+				unpackedInts.clear();
+				unpackedInts.put(data, start, pixels);
+				if (compress) {
+					byte[] packed = new byte[Lz4.maxCompressedLength(pixels * 4)];
+					int length = Lz4.compress(unpacked, 0, pixels * 4, packed, 0);
+					lengths.putInt(length);
+					blocks.add(Arrays.copyOf(packed, length));
+				} else {
+					dos.write(unpacked, 0, pixels * 4);
+				}
+			}
+
+			if (compress) {
+				dos.write(lengths.array());
+				for (byte[] packed : blocks) {
+					dos.write(packed);
+				}
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private AtlasPageFile() {
+	}
+}
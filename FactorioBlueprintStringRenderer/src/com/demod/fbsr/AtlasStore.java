@@ -0,0 +1,178 @@
+package com.demod.fbsr;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps atlas page rasters resident on demand, across all mod profiles.
+ *
+ * When a budget is set, pages are not read at startup. A page is read the first
+ * time a sprite is drawn from it, and the least recently used pages are dropped
+ * once the resident rasters, mip levels included, go over the budget. An evicted page is simply read
+ * again on its next use. With the raw or LZ4 page formats the files are
+ * memory-mapped, so the page cache holds the cold pages off-heap, shared by
+ * every renderer process on the host.
+ */
+public final class AtlasStore {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AtlasStore.class);
+
+	public static class Page {
+		private final Atlas atlas;
+		private final String label;
+		private final Supplier<BufferedImage> loader;
+		private final long bytes;
+
+		private volatile BufferedImage image = null;
+		// Counted once the mip levels of the resident image are built
+		private long mipBytes = 0;
+		private volatile long lastUse = 0;
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder faults = new LongAdder();
+		private final LongAdder loadNanos = new LongAdder();
+		private long evictions = 0;
+
+		private Page(Atlas atlas, String label, Supplier<BufferedImage> loader) {
+			this.atlas = atlas;
+			this.label = label;
+			this.loader = loader;
+			bytes = 4L * atlas.getWidth() * atlas.getHeight();
+		}
+
+		BufferedImage getImage() {
+			lastUse = System.nanoTime();
+			BufferedImage ret = image;
+			if (ret != null) {
+				hits.increment();
+				return ret;
+			}
+			synchronized (this) {
+				ret = image;
+				if (ret != null) {
+					hits.increment();
+					return ret;
+				}
+				long start = System.nanoTime();
+				ret = loader.get();
+				loadNanos.add(System.nanoTime() - start);
+				faults.increment();
+				image = ret;
+				onFault(this);
+				return ret;
+			}
+		}
+
+		public JSONObject toJson() {
+			JSONObject json = new JSONObject();
+			json.put("package", label);
+			json.put("id", atlas.getId());
+			json.put("resident", image != null);
+			json.put("bytes", bytes);
+			json.put("mip_bytes", mipBytes);
+			json.put("hits", hits.sum());
+			json.put("faults", faults.sum());
+			json.put("evictions", evictions);
+			json.put("load_ms", loadNanos.sum() / 1000000);
+			return json;
+		}
+	}
+
+	// 0 means every page is read at startup and stays resident
+	private static long residentBudget = 0;
+
+	private static final List<Page> pages = new ArrayList<>();
+	private static final Set<Page> residentPages = new LinkedHashSet<>();
+	private static long residentBytes = 0;
+	private static long evictionCount = 0;
+
+	public static synchronized long getResidentBudget() {
+		return residentBudget;
+	}
+
+	public static synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	public static synchronized JSONObject getStatsJson() {
+		JSONObject json = new JSONObject();
+		json.put("budget", residentBudget);
+		json.put("resident_bytes", residentBytes);
+		json.put("resident_pages", residentPages.size());
+		json.put("evictions", evictionCount);
+		JSONArray jsonPages = new JSONArray();
+		for (Page page : pages) {
+			jsonPages.put(page.toJson());
+		}
+		json.put("pages", jsonPages);
+		return json;
+	}
+
+	public static synchronized boolean isLazy() {
+		return residentBudget > 0;
+	}
+
+	private static synchronized void onFault(Page page) {
+		residentPages.add(page);
+		residentBytes += page.bytes;
+		evictOverBudget(page);
+	}
+
+	/**
+	 * Counts the mip levels built from the page's current image, unless the image
+	 * was evicted meanwhile.
+	 */
+	static synchronized void onMips(Page page, BufferedImage image, long bytes) {
+		if (page.image != image || !residentPages.contains(page)) {
+			return;
+		}
+		residentBytes += bytes - page.mipBytes;
+		page.mipBytes = bytes;
+		evictOverBudget(page);
+	}
+
+	private static void evictOverBudget(Page page) {
+		while (residentBytes > residentBudget && residentPages.size() > 1) {
+			Page victim = null;
+			for (Page resident : residentPages) {
+				if (resident != page && (victim == null || resident.lastUse < victim.lastUse)) {
+					victim = resident;
+				}
+			}
+			// Draws already holding the raster finish with it, the next use reads it again
+			victim.image = null;
+			victim.atlas.clearMips();
+			victim.evictions++;
+			evictionCount++;
+			residentPages.remove(victim);
+			residentBytes -= victim.bytes + victim.mipBytes;
+			victim.mipBytes = 0;
+			LOGGER.debug("Evicted atlas {} {} ({} MB resident)", victim.label, victim.atlas.getId(),
+					residentBytes >> 20);
+		}
+	}
+
+	/**
+	 * Puts the atlas under the store, to be read by the loader on first use.
+	 */
+	public static synchronized void register(Atlas atlas, String label, Supplier<BufferedImage> loader) {
+		Page page = new Page(atlas, label, loader);
+		atlas.setPage(page);
+		pages.add(page);
+	}
+
+	public static synchronized void setResidentBudget(long bytes) {
+		residentBudget = bytes;
+	}
+
+	private AtlasStore() {
+	}
+}
@@ -0,0 +1,70 @@
+package com.demod.fbsr;
+
+import static com.demod.fbsr.GridChunkMap.*;
+
+/**
+ * Sparse 2D grid of small flag values, stored as dense 32x32 byte chunks. A
+ * value of 0 means the cell is empty, so callers encode their states from 1 up
+ * (direction masks, belt codes and so on).
+ */
+public class ChunkedByteGrid {
+
+	@FunctionalInterface
+	public static interface CellConsumer {
+		void accept(int x, int y, int value);
+	}
+
+	private final GridChunkMap<byte[]> chunks = new GridChunkMap<>();
+
+	public boolean contains(int x, int y) {
+		return get(x, y) != 0;
+	}
+
+	/**
+	 * Visits every non-zero cell in row-major order, top to bottom and left to
+	 * right across the whole grid. Each row walks the chunks of its chunk row,
+	 * which are looked up once per chunk row.
+	 */
+	public void forEach(CellConsumer consumer) {
+		long[] keys = chunks.sortedKeys();
+		byte[][] row = new byte[keys.length][];
+		for (int start = 0, end; start < keys.length; start = end) {
+			end = chunkRowEnd(keys, start);
+			for (int c = start; c < end; c++) {
+				row[c] = chunks.get(keys[c]);
+			}
+			int y0 = keyY(keys[start]);
+			for (int cy = 0; cy < CHUNK_SIZE; cy++) {
+				int offset = cy << CHUNK_BITS;
+				for (int c = start; c < end; c++) {
+					byte[] chunk = row[c];
+					int x0 = keyX(keys[c]);
+					for (int cx = 0; cx < CHUNK_SIZE; cx++) {
+						int value = chunk[offset + cx] & 0xFF;
+						if (value != 0) {
+							consumer.accept(x0 + cx, y0 + cy, value);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public int get(int x, int y) {
+		byte[] chunk = chunks.get(key(x, y));
+		if (chunk == null) {
+			return 0;
+		}
+		return chunk[index(x, y)] & 0xFF;
+	}
+
+	public void or(int x, int y, int flags) {
+		byte[] chunk = chunks.getOrCreate(key(x, y), k -> new byte[CHUNK_CELLS]);
+		chunk[index(x, y)] |= (byte) flags;
+	}
+
+	public void set(int x, int y, int value) {
+		byte[] chunk = chunks.getOrCreate(key(x, y), k -> new byte[CHUNK_CELLS]);
+		chunk[index(x, y)] = (byte) value;
+	}
+}
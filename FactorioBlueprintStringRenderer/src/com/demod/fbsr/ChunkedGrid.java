@@ -0,0 +1,82 @@
+package com.demod.fbsr;
+
+import static com.demod.fbsr.GridChunkMap.*;
+
+/**
+ * Sparse 2D grid of object references, stored as dense 32x32 chunks. Cells are
+ * addressed by plain int coordinates so neighbor lookups never box.
+ */
+public class ChunkedGrid<V> {
+
+	@FunctionalInterface
+	public static interface CellConsumer<V> {
+		void accept(int x, int y, V value);
+	}
+
+	private final GridChunkMap<Object[]> chunks = new GridChunkMap<>();
+	private int size = 0;
+
+	public boolean contains(int x, int y) {
+		return get(x, y) != null;
+	}
+
+	/**
+	 * Visits every occupied cell in row-major order, top to bottom and left to
+	 * right across the whole grid. Each row walks the chunks of its chunk row,
+	 * which are looked up once per chunk row.
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(CellConsumer<? super V> consumer) {
+		long[] keys = chunks.sortedKeys();
+		Object[][] row = new Object[keys.length][];
+		for (int start = 0, end; start < keys.length; start = end) {
+			end = chunkRowEnd(keys, start);
+			for (int c = start; c < end; c++) {
+				row[c] = chunks.get(keys[c]);
+			}
+			int y0 = keyY(keys[start]);
+			for (int cy = 0; cy < CHUNK_SIZE; cy++) {
+				int offset = cy << CHUNK_BITS;
+				for (int c = start; c < end; c++) {
+					Object[] chunk = row[c];
+					int x0 = keyX(keys[c]);
+					for (int cx = 0; cx < CHUNK_SIZE; cx++) {
+						Object value = chunk[offset + cx];
+						if (value != null) {
+							consumer.accept(x0 + cx, y0 + cy, (V) value);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int x, int y) {
+		Object[] chunk = chunks.get(key(x, y));
+		if (chunk == null) {
+			return null;
+		}
+		return (V) chunk[index(x, y)];
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void put(int x, int y, V value) {
+		if (value == null) {
+			throw new NullPointerException("value is null!");
+		}
+		Object[] chunk = chunks.getOrCreate(key(x, y), k -> new Object[CHUNK_CELLS]);
+		int index = index(x, y);
+		if (chunk[index] == null) {
+			size++;
+		}
+		chunk[index] = value;
+	}
+
+	public int size() {
+		return size;
+	}
+}
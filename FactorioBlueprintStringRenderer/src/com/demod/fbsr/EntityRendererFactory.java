@@ -2,6 +2,7 @@ package com.demod.fbsr;
 
 import java.awt.geom.Point2D;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -44,21 +45,32 @@ public abstract class EntityRendererFactory {
 	private static final Logger LOGGER = LoggerFactory.getLogger(EntityRendererFactory.class);
 
 	public static void initFactories(List<EntityRendererFactory> factories) {
-		for (EntityRendererFactory factory : factories) {
+		long startMillis = System.currentTimeMillis();
+
+		// Factories only read the data tables, so they initialize in parallel. Their
+		// atlas defs are registered afterwards in factory order, keeping the atlas
+		// packing the same from run to run.
+		List<List<ImageDef>> factoryDefs = factories.parallelStream().map(factory -> {
 			EntityPrototype prototype = factory.getPrototype();
 			try {
 				factory.initFromPrototype();
 				factory.wirePointsById = new LinkedHashMap<>();
 				factory.defineWirePoints(factory.wirePointsById::put, prototype.lua());
 				factory.drawBounds = factory.computeBounds();
-				factory.initAtlas(factory.getProfile().getAtlasPackage()::registerDef);
+				List<ImageDef> defs = new ArrayList<>();
+				factory.initAtlas(defs::add);
+				return defs;
 			} catch (Exception e) {
 				LOGGER.error("ENTITY {} ({})", prototype.getName(), prototype.getType());
 				throw e;
 			}
+		}).collect(Collectors.toList());
+
+		for (int i = 0; i < factories.size(); i++) {
+			factoryDefs.get(i).forEach(factories.get(i).getProfile().getAtlasPackage()::registerDef);
 		}
 
-		LOGGER.info("Initialized {} entities.", factories.size());
+		LOGGER.info("Initialized {} entities ({} ms).", factories.size(), System.currentTimeMillis() - startMillis);
 	}
 
 	protected MapRect3D computeBounds() {
@@ -147,12 +159,12 @@ public abstract class EntityRendererFactory {
 	}
 
 	public void createQualityIcon(Consumer<MapRenderable> register, WorldMap map, MapEntity entity) {
-		Optional<String> quality = entity.fromBlueprint().quality;
-		if (quality.isEmpty() || quality.get().equals("normal")) {
+		BSEntity bsEntity = entity.fromBlueprint();
+		if (bsEntity.quality.isEmpty() || bsEntity.quality.get().equals("normal")) {
 			return;
 		}
 
-		Optional<IconDef> optDef = IconManager.lookupQuality(quality.get());
+		Optional<IconDef> optDef = IconManager.lookupQuality(bsEntity);
 		if (optDef.isEmpty()) {
 			return;
 		}
@@ -177,7 +189,7 @@ public abstract class EntityRendererFactory {
 			double y = position.getY() + 0.7;
 
 			for (EntityModule module : renderModules) {
-				Optional<IconDef> image = IconManager.lookupItem(module.name);
+				Optional<IconDef> image = IconManager.lookupItem(module.id);
 				if (image.isPresent()) {
 					register.accept(new MapIcon(MapPosition.byUnit(x, y), image.get(), 0.5, OptionalDouble.of(0.05),
 							true, module.quality));
@@ -218,7 +230,7 @@ public abstract class EntityRendererFactory {
 				double y = position.getY() - 1.15;
 
 				for (EntityModule module : renderModules) {
-					Optional<IconDef> image = IconManager.lookupItem(module.name);
+					Optional<IconDef> image = IconManager.lookupItem(module.id);
 					if (image.isPresent()) {
 						register.accept(new MapIcon(MapPosition.byUnit(x, y), image.get(), 0.25,
 								OptionalDouble.of(0.025), true, module.quality));
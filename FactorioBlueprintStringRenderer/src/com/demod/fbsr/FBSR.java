@@ -16,8 +16,6 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -27,11 +25,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -48,10 +46,10 @@ import com.demod.factorio.ItemToPlace;
 import com.demod.factorio.ModInfo;
 import com.demod.factorio.TotalRawCalculator;
 import com.demod.factorio.Utils;
-import com.demod.factorio.prototype.EntityPrototype;
+import com.demod.factorio.fakelua.LuaTable;
+import com.demod.factorio.fakelua.LuaValue;
 import com.demod.factorio.prototype.ItemPrototype;
 import com.demod.factorio.prototype.RecipePrototype;
-import com.demod.factorio.prototype.TilePrototype;
 import com.demod.fbsr.WirePoints.WirePoint;
 import com.demod.fbsr.bs.BSBlueprint;
 import com.demod.fbsr.bs.BSEntity;
@@ -63,7 +61,9 @@ import com.demod.fbsr.bs.BSPosition;
 import com.demod.fbsr.bs.BSTile;
 import com.demod.fbsr.bs.BSWire;
 import com.demod.fbsr.entity.ErrorRendering;
+import com.demod.fbsr.fp.FPColor;
 import com.demod.fbsr.gui.GUIStyle;
+import com.demod.fbsr.map.MapBatchable;
 import com.demod.fbsr.map.MapBounded;
 import com.demod.fbsr.map.MapDebug;
 import com.demod.fbsr.map.MapEntity;
@@ -81,13 +81,13 @@ import com.demod.fbsr.map.MapText;
 import com.demod.fbsr.map.MapTile;
 import com.demod.fbsr.map.MapWire;
 import com.demod.fbsr.map.MapWireShadow;
+import com.demod.fbsr.map.OverlayBatch;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.LinkedHashMultiset;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Multiset;
-import com.google.common.collect.Table;
 
 import javax.imageio.ImageIO;
 
@@ -105,11 +105,25 @@ public class FBSR {
 
 	public static final double TILE_SIZE = 64.0;
 
+	// Longest side of a preview, and its most pixels per tile
+	private static final int PREVIEW_MAX_SIZE = 800;
+	private static final double PREVIEW_MAX_TILE_SIZE = 8.0;
+	private static final Color PREVIEW_ENTITY_COLOR = new Color(90, 140, 190);
+	private static final Color PREVIEW_TILE_COLOR = new Color(70, 70, 70);
+	private static final Color PREVIEW_UNKNOWN_COLOR = new Color(190, 60, 60);
+
+	// Map colors from the prototypes, by entity or tile name
+	private static final Map<String, Color> previewColors = new ConcurrentHashMap<>();
+
 	private static volatile boolean initialized = false;
 
+	// Milliseconds spent in each startup stage, in the order they ran
+	private static final Map<String, Long> startupTimings = Collections.synchronizedMap(new LinkedHashMap<>());
+
 	private static final ExecutorService executor = Executors.newWorkStealingPool();
 
-	private static class ImageRenderer implements Callable<RenderResult> {
+	// Package-private so the benchmark module can time each stage on its own
+	static class ImageRenderer implements Callable<RenderResult> {
 		private final RenderRequest request;
 
 		private CommandReporting reporting;
@@ -134,19 +148,30 @@ public class FBSR {
 
 		public ImageRenderer(RenderRequest request) {
 			this.request = request;
+			blueprint = request.getBlueprint();
+			reporting = request.getReporting();
 		}
 
 		@Override
 		public RenderResult call() {
-			blueprint = request.getBlueprint();
-			reporting = request.getReporting();
 			LOGGER.info("Rendering {} {}", blueprint.label.orElse("Untitled Blueprint"), blueprint.version);
 			long startMillis = System.currentTimeMillis();
 
 			parseBlueprint();
 
+			// Only needs the parsed blueprint, and the full render carries on from it
+			if (request.getPreviewListener().isPresent()) {
+				try {
+					request.getPreviewListener().get().accept(renderPreview());
+				} catch (Exception e) {
+					reporting.addException(e, "Preview");
+				}
+			}
+
 			populateMap();
 
+			populateLogistics();
+
 			createRenderers();
 
 			calculateBounds();
@@ -160,14 +185,18 @@ public class FBSR {
 			return new RenderResult(request, image, endMillis - startMillis, worldRenderScale, unknownNames);
 		}
 
-		private void parseBlueprint() {
+		void parseBlueprint() {
 			mapEntities = new ArrayList<MapEntity>();
 			mapTiles = new ArrayList<MapTile>();
 			mapEntityByNumber = new HashMap<>();
 			unknownNames = LinkedHashMultiset.create();
 
+			FactorioManager.ensureProfilesLoaded(
+					blueprint.entities.stream().map(e -> e.name).collect(Collectors.toSet()),
+					blueprint.tiles.stream().map(t -> t.name).collect(Collectors.toSet()));
+
 			for (BSMetaEntity metaEntity : blueprint.entities) {
-				EntityRendererFactory factory = FactorioManager.lookupEntityFactoryForName(metaEntity.name);
+				EntityRendererFactory factory = FactorioManager.lookupEntityFactory(metaEntity);
 				BSEntity entity;
 				try {
 					if (metaEntity.isLegacy()) {
@@ -192,7 +221,7 @@ public class FBSR {
 				}
 			}
 			for (BSTile tile : blueprint.tiles) {
-				TileRendererFactory factory = FactorioManager.lookupTileFactoryForName(tile.name);
+				TileRendererFactory factory = FactorioManager.lookupTileFactory(tile);
 				MapTile mapTile = new MapTile(tile, factory);
 				mapTiles.add(mapTile);
 				if (factory.isUnknown()) {
@@ -206,7 +235,7 @@ public class FBSR {
 					.thenComparing(r -> r.getPosition().getXFP()));
 		}
 
-		private void populateMap() {
+		void populateMap() {
 			map = new WorldMap();
 
 			map.setAltMode(request.show.altMode);
@@ -229,7 +258,9 @@ public class FBSR {
 							t.getFactory().getClass().getSimpleName() + ", " + t.fromBlueprint().name);
 				}
 			});
+		}
 
+		void populateLogistics() {
 			mapEntities.forEach(t -> {
 				try {
 					t.getFactory().populateLogistics(map, t);
@@ -240,14 +271,14 @@ public class FBSR {
 			});
 
 			populateReverseLogistics(map);
-			populateTransitLogistics(map, request.show.pathInputs, request.show.pathOutputs);
+			LogisticsEngine.populateTransits(map, request.show.pathInputs, request.show.pathOutputs);
 
 			populateRailBlocking(map, false);
 			populateRailBlocking(map, true);
 			populateRailStationLogistics(map);
 		}
 
-		private void createRenderers() {
+		void createRenderers() {
 			renderBuckets = MultimapBuilder.enumKeys(Layer.class).arrayListValues().build();
 			register = r -> renderBuckets.put(r.getLayer(), r);
 
@@ -347,7 +378,7 @@ public class FBSR {
 			register.accept(new MapRailLogistics(map));
 		}
 
-		private void calculateBounds() {
+		void calculateBounds() {
 			boolean showGrid = !request.getGridLines().isEmpty();
 			boolean gridFoundationMode = map.isFoundation() && !request.show.gridNumbers;
 			boolean gridShowNumbers = !gridFoundationMode && request.show.gridNumbers;
@@ -441,11 +472,40 @@ public class FBSR {
 					(int) Math.round(screenBounds.getHeight() * worldRenderScale * TILE_SIZE)));
 		}
 
-		private void renderImage() {
-			image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
-			Graphics2D g = image.createGraphics();
+		/**
+		 * Renders in list order, except that runs of {@link MapBatchable} renderers
+		 * are collected into one {@link OverlayBatch}, which keeps their order.
+		 */
+		void renderLayer(Graphics2D g, List<MapRenderable> layerRenderers) {
+			OverlayBatch batch = new OverlayBatch();
+			for (MapRenderable renderer : layerRenderers) {
+				try {
+					if (renderer instanceof MapBatchable) {
+						((MapBatchable) renderer).addTo(batch);
+						continue;
+					}
+					if (!batch.isEmpty()) {
+						batch.render(g);
+						batch = new OverlayBatch();
+					}
+					renderer.render(g);
+				} catch (Exception e) {
+					reporting.addException(e);
+				}
+			}
+			try {
+				batch.render(g);
+			} catch (Exception e) {
+				reporting.addException(e);
+			}
+		}
 
-			AffineTransform noXform = g.getTransform();
+		/**
+		 * Graphics for an image of the calculated size, with the render hints set and
+		 * transformed to world coordinates.
+		 */
+		Graphics2D createWorldGraphics(BufferedImage image) {
+			Graphics2D g = image.createGraphics();
 
 			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
@@ -456,6 +516,76 @@ public class FBSR {
 
 			g.scale(image.getWidth() / screenBounds.getWidth(), image.getHeight() / screenBounds.getHeight());
 			g.translate(-screenBounds.getX(), -screenBounds.getY());
+			return g;
+		}
+
+		BufferedImage getImage() {
+			return image;
+		}
+
+		int getImageHeight() {
+			return imageHeight;
+		}
+
+		int getImageWidth() {
+			return imageWidth;
+		}
+
+		ListMultimap<Layer, MapRenderable> getRenderBuckets() {
+			return renderBuckets;
+		}
+
+		/**
+		 * Flat color map of the parsed blueprint, tiles and entity footprints filled
+		 * with their map colors. Takes milliseconds even for blueprints that take
+		 * seconds to render in full.
+		 */
+		BufferedImage renderPreview() {
+			MapRect3D gridBounds = calculateGridBounds(mapEntities, mapTiles, blueprint.snapToGrid);
+			double padding = 0.5;
+			double x = gridBounds.getX1() - padding;
+			double y = gridBounds.getY1() - padding;
+			double width = gridBounds.getX2() - gridBounds.getX1() + padding * 2;
+			double height = gridBounds.getY2() - gridBounds.getY1() + padding * 2;
+			double scale = Math.min(PREVIEW_MAX_TILE_SIZE, PREVIEW_MAX_SIZE / Math.max(width, height));
+
+			BufferedImage preview = new BufferedImage(Math.max(1, (int) Math.round(width * scale)),
+					Math.max(1, (int) Math.round(height * scale)), BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = preview.createGraphics();
+			if (request.getBackground().isPresent()) {
+				g.setColor(request.getBackground().get());
+				g.fillRect(0, 0, preview.getWidth(), preview.getHeight());
+			}
+			g.scale(scale, scale);
+			g.translate(-x, -y);
+
+			Rectangle2D.Double rect = new Rectangle2D.Double();
+			for (MapTile tile : mapTiles) {
+				g.setColor(getPreviewColor(tile.getFactory()));
+				rect.setRect(tile.getPosition().getX(), tile.getPosition().getY(), 1, 1);
+				g.fill(rect);
+			}
+			// Inset, so neighbouring entities stay apart
+			double inset = 0.1;
+			for (MapEntity entity : mapEntities) {
+				MapRect3D bounds = entity.getBounds();
+				g.setColor(getPreviewColor(entity.getFactory()));
+				rect.setFrameFromDiagonal(bounds.getX1() + inset, bounds.getY1() + inset, bounds.getX2() - inset,
+						bounds.getY2() - inset);
+				g.fill(rect);
+			}
+			g.dispose();
+			return preview;
+		}
+
+		void renderImage() {
+			image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = image.createGraphics();
+
+			AffineTransform noXform = g.getTransform();
+			g.dispose();
+
+			g = createWorldGraphics(image);
 			AffineTransform worldXform = g.getTransform();
 
 			// Background
@@ -471,25 +601,9 @@ public class FBSR {
 				if (layer == Layer.SHADOW_BUFFER) {
 
 					BufferedImage shadowImage = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
-					Graphics2D shadowG = shadowImage.createGraphics();
-					shadowG.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-					shadowG.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-							RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-					shadowG.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-							RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-					shadowG.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-					shadowG.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
-							RenderingHints.VALUE_FRACTIONALMETRICS_ON);
-					shadowG.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-					shadowG.setTransform(worldXform);
-
-					for (MapRenderable renderer : layerRenderers) {
-						try {
-							renderer.render(shadowG);
-						} catch (Exception e) {
-							reporting.addException(e);
-						}
-					}
+					Graphics2D shadowG = createWorldGraphics(shadowImage);
+
+					renderLayer(shadowG, layerRenderers);
 
 					shadowG.dispose();
 
@@ -502,13 +616,7 @@ public class FBSR {
 					g.setTransform(tempXform);
 
 				} else {
-					for (MapRenderable renderer : layerRenderers) {
-						try {
-							renderer.render(g);
-						} catch (Exception e) {
-							reporting.addException(e);
-						}
-					}
+					renderLayer(g, layerRenderers);
 				}
 			}
 			g.dispose();
@@ -521,48 +629,74 @@ public class FBSR {
 		items.put(item, amount);
 	}
 
+	// Items in the prototype table are counted by item and quality id, and only
+	// named once at the end. Anything else is counted by name.
+	private static void addToItemAmount(Map<Long, Double> amounts, Map<BSItemWithQualityID, Double> unknown,
+			int itemId, String itemName, Optional<String> quality, int qualityId, double add) {
+		if (itemId == PrototypeTable.UNKNOWN || (quality.isPresent() && qualityId == PrototypeTable.UNKNOWN)) {
+			addToItemAmount(unknown, new BSItemWithQualityID(itemName, quality), add);
+			return;
+		}
+		long key = ((long) itemId << 32) | (quality.isPresent() ? qualityId + 1 : 0);
+		amounts.merge(key, add, Double::sum);
+	}
+
 	public static Map<BSItemWithQualityID, Double> generateTotalItems(BSBlueprint blueprint) {
 
-		Map<BSItemWithQualityID, Double> ret = new LinkedHashMap<>();
-		for (BSEntity entity : blueprint.entities) {
-			EntityRendererFactory entityFactory = FactorioManager.lookupEntityFactoryForName(entity.name);
-			if (entityFactory.isUnknown()) {
-				addToItemAmount(ret, new BSItemWithQualityID(entity.name, entity.quality), 1);
+		Map<Long, Double> amounts = new LinkedHashMap<>();
+		Map<BSItemWithQualityID, Double> unknown = new LinkedHashMap<>();
+		for (BSMetaEntity entity : blueprint.entities) {
+			int id = FactorioManager.resolveEntityId(entity);
+			if (id == PrototypeTable.UNKNOWN) {
+				addToItemAmount(unknown, new BSItemWithQualityID(entity.name, entity.quality), 1);
 				continue;
 			}
 
-			EntityPrototype entityPrototype = entityFactory.getPrototype();
-
-			Optional<ItemToPlace> primaryItem = entityPrototype.getPrimaryItem();
+			// Resolving can load a deferred profile, which replaces the table
+			PrototypeTable table = FactorioManager.getPrototypeTable();
+			Optional<ItemToPlace> primaryItem = table.getEntityItem(id);
 			if (primaryItem.isEmpty()) {
 				LOGGER.warn("MISSING ENTITY ITEM: {}", entity.name);
 				continue;
 			}
 
-			addToItemAmount(ret, new BSItemWithQualityID(primaryItem.get().getItem(), entity.quality), primaryItem.get().getCount());
+			addToItemAmount(amounts, unknown, table.getEntityItemId(id), primaryItem.get().getItem(), entity.quality,
+					FactorioManager.resolveQualityId(entity), primaryItem.get().getCount());
 
 			for (BSItemStack itemStack : entity.items) {
-				addToItemAmount(ret, itemStack.id, itemStack.getTotalCount());
+				addToItemAmount(amounts, unknown, FactorioManager.resolveItemId(itemStack.id), itemStack.id.name,
+						itemStack.id.quality, FactorioManager.resolveQualityId(itemStack.id),
+						itemStack.getTotalCount());
 			}
 		}
 		for (BSTile tile : blueprint.tiles) {
-			String tileName = tile.name;
-			TileRendererFactory tileFactory = FactorioManager.lookupTileFactoryForName(tileName);
-			if (tileFactory.isUnknown()) {
-				addToItemAmount(ret, new BSItemWithQualityID(tile.name, Optional.empty()), 1);
+			int id = FactorioManager.resolveTileId(tile);
+			if (id == PrototypeTable.UNKNOWN) {
+				addToItemAmount(unknown, new BSItemWithQualityID(tile.name, Optional.empty()), 1);
 				continue;
 			}
 
-			TilePrototype tilePrototype = tileFactory.getPrototype();
-
-			Optional<ItemToPlace> primaryItem = tilePrototype.getPrimaryItem();
+			PrototypeTable table = FactorioManager.getPrototypeTable();
+			Optional<ItemToPlace> primaryItem = table.getTileItem(id);
 			if (primaryItem.isEmpty()) {
-				LOGGER.warn("MISSING TILE ITEM: {}", tilePrototype.getName());
+				LOGGER.warn("MISSING TILE ITEM: {}", tile.name);
 				continue;
 			}
 
-			addToItemAmount(ret, new BSItemWithQualityID(primaryItem.get().getItem(), Optional.empty()), primaryItem.get().getCount());
+			addToItemAmount(amounts, unknown, table.getTileItemId(id), primaryItem.get().getItem(), Optional.empty(),
+					PrototypeTable.UNKNOWN, primaryItem.get().getCount());
+		}
+
+		PrototypeTable table = FactorioManager.getPrototypeTable();
+		Map<BSItemWithQualityID, Double> ret = new LinkedHashMap<>();
+		for (Entry<Long, Double> entry : amounts.entrySet()) {
+			long key = entry.getKey();
+			int qualitySlot = (int) key;
+			Optional<String> quality = (qualitySlot == 0) ? Optional.empty()
+					: Optional.of(table.getQualityName(qualitySlot - 1));
+			ret.put(new BSItemWithQualityID(table.getItemName((int) (key >>> 32)), quality), entry.getValue());
 		}
+		unknown.forEach((item, amount) -> addToItemAmount(ret, item, amount));
 		return ret;
 	}
 
@@ -619,14 +753,64 @@ public class FBSR {
 		}
 		initialized = true;
 
+		long startNanos = System.nanoTime();
+		long stageNanos = startNanos;
+
 		FactorioManager.initializePrototypes();
+		stageNanos = recordStartupStage("prototypes", stageNanos);
 		GUIStyle.initialize();
+		stageNanos = recordStartupStage("gui-style", stageNanos);
 		FactorioManager.initializeFactories();
+		stageNanos = recordStartupStage("factories", stageNanos);
 		IconManager.initialize();
+		stageNanos = recordStartupStage("icons", stageNanos);
 
 		for (ModsProfile profile : FactorioManager.getProfiles()) {
 			profile.getAtlasPackage().initialize();
 		}
+		recordStartupStage("atlases", stageNanos);
+		recordStartupStage("total", startNanos);
+
+		LOGGER.info("Startup stages (ms): {}", startupTimings);
+	}
+
+	private static long recordStartupStage(String stage, long startNanos) {
+		long endNanos = System.nanoTime();
+		startupTimings.put(stage, (endNanos - startNanos) / 1000000);
+		return endNanos;
+	}
+
+	private static Color getPreviewColor(EntityRendererFactory factory) {
+		if (factory.isUnknown() || factory.getPrototype() == null) {
+			return PREVIEW_UNKNOWN_COLOR;
+		}
+		return previewColors.computeIfAbsent("entity/" + factory.getName(), k -> {
+			LuaTable lua = factory.getPrototype().lua();
+			for (String key : new String[] { "friendly_map_color", "map_color" }) {
+				if (!lua.get(key).isnil()) {
+					return new FPColor(lua.get(key)).createColor();
+				}
+			}
+			return PREVIEW_ENTITY_COLOR;
+		});
+	}
+
+	private static Color getPreviewColor(TileRendererFactory factory) {
+		if (factory.isUnknown() || factory.getPrototype() == null) {
+			return PREVIEW_UNKNOWN_COLOR;
+		}
+		return previewColors.computeIfAbsent("tile/" + factory.getName(), k -> {
+			LuaValue lua = factory.getPrototype().lua().get("map_color");
+			return lua.isnil() ? PREVIEW_TILE_COLOR : new FPColor(lua).createColor();
+		});
+	}
+
+	public static JSONObject getStartupTimingsJson() {
+		JSONObject json = new JSONObject();
+		synchronized (startupTimings) {
+			startupTimings.forEach(json::put);
+		}
+		return json;
 	}
 
 	private static void populateRailBlocking(WorldMap map, boolean elevated) {
@@ -762,11 +946,8 @@ public class FBSR {
 	}
 
 	private static void populateReverseLogistics(WorldMap map) {
-		Table<Integer, Integer, LogisticGridCell> logisticGrid = map.getLogisticGrid();
-		logisticGrid.cellSet().forEach(c -> {
-			// TODO fixed-point math
-			MapPosition pos = MapPosition.byUnit(c.getRowKey() / 2.0 + 0.25, c.getColumnKey() / 2.0 + 0.25);
-			LogisticGridCell cell = c.getValue();
+		map.getLogisticGrid().forEach((x, y, cell) -> {
+			MapPosition pos = map.getLogisticCellPosition(x, y);
 			cell.getMove().ifPresent(d -> {
 				map.getLogisticGridCell(d.offset(pos, 0.5)).filter(mc -> mc.acceptMoveFrom(d))
 						.ifPresent(mc -> mc.addMovedFrom(d.back()));
@@ -779,78 +960,16 @@ public class FBSR {
 		});
 	}
 
-	private static void populateTransitLogistics(WorldMap map, boolean populateInputs, boolean populateOutputs) {
-		Table<Integer, Integer, LogisticGridCell> logisticGrid = map.getLogisticGrid();
-		ArrayDeque<Entry<MapPosition, LogisticGridCell>> work = new ArrayDeque<>();
-
-		if (populateOutputs) {
-			logisticGrid.cellSet().stream().filter(c -> c.getValue().isTransitStart()).forEach(c -> {
-				Set<String> outputs = c.getValue().getOutputs().get();
-				for (String item : outputs) {
-					work.add(new SimpleEntry<>(map.getLogisticCellPosition(c), c.getValue()));
-					while (!work.isEmpty()) {
-						Entry<MapPosition, LogisticGridCell> pair = work.pop();
-						MapPosition cellPos = pair.getKey();
-						LogisticGridCell cell = pair.getValue();
-						if (cell.addTransit(item) && !cell.isBannedOutput(item)) {
-							cell.getMove().ifPresent(d -> {
-								MapPosition nextCellPos = d.offset(cellPos, 0.5);
-								map.getLogisticGridCell(nextCellPos)
-										.filter(nc -> !nc.isBlockTransit() && nc.acceptMoveFrom(d))
-										.ifPresent(next -> work.add(new SimpleEntry<>(nextCellPos, next)));
-							});
-							cell.getWarps().ifPresent(l -> {
-								for (MapPosition p : l) {
-									map.getLogisticGridCell(p)
-											.filter(nc -> !nc.isBlockTransit()
-													&& !(nc.getMove().isPresent() && cell.isBlockWarpFromIfMove())
-													&& !(cell.getMove().isPresent() && nc.isBlockWarpToIfMove()))
-											.ifPresent(next -> work.add(new SimpleEntry<>(p, next)));
-								}
-							});
-						}
-					}
-				}
-			});
-		}
-
-		if (populateInputs) {
-			logisticGrid.cellSet().stream().filter(c -> c.getValue().isTransitEnd()).forEach(c -> {
-				Set<String> inputs = c.getValue().getInputs().get();
-				for (String item : inputs) {
-					work.add(new SimpleEntry<>(map.getLogisticCellPosition(c), c.getValue()));
-					while (!work.isEmpty()) {
-						Entry<MapPosition, LogisticGridCell> pair = work.pop();
-						MapPosition cellPos = pair.getKey();
-						LogisticGridCell cell = pair.getValue();
-						if (cell.addTransit(item)) {
-							cell.getMovedFrom().ifPresent(l -> {
-								for (Direction d : l) {
-									MapPosition nextCellPos = d.offset(cellPos, 0.5);
-									map.getLogisticGridCell(nextCellPos).filter(nc -> !nc.isBlockTransit())
-											.ifPresent(next -> work.add(new SimpleEntry<>(nextCellPos, next)));
-								}
-							});
-							cell.getWarpedFrom().ifPresent(l -> {
-								for (MapPosition p : l) {
-									map.getLogisticGridCell(p).filter(nc -> !nc.isBlockTransit())
-											.ifPresent(next -> work.add(new SimpleEntry<>(p, next)));
-								}
-							});
-						}
-					}
-				}
-			});
-		}
-
-	}
-
 	public static RenderResult renderBlueprint(RenderRequest request) {
 		return new ImageRenderer(request).call();
 	}
 
-	public static Future<RenderResult> renderBlueprintAsync(RenderRequest request) {
-		return executor.submit(new ImageRenderer(request));
+	/**
+	 * Renders on the shared render pool.
+	 */
+	public static CompletableFuture<RenderResult> renderBlueprintAsync(RenderRequest request) {
+		ImageRenderer renderer = new ImageRenderer(request);
+		return CompletableFuture.supplyAsync(renderer::call, executor);
 	}
 
 	private static MapRect3D calculateGridBounds(List<MapEntity> mapEntities, List<MapTile> mapTiles, Optional<BSPosition> snapToGrid) {
@@ -7,13 +7,24 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -26,6 +37,7 @@ import org.slf4j.LoggerFactory;
 import com.demod.factorio.Config;
 import com.demod.factorio.DataTable;
 import com.demod.factorio.FactorioData;
+import com.demod.factorio.Utils;
 import com.demod.factorio.prototype.AchievementPrototype;
 import com.demod.factorio.prototype.DataPrototype;
 import com.demod.factorio.prototype.EntityPrototype;
@@ -36,12 +48,18 @@ import com.demod.factorio.prototype.ItemPrototype;
 import com.demod.factorio.prototype.RecipePrototype;
 import com.demod.factorio.prototype.TechPrototype;
 import com.demod.factorio.prototype.TilePrototype;
+import com.demod.fbsr.bs.BSEntity;
+import com.demod.fbsr.bs.BSItemWithQualityID;
+import com.demod.fbsr.bs.BSMetaEntity;
+import com.demod.fbsr.bs.BSTile;
 import com.demod.fbsr.entity.UnknownEntityRendering;
 import com.demod.fbsr.fp.FPUtilitySprites;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class FactorioManager {
 
@@ -50,36 +68,68 @@ public class FactorioManager {
 	private static volatile boolean initializedPrototypes = false;
 	private static volatile boolean initializedFactories = false;
 
+	/**
+	 * A mod profile that is only loaded once a blueprint uses one of the entities
+	 * or tiles its mod-rendering.json lists.
+	 */
+	private static class LazyProfile {
+		private final String name;
+		private final Set<String> entityNames = new HashSet<>();
+		private final Set<String> tileNames = new HashSet<>();
+		private Future<?> load = null;
+
+		public LazyProfile(String name) {
+			this.name = name;
+		}
+	}
+
+	// Profiles can be added after startup, so anything read while rendering is
+	// safe to read during a lazy profile load
 	private static ModsProfile baseProfile = null;
-	private static final List<ModsProfile> profiles = new ArrayList<>();
-	private static final ListMultimap<String, ModsProfile> profileByModName = ArrayListMultimap.create();
-	private static final Map<FactorioData, ModsProfile> profileByData = new HashMap<>();
-	private static final Map<String, ModsProfile> profileByGroupName = new HashMap<>();
-
-	private static final List<EntityRendererFactory> entityFactories = new ArrayList<>();
-	private static final List<TileRendererFactory> tileFactories = new ArrayList<>();
-	private static final Map<String, EntityRendererFactory> entityFactoryByName = new HashMap<>();
-	private static final Map<String, TileRendererFactory> tileFactoryByName = new HashMap<>();
-
-	private static final List<ItemPrototype> items = new ArrayList<>();
-	private static final List<RecipePrototype> recipes = new ArrayList<>();
-	private static final List<FluidPrototype> fluids = new ArrayList<>();
-	private static final List<TechPrototype> technologies = new ArrayList<>();
-	private static final List<EntityPrototype> entities = new ArrayList<>();
-	private static final List<TilePrototype> tiles = new ArrayList<>();
-	private static final List<EquipmentPrototype> equipments = new ArrayList<>();
-	private static final List<AchievementPrototype> achievements = new ArrayList<>();
-	private static final List<ItemGroupPrototype> itemGroups = new ArrayList<>();
-
-	private static final Map<String, ItemPrototype> itemByName = new HashMap<>();
-	private static final Map<String, RecipePrototype> recipeByName = new HashMap<>();
-	private static final Map<String, FluidPrototype> fluidByName = new HashMap<>();
-	private static final Map<String, TechPrototype> technologyByName = new HashMap<>();
-	private static final Map<String, EntityPrototype> entityByName = new HashMap<>();
-	private static final Map<String, TilePrototype> tileByName = new HashMap<>();
-	private static final Map<String, EquipmentPrototype> equipmentByName = new HashMap<>();
-	private static final Map<String, AchievementPrototype> achievementByName = new HashMap<>();
-	private static final Map<String, ItemGroupPrototype> itemGroupByName = new HashMap<>();
+	private static final List<ModsProfile> profiles = new CopyOnWriteArrayList<>();
+	private static final ListMultimap<String, ModsProfile> profileByModName = Multimaps
+			.synchronizedListMultimap(ArrayListMultimap.create());
+	private static final Map<FactorioData, ModsProfile> profileByData = new ConcurrentHashMap<>();
+	private static final Map<String, ModsProfile> profileByGroupName = new ConcurrentHashMap<>();
+
+	private static final List<EntityRendererFactory> entityFactories = new CopyOnWriteArrayList<>();
+	private static final List<TileRendererFactory> tileFactories = new CopyOnWriteArrayList<>();
+	private static final Map<String, EntityRendererFactory> entityFactoryByName = new ConcurrentHashMap<>();
+	private static final Map<String, TileRendererFactory> tileFactoryByName = new ConcurrentHashMap<>();
+
+	private static final List<ItemPrototype> items = new CopyOnWriteArrayList<>();
+	private static final List<RecipePrototype> recipes = new CopyOnWriteArrayList<>();
+	private static final List<FluidPrototype> fluids = new CopyOnWriteArrayList<>();
+	private static final List<TechPrototype> technologies = new CopyOnWriteArrayList<>();
+	private static final List<EntityPrototype> entities = new CopyOnWriteArrayList<>();
+	private static final List<TilePrototype> tiles = new CopyOnWriteArrayList<>();
+	private static final List<EquipmentPrototype> equipments = new CopyOnWriteArrayList<>();
+	private static final List<AchievementPrototype> achievements = new CopyOnWriteArrayList<>();
+	private static final List<ItemGroupPrototype> itemGroups = new CopyOnWriteArrayList<>();
+
+	private static final Map<String, ItemPrototype> itemByName = new ConcurrentHashMap<>();
+	private static final Map<String, RecipePrototype> recipeByName = new ConcurrentHashMap<>();
+	private static final Map<String, FluidPrototype> fluidByName = new ConcurrentHashMap<>();
+	private static final Map<String, TechPrototype> technologyByName = new ConcurrentHashMap<>();
+	private static final Map<String, EntityPrototype> entityByName = new ConcurrentHashMap<>();
+	private static final Map<String, TilePrototype> tileByName = new ConcurrentHashMap<>();
+	private static final Map<String, EquipmentPrototype> equipmentByName = new ConcurrentHashMap<>();
+	private static final Map<String, AchievementPrototype> achievementByName = new ConcurrentHashMap<>();
+	private static final Map<String, ItemGroupPrototype> itemGroupByName = new ConcurrentHashMap<>();
+	private static final Set<String> qualities = new LinkedHashSet<>();
+
+	// Mods are only installed before startup, so a zip's stamp never changes
+	private static final Map<File, Long> modZipStamps = new ConcurrentHashMap<>();
+
+	private static final Map<String, LazyProfile> lazyProfileByEntityName = new ConcurrentHashMap<>();
+	private static final Map<String, LazyProfile> lazyProfileByTileName = new ConcurrentHashMap<>();
+	// A single loader thread, so profiles are added one at a time and never on a
+	// render thread
+	private static final ExecutorService lazyLoader = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder().setNameFormat("mod-profile-loader-%d").setDaemon(true).build());
+	private static long lazyWaitMillis = 5000;
+
+	private static volatile PrototypeTable prototypeTable;
 
 	private static FPUtilitySprites utilitySprites;
 
@@ -93,6 +143,12 @@ public class FactorioManager {
 
 	private static boolean hasFactorioInstall;
 	private static boolean hasModsRoot;
+	private static Optional<String> factorioData;
+	private static Optional<String> factorioExecutable;
+
+	private static boolean modPortalApi;
+	private static String modPortalApiUsername;
+	private static String modPortalApiPassword;
 
 
 	public static List<AchievementPrototype> getAchievements() {
@@ -155,6 +211,10 @@ public class FactorioManager {
 		return tiles;
 	}
 
+	public static PrototypeTable getPrototypeTable() {
+		return prototypeTable;
+	}
+
 	public static FPUtilitySprites getUtilitySprites() {
 		return utilitySprites;
 	}
@@ -203,17 +263,27 @@ public class FactorioManager {
 		achievementByName.putAll(baseTable.getAchievements());
 		itemGroupByName.putAll(baseTable.getItemGroups());
 
-		recipeByName.values().stream().sorted(Comparator.comparing(DataPrototype::getName)).forEach(recipes::add);
-		itemByName.values().stream().sorted(Comparator.comparing(DataPrototype::getName)).forEach(items::add);
-		fluidByName.values().stream().sorted(Comparator.comparing(DataPrototype::getName)).forEach(fluids::add);
-		entityByName.values().stream().sorted(Comparator.comparing(DataPrototype::getName)).forEach(entities::add);
-		technologyByName.values().stream().sorted(Comparator.comparing(DataPrototype::getName))
-				.forEach(technologies::add);
-		tileByName.values().stream().sorted(Comparator.comparing(DataPrototype::getName)).forEach(tiles::add);
-		equipmentByName.values().stream().sorted(Comparator.comparing(DataPrototype::getName)).forEach(equipments::add);
-		achievementByName.values().stream().sorted(Comparator.comparing(DataPrototype::getName))
-				.forEach(achievements::add);
-		itemGroupByName.values().stream().sorted(Comparator.comparing(DataPrototype::getName)).forEach(itemGroups::add);
+		recipes.addAll(sortedByName(recipeByName.values()));
+		items.addAll(sortedByName(itemByName.values()));
+		fluids.addAll(sortedByName(fluidByName.values()));
+		entities.addAll(sortedByName(entityByName.values()));
+		technologies.addAll(sortedByName(technologyByName.values()));
+		tiles.addAll(sortedByName(tileByName.values()));
+		equipments.addAll(sortedByName(equipmentByName.values()));
+		achievements.addAll(sortedByName(achievementByName.values()));
+		itemGroups.addAll(sortedByName(itemGroupByName.values()));
+
+		for (ModsProfile profile : profiles) {
+			profile.getData().getTable().getRaw("quality")
+					.ifPresent(l -> Utils.forEach(l.totableObject(), (k, v) -> qualities.add(k.tojstring())));
+		}
+		prototypeTable = new PrototypeTable(entityFactories, tileFactories, items, qualities);
+
+		// Deferred profiles are not loaded for names an eager profile already renders
+		lazyProfileByEntityName.keySet().removeIf(entityFactoryByName::containsKey);
+		lazyProfileByTileName.keySet().removeIf(tileFactoryByName::containsKey);
+		LOGGER.info("Prototype table: {} entities, {} tiles, {} items, {} qualities", prototypeTable.getEntityCount(),
+				prototypeTable.getTileCount(), prototypeTable.getItemCount(), prototypeTable.getQualityCount());
 	}
 
 	public static void initializePrototypes() throws JSONException, IOException {
@@ -225,8 +295,8 @@ public class FactorioManager {
 		JSONObject json = Config.get().getJSONObject("factorio_manager");
 
 		hasFactorioInstall = json.has("install") && json.has("executable");
-		Optional<String> factorioData = Optional.ofNullable(json.optString("install", null));
-		Optional<String> factorioExecutable = Optional.ofNullable(json.optString("executable", null));
+		factorioData = Optional.ofNullable(json.optString("install", null));
+		factorioExecutable = Optional.ofNullable(json.optString("executable", null));
 
 		folderModsRoot = new File(json.optString("mods", "mods"));
 		hasModsRoot = folderModsRoot.exists();
@@ -243,9 +313,9 @@ public class FactorioManager {
 		folderDataRoot = new File(json.optString("data", "data"));
 		folderDataRoot.mkdirs();
 
-		boolean modPortalApi;
-		String modPortalApiUsername;
-		String modPortalApiPassword;
+		AtlasPackage.PAGE_FORMAT = AtlasPackage.PageFormat.valueOf(json.optString("atlas_format", "png").toUpperCase());
+		AtlasStore.setResidentBudget(json.optLong("atlas_resident_mb", 0) << 20);
+
 		if (json.has("mod_portal_api")) {
 			JSONObject jsonModPortalAPI = json.getJSONObject("mod_portal_api");
 			if (jsonModPortalAPI.has("username") && jsonModPortalAPI.has("password")) {
@@ -286,75 +356,30 @@ public class FactorioManager {
 		}
 		LOGGER.info("MODS FOLDERS: {}", mods.stream().collect(Collectors.joining(", ")));
 
-		mods.parallelStream().peek(name -> {
-			try {
-				File folderMods = new File(folderModsRoot, name);
-				File folderData = new File(folderDataRoot, name);
-				folderData.mkdir();
-				
-				if (hasModsRoot) {
-					// Copy mod-rendering.json if missing or different
-					File modRenderingMods = new File(folderMods, "mod-rendering.json");
-					File modRenderingData = new File(folderData, "mod-rendering.json");
-					if (modRenderingMods.exists()) {
-						if (!modRenderingData.exists() || !Files.readString(modRenderingMods.toPath()).equals(Files.readString(modRenderingData.toPath()))) {
-							Files.copy(modRenderingMods.toPath(), modRenderingData.toPath(), StandardCopyOption.REPLACE_EXISTING);
-							LOGGER.info("Copied mod-rendering.json to data folder: {}", modRenderingData.getAbsolutePath());
-						}
-					}
-				}
-
-				if (hasFactorioInstall && hasModsRoot) {
-
-					File fileModDownloadCached = new File(folderMods, "mod-download-cached.json");
-					boolean cacheChange = false;
-					JSONObject jsonModDownloadCached;
-					if (fileModDownloadCached.exists()) {
-						jsonModDownloadCached = new JSONObject(Files.readString(fileModDownloadCached.toPath()));
-					} else {
-						jsonModDownloadCached = new JSONObject();
-						cacheChange = true;
-					}
-
-					File fileModDownload = new File(folderMods, "mod-download.json");
-					if (modPortalApi && fileModDownload.exists()) {
-						JSONObject jsonModDownload = new JSONObject(Files.readString(fileModDownload.toPath()));
-						boolean auth = false;
-						String authParams = null;
-						for (String modName : jsonModDownload.keySet()) {
-							String modVersion = jsonModDownload.getString(modName);
-
-							if (!jsonModDownloadCached.has(modName)) {
-								jsonModDownloadCached.put(modName, new JSONObject());
-								cacheChange = true;
-							}
-							JSONObject jsonModCached = jsonModDownloadCached.getJSONObject(modName);
-							if (!jsonModCached.has(modVersion)) {
-								jsonModCached.put(modVersion,
-										FactorioModPortal.findModReleaseInfo(modName, modVersion));
-								cacheChange = true;
-							}
-							JSONObject jsonRelease = jsonModCached.getJSONObject(modVersion);
-
-							File fileModZip = new File(folderMods, jsonRelease.getString("file_name"));
-							if (!fileModZip.exists()) {
-								if (!auth) {
-									auth = true;
-									authParams = FactorioModPortal.getAuthParams(modPortalApiUsername,
-											modPortalApiPassword);
-								}
-								FactorioModPortal.downloadMod(folderMods, modName, modVersion, authParams);
-							}
-						}
-
-					}
-
-					if (cacheChange) {
-						Files.writeString(fileModDownloadCached.toPath(), jsonModDownloadCached.toString(2));
-						LOGGER.info("WRITE MOD DOWNLOAD CACHED: {}", fileModDownloadCached.getAbsolutePath());
-					}
-				}
+		// With lazy_mods, only the Base profile and the eager_mods are loaded now, the
+		// rest wait until a blueprint uses one of their entities or tiles
+		boolean lazyMods = json.optBoolean("lazy_mods", false);
+		lazyWaitMillis = json.optLong("lazy_mods_wait_ms", lazyWaitMillis);
+		Set<String> eagerMods = new HashSet<>();
+		JSONArray jsonEagerMods = json.optJSONArray("eager_mods");
+		if (jsonEagerMods != null) {
+			for (int i = 0; i < jsonEagerMods.length(); i++) {
+				eagerMods.add(jsonEagerMods.getString(i));
+			}
+		}
+		List<String> eagerNames = new ArrayList<>();
+		for (String name : mods) {
+			JSONObject jsonModRendering = readModRendering(name);
+			if (!lazyMods || eagerMods.contains(name) || jsonModRendering.getJSONObject("entities").has("Base")) {
+				eagerNames.add(name);
+			} else {
+				registerLazyProfile(name, jsonModRendering);
+			}
+		}
 
+		eagerNames.parallelStream().peek(name -> {
+			try {
+				prepareModsFolder(name);
 			} catch (Exception e) {
 				e.printStackTrace();
 				System.exit(-1);
@@ -362,28 +387,11 @@ public class FactorioManager {
 
 		}).parallel().map(name -> {
 			try {
-				JSONObject fdConfig = new JSONObject();
-				File folderMods = new File(folderModsRoot, name);
-				File folderData = new File(folderDataRoot, name);
-				folderData.mkdir();
-				fdConfig.put("mods", folderMods.getAbsolutePath());
-				fdConfig.put("data", folderData.getAbsolutePath());
-
-				if (hasFactorioInstall) {
-					fdConfig.put("factorio", factorioData.get());
-					fdConfig.put("executable", factorioExecutable.get());
-				}
-
-				FactorioData data = FactorioData.fromConfig(fdConfig);
-				data.initialize(false);
-
-				ModsProfile profile = new ModsProfile(folderData, data, new AtlasPackage(folderData));
-				return profile;
-
+				return createProfile(name);
 			} catch (Exception e) {
-			 e.printStackTrace();
-			 System.exit(-1);
-			 return null;
+				e.printStackTrace();
+				System.exit(-1);
+				return null;
 			}
 
 		}).sequential().forEach(profile -> {
@@ -426,6 +434,271 @@ public class FactorioManager {
 		utilitySprites = new FPUtilitySprites(baseProfile, baseTable.getRaw("utility-sprites", "default").get());
 	}
 
+	private static ModsProfile createProfile(String name) throws IOException {
+		JSONObject fdConfig = new JSONObject();
+		File folderMods = new File(folderModsRoot, name);
+		File folderData = new File(folderDataRoot, name);
+		folderData.mkdir();
+		fdConfig.put("mods", folderMods.getAbsolutePath());
+		fdConfig.put("data", folderData.getAbsolutePath());
+
+		if (hasFactorioInstall) {
+			fdConfig.put("factorio", factorioData.get());
+			fdConfig.put("executable", factorioExecutable.get());
+		}
+
+		FactorioData data = FactorioData.fromConfig(fdConfig);
+		data.initialize(false);
+
+		ModsProfile profile = new ModsProfile(folderData, data, new AtlasPackage(folderData));
+		return profile;
+	}
+
+	private static void prepareModsFolder(String name) throws IOException {
+		File folderMods = new File(folderModsRoot, name);
+		File folderData = new File(folderDataRoot, name);
+		folderData.mkdir();
+		
+		if (hasModsRoot) {
+			// Copy mod-rendering.json if missing or different
+			File modRenderingMods = new File(folderMods, "mod-rendering.json");
+			File modRenderingData = new File(folderData, "mod-rendering.json");
+			if (modRenderingMods.exists()) {
+				if (!modRenderingData.exists() || !Files.readString(modRenderingMods.toPath()).equals(Files.readString(modRenderingData.toPath()))) {
+					Files.copy(modRenderingMods.toPath(), modRenderingData.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					LOGGER.info("Copied mod-rendering.json to data folder: {}", modRenderingData.getAbsolutePath());
+				}
+			}
+		}
+
+		if (hasFactorioInstall && hasModsRoot) {
+
+			File fileModDownloadCached = new File(folderMods, "mod-download-cached.json");
+			boolean cacheChange = false;
+			JSONObject jsonModDownloadCached;
+			if (fileModDownloadCached.exists()) {
+				jsonModDownloadCached = new JSONObject(Files.readString(fileModDownloadCached.toPath()));
+			} else {
+				jsonModDownloadCached = new JSONObject();
+				cacheChange = true;
+			}
+
+			File fileModDownload = new File(folderMods, "mod-download.json");
+			if (modPortalApi && fileModDownload.exists()) {
+				JSONObject jsonModDownload = new JSONObject(Files.readString(fileModDownload.toPath()));
+				boolean auth = false;
+				String authParams = null;
+				for (String modName : jsonModDownload.keySet()) {
+					String modVersion = jsonModDownload.getString(modName);
+
+					if (!jsonModDownloadCached.has(modName)) {
+						jsonModDownloadCached.put(modName, new JSONObject());
+						cacheChange = true;
+					}
+					JSONObject jsonModCached = jsonModDownloadCached.getJSONObject(modName);
+					if (!jsonModCached.has(modVersion)) {
+						jsonModCached.put(modVersion,
+								FactorioModPortal.findModReleaseInfo(modName, modVersion));
+						cacheChange = true;
+					}
+					JSONObject jsonRelease = jsonModCached.getJSONObject(modVersion);
+
+					File fileModZip = new File(folderMods, jsonRelease.getString("file_name"));
+					if (!fileModZip.exists()) {
+						if (!auth) {
+							auth = true;
+							authParams = FactorioModPortal.getAuthParams(modPortalApiUsername,
+									modPortalApiPassword);
+						}
+						FactorioModPortal.downloadMod(folderMods, modName, modVersion, authParams);
+					}
+				}
+
+			}
+
+			if (cacheChange) {
+				Files.writeString(fileModDownloadCached.toPath(), jsonModDownloadCached.toString(2));
+				LOGGER.info("WRITE MOD DOWNLOAD CACHED: {}", fileModDownloadCached.getAbsolutePath());
+			}
+		}
+	}
+
+	private static JSONObject readModRendering(String name) throws IOException {
+		File fileModRendering = new File(new File(folderModsRoot, name), "mod-rendering.json");
+		if (!hasModsRoot || !fileModRendering.exists()) {
+			fileModRendering = new File(new File(folderDataRoot, name), "mod-rendering.json");
+		}
+		return new JSONObject(Files.readString(fileModRendering.toPath()));
+	}
+
+	private static void registerLazyProfile(String name, JSONObject jsonModRendering) {
+		LazyProfile lazy = new LazyProfile(name);
+		JSONObject jsonEntities = jsonModRendering.getJSONObject("entities");
+		for (String groupName : jsonEntities.keySet()) {
+			lazy.entityNames.addAll(jsonEntities.getJSONObject(groupName).keySet());
+		}
+		JSONObject jsonTiles = jsonModRendering.getJSONObject("tiles");
+		for (String groupName : jsonTiles.keySet()) {
+			JSONArray jsonGroup = jsonTiles.getJSONArray(groupName);
+			for (int i = 0; i < jsonGroup.length(); i++) {
+				lazy.tileNames.add(jsonGroup.getString(i));
+			}
+		}
+		lazy.entityNames.forEach(n -> lazyProfileByEntityName.putIfAbsent(n, lazy));
+		lazy.tileNames.forEach(n -> lazyProfileByTileName.putIfAbsent(n, lazy));
+		LOGGER.info("Deferred mod profile {} ({} entities, {} tiles)", name, lazy.entityNames.size(),
+				lazy.tileNames.size());
+	}
+
+	/**
+	 * Loads any deferred mod profiles that render one of the given entities or
+	 * tiles. Concurrent callers needing the same profile wait for a single load.
+	 * Waits at most lazy_mods_wait_ms, after which the profiles keep loading in
+	 * the background and their entities and tiles render as unknown.
+	 */
+	public static void ensureProfilesLoaded(Collection<String> entityNames, Collection<String> tileNames) {
+		if (lazyProfileByEntityName.isEmpty() && lazyProfileByTileName.isEmpty()) {
+			return;
+		}
+
+		Set<LazyProfile> needed = new LinkedHashSet<>();
+		for (String name : entityNames) {
+			LazyProfile lazy = lazyProfileByEntityName.get(name);
+			if (lazy != null) {
+				needed.add(lazy);
+			}
+		}
+		for (String name : tileNames) {
+			LazyProfile lazy = lazyProfileByTileName.get(name);
+			if (lazy != null) {
+				needed.add(lazy);
+			}
+		}
+
+		List<Future<?>> loads = needed.stream().map(FactorioManager::requestLazyProfile)
+				.collect(Collectors.toList());
+		long deadline = System.currentTimeMillis() + lazyWaitMillis;
+		for (int i = 0; i < loads.size(); i++) {
+			try {
+				loads.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				LOGGER.warn("Mod profiles {} are still loading, rendering their entities as unknown",
+						needed.stream().skip(i).map(l -> l.name).collect(Collectors.joining(", ")));
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				// loadLazyProfile logs its own failures
+			}
+		}
+	}
+
+	private static Future<?> requestLazyProfile(LazyProfile lazy) {
+		synchronized (lazy) {
+			if (lazy.load == null) {
+				lazy.load = lazyLoader.submit(() -> loadLazyProfile(lazy));
+			}
+			return lazy.load;
+		}
+	}
+
+	// Only runs on the loader thread
+	private static void loadLazyProfile(LazyProfile lazy) {
+		long startMillis = System.currentTimeMillis();
+		try {
+			prepareModsFolder(lazy.name);
+			ModsProfile profile = createProfile(lazy.name);
+			addLoadedProfile(profile, readModRendering(lazy.name));
+			LOGGER.info("Loaded mod profile {} on demand ({} ms)", lazy.name, System.currentTimeMillis() - startMillis);
+		} catch (Exception e) {
+			// The blueprint renders with unknown entities rather than taking the bot down
+			LOGGER.error("Failed to load mod profile {}", lazy.name, e);
+		} finally {
+			lazy.entityNames.forEach(n -> lazyProfileByEntityName.remove(n, lazy));
+			lazy.tileNames.forEach(n -> lazyProfileByTileName.remove(n, lazy));
+		}
+	}
+
+	// Mirrors initializePrototypes and initializeFactories for a single profile.
+	// Names already loaded keep their prototypes, and new entries are appended so
+	// ids handed out by the previous prototype table stay valid.
+	private static void addLoadedProfile(ModsProfile profile, JSONObject jsonModRendering) throws IOException {
+		FactorioData data = profile.getData();
+		DataTable table = data.getTable();
+
+		profiles.add(profile);
+		profileByData.put(data, profile);
+		data.getMods().stream().forEach(s -> profileByModName.put(s, profile));
+
+		addNewPrototypes(table.getRecipes(), recipeByName, recipes);
+		addNewPrototypes(table.getItems(), itemByName, items);
+		addNewPrototypes(table.getFluids(), fluidByName, fluids);
+		addNewPrototypes(table.getEntities(), entityByName, entities);
+		addNewPrototypes(table.getTechnologies(), technologyByName, technologies);
+		addNewPrototypes(table.getTiles(), tileByName, tiles);
+		addNewPrototypes(table.getEquipments(), equipmentByName, equipments);
+		addNewPrototypes(table.getAchievements(), achievementByName, achievements);
+		addNewPrototypes(table.getItemGroups(), itemGroupByName, itemGroups);
+
+		List<EntityRendererFactory> newEntityFactories = new ArrayList<>();
+		EntityRendererFactory.registerFactories(factory -> {
+			if (entityFactoryByName.containsKey(factory.getName())) {
+				LOGGER.warn("Entity {} from mod profile {} is already registered, skipping.", factory.getName(),
+						profile.getFolderData().getName());
+			} else {
+				newEntityFactories.add(factory);
+			}
+		}, profile, jsonModRendering.getJSONObject("entities"));
+		List<TileRendererFactory> newTileFactories = new ArrayList<>();
+		TileRendererFactory.registerFactories(factory -> {
+			if (tileFactoryByName.containsKey(factory.getName())) {
+				LOGGER.warn("Tile {} from mod profile {} is already registered, skipping.", factory.getName(),
+						profile.getFolderData().getName());
+			} else {
+				newTileFactories.add(factory);
+			}
+		}, profile, jsonModRendering.getJSONObject("tiles"));
+
+		EntityRendererFactory.initFactories(newEntityFactories);
+		TileRendererFactory.initFactories(newTileFactories);
+		IconManager.addProfile(profile);
+
+		// Factories and icons are only published once the atlases they draw from are
+		// initialized, until then their names render as unknown
+		profile.getAtlasPackage().initialize();
+
+		newEntityFactories.forEach(FactorioManager::registerEntityFactory);
+		newTileFactories.forEach(FactorioManager::registerTileFactory);
+		newEntityFactories.forEach(e -> profileByGroupName.putIfAbsent(e.getGroupName(), e.getProfile()));
+		IconManager.publishProfile();
+
+		table.getRaw("quality")
+				.ifPresent(l -> Utils.forEach(l.totableObject(), (k, v) -> qualities.add(k.tojstring())));
+
+		PrototypeTable nextTable = new PrototypeTable(entityFactories, tileFactories, items, qualities);
+		nextTable.bindIcons(IconManager::lookupEntity, IconManager::lookupTile, IconManager::lookupItem,
+				IconManager::lookupQuality);
+		prototypeTable = nextTable;
+		LOGGER.info("Prototype table: {} entities, {} tiles, {} items, {} qualities", nextTable.getEntityCount(),
+				nextTable.getTileCount(), nextTable.getItemCount(), nextTable.getQualityCount());
+	}
+
+	private static <T extends DataPrototype> void addNewPrototypes(Map<String, T> tableByName, Map<String, T> byName,
+			List<T> list) {
+		List<T> added = new ArrayList<>();
+		for (T proto : tableByName.values()) {
+			if (byName.putIfAbsent(proto.getName(), proto) == null) {
+				added.add(proto);
+			}
+		}
+		list.addAll(sortedByName(added));
+	}
+
+	private static <T extends DataPrototype> List<T> sortedByName(Collection<T> prototypes) {
+		return prototypes.stream().sorted(Comparator.comparing(DataPrototype::getName)).collect(Collectors.toList());
+	}
+
 	public static Optional<AchievementPrototype> lookupAchievementByName(String name) {
 		return Optional.ofNullable(achievementByName.get(name));
 	}
@@ -446,16 +719,34 @@ public class FactorioManager {
 		return Optional.ofNullable(entityByName.get(name));
 	}
 
+	public static EntityRendererFactory lookupEntityFactory(BSMetaEntity entity) {
+		int id = resolveEntityId(entity);
+		if (id == PrototypeTable.UNKNOWN) {
+			return lookupUnknownEntityFactory(entity.name);
+		}
+		return prototypeTable.getEntityFactory(id);
+	}
+
+	// For names that are not part of a blueprint, which are not worth interning
 	public static EntityRendererFactory lookupEntityFactoryForName(String name) {
-		return Optional.ofNullable(entityFactoryByName.get(name)).orElseGet(() -> {
-			try {
-				return unknownEntityFactories.get(name, () -> new UnknownEntityRendering(name));
-			} catch (ExecutionException e) {
-				e.printStackTrace();
-				System.exit(-1);
-				return null;
+		EntityRendererFactory factory = entityFactoryByName.get(name);
+		if (factory == null && prototypeTable != null) {
+			LazyProfile lazy = lazyProfileByEntityName.get(name);
+			if (lazy != null) {
+				requestLazyProfile(lazy);
 			}
-		});
+		}
+		return (factory != null) ? factory : lookupUnknownEntityFactory(name);
+	}
+
+	private static EntityRendererFactory lookupUnknownEntityFactory(String name) {
+		try {
+			return unknownEntityFactories.get(name, () -> new UnknownEntityRendering(name));
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			System.exit(-1);
+			return null;
+		}
 	}
 
 	public static Optional<EquipmentPrototype> lookupEquipmentByName(String name) {
@@ -466,6 +757,14 @@ public class FactorioManager {
 		return Optional.ofNullable(fluidByName.get(name));
 	}
 
+	public static Optional<ItemPrototype> lookupItem(BSItemWithQualityID item) {
+		int id = resolveItemId(item);
+		if (id == PrototypeTable.UNKNOWN) {
+			return Optional.empty();
+		}
+		return Optional.of(prototypeTable.getItemPrototype(id));
+	}
+
 	public static Optional<ItemPrototype> lookupItemByName(String name) {
 		return Optional.ofNullable(itemByName.get(name));
 	}
@@ -491,6 +790,54 @@ public class FactorioManager {
 		}
 	}
 
+	/**
+	 * Returns a stamp of the file behind a mod image, from its size and
+	 * modification time, without reading it. Images in a mod zip share the stamp
+	 * of the zip, which changes with the mod version. Returns 0 if the file can
+	 * not be found.
+	 */
+	public static long lookupModImageStamp(String filename) {
+		String firstSegment = filename.split("\\/")[0];
+		String modName = firstSegment.substring(2, firstSegment.length() - 2);
+		String modPath = filename.substring(Math.min(firstSegment.length() + 1, filename.length()));
+
+		if (hasFactorioInstall) {
+			File file = new File(new File(new File(factorioData.get(), "data"), modName), modPath);
+			if (file.isFile()) {
+				return fileStamp(file);
+			}
+		}
+
+		List<ModsProfile> modProfiles = profileByModName.get(modName);
+		if (modProfiles.isEmpty()) {
+			return 0;
+		}
+		File folderMods = modProfiles.get(0).getData().getFolderMods();
+		File file = new File(new File(folderMods, modName), modPath);
+		if (file.isFile()) {
+			return fileStamp(file);
+		}
+		return modZipStamps.computeIfAbsent(new File(folderMods, modName), f -> {
+			String zipPattern = Pattern.quote(modName) + "_[0-9.]+\\.zip";
+			File[] zips = folderMods.listFiles((dir, name) -> name.matches(zipPattern));
+			if (zips == null || zips.length == 0) {
+				return 0L;
+			}
+			Arrays.sort(zips);
+			long stamp = 0;
+			for (File zip : zips) {
+				stamp = 31 * stamp + zip.getName().hashCode();
+				stamp = 31 * stamp + fileStamp(zip);
+			}
+			return (stamp != 0) ? stamp : 1;
+		});
+	}
+
+	private static long fileStamp(File file) {
+		long stamp = 31 * file.length() + file.lastModified();
+		return (stamp != 0) ? stamp : 1;
+	}
+
 	public static Optional<RecipePrototype> lookupRecipeByName(String name) {
 		return Optional.ofNullable(recipeByName.get(name));
 	}
@@ -503,16 +850,113 @@ public class FactorioManager {
 		return Optional.ofNullable(tileByName.get(name));
 	}
 
+	public static TileRendererFactory lookupTileFactory(BSTile tile) {
+		int id = resolveTileId(tile);
+		if (id == PrototypeTable.UNKNOWN) {
+			return lookupUnknownTileFactory(tile.name);
+		}
+		return prototypeTable.getTileFactory(id);
+	}
+
+	// For names that are not part of a blueprint, which are not worth interning
 	public static TileRendererFactory lookupTileFactoryForName(String name) {
-		return Optional.ofNullable(tileFactoryByName.get(name)).orElseGet(() -> {
-			try {
-				return unknownTileFactories.get(name, () -> new UnknownTileRendering(name));
-			} catch (ExecutionException e) {
-				e.printStackTrace();
-				System.exit(-1);
-				return null;
+		TileRendererFactory factory = tileFactoryByName.get(name);
+		if (factory == null && prototypeTable != null) {
+			LazyProfile lazy = lazyProfileByTileName.get(name);
+			if (lazy != null) {
+				requestLazyProfile(lazy);
 			}
-		});
+		}
+		return (factory != null) ? factory : lookupUnknownTileFactory(name);
+	}
+
+	private static TileRendererFactory lookupUnknownTileFactory(String name) {
+		try {
+			return unknownTileFactories.get(name, () -> new UnknownTileRendering(name));
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			System.exit(-1);
+			return null;
+		}
+	}
+
+	// Resolves the name to a table id only the first time the entity is seen
+	public static int resolveEntityId(BSMetaEntity entity) {
+		int id = entity.getPrototypeId();
+		if (id == PrototypeTable.UNRESOLVED) {
+			id = lookupEntityId(entity.name);
+			entity.setPrototypeId(id);
+		}
+		return id;
+	}
+
+	// A name missing from the table may belong to a deferred profile, which is
+	// requested here but not waited on, see ensureProfilesLoaded. The id stays
+	// UNKNOWN on this blueprint object, which renders it as a placeholder.
+	private static int lookupEntityId(String name) {
+		int id = prototypeTable.lookupEntityId(name);
+		if (id == PrototypeTable.UNKNOWN) {
+			LazyProfile lazy = lazyProfileByEntityName.get(name);
+			if (lazy != null) {
+				requestLazyProfile(lazy);
+			}
+		}
+		return id;
+	}
+
+	// Resolves the name to a table id only the first time the item is seen
+	public static int resolveItemId(BSItemWithQualityID item) {
+		int id = item.getItemId();
+		if (id == PrototypeTable.UNRESOLVED) {
+			id = prototypeTable.lookupItemId(item.name);
+			item.setItemId(id);
+		}
+		return id;
+	}
+
+	// UNKNOWN if the entity has no quality, or one that is not in the table
+	public static int resolveQualityId(BSEntity entity) {
+		int id = entity.getQualityId();
+		if (id == PrototypeTable.UNRESOLVED) {
+			id = lookupQualityId(entity.quality);
+			entity.setQualityId(id);
+		}
+		return id;
+	}
+
+	// UNKNOWN if the item has no quality, or one that is not in the table
+	public static int resolveQualityId(BSItemWithQualityID item) {
+		int id = item.getQualityId();
+		if (id == PrototypeTable.UNRESOLVED) {
+			id = lookupQualityId(item.quality);
+			item.setQualityId(id);
+		}
+		return id;
+	}
+
+	private static int lookupQualityId(Optional<String> quality) {
+		return quality.map(prototypeTable::lookupQualityId).orElse(PrototypeTable.UNKNOWN);
+	}
+
+	// Resolves the name to a table id only the first time the tile is seen
+	public static int resolveTileId(BSTile tile) {
+		int id = tile.getPrototypeId();
+		if (id == PrototypeTable.UNRESOLVED) {
+			id = lookupTileId(tile.name);
+			tile.setPrototypeId(id);
+		}
+		return id;
+	}
+
+	private static int lookupTileId(String name) {
+		int id = prototypeTable.lookupTileId(name);
+		if (id == PrototypeTable.UNKNOWN) {
+			LazyProfile lazy = lazyProfileByTileName.get(name);
+			if (lazy != null) {
+				requestLazyProfile(lazy);
+			}
+		}
+		return id;
 	}
 
 	private static synchronized void registerEntityFactory(EntityRendererFactory factory) {
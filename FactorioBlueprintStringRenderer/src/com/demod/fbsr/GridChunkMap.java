@@ -0,0 +1,142 @@
+package com.demod.fbsr;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * Open-addressing map from a packed chunk coordinate to a chunk payload. Used
+ * by the chunked grids so that a cell lookup is one multiply-shift hash and a
+ * short linear probe, with no boxing.
+ */
+class GridChunkMap<C> {
+	static final int CHUNK_BITS = 5;
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private Object[] chunks;
+	private int size = 0;
+
+	GridChunkMap() {
+		keys = new long[16];
+		chunks = new Object[16];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	static long key(int x, int y) {
+		return ((long) (x >> CHUNK_BITS) << 32) | ((y >> CHUNK_BITS) & 0xFFFFFFFFL);
+	}
+
+	static int keyX(long key) {
+		return (int) (key >> 32) << CHUNK_BITS;
+	}
+
+	static int keyY(long key) {
+		return (int) key << CHUNK_BITS;
+	}
+
+	static int index(int x, int y) {
+		return ((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK);
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	@SuppressWarnings("unchecked")
+	C get(long key) {
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+			long k = keys[slot];
+			if (k == key) {
+				return (C) chunks[slot];
+			} else if (k == EMPTY) {
+				return null;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	C getOrCreate(long key, LongFunction<C> factory) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		for (;; slot = (slot + 1) & mask) {
+			long k = keys[slot];
+			if (k == key) {
+				return (C) chunks[slot];
+			} else if (k == EMPTY) {
+				break;
+			}
+		}
+		C chunk = factory.apply(key);
+		keys[slot] = key;
+		chunks[slot] = chunk;
+		if (++size * 2 > keys.length) {
+			grow();
+		}
+		return chunk;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		Object[] oldChunks = chunks;
+		keys = new long[oldKeys.length * 2];
+		chunks = new Object[oldChunks.length * 2];
+		Arrays.fill(keys, EMPTY);
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != EMPTY) {
+				int slot = hash(key) & mask;
+				while (keys[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				chunks[slot] = oldChunks[i];
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Chunk keys ordered by chunk row then chunk column, see
+	 * {@link #chunkRowEnd(long[], int)} for walking them one chunk row at a time.
+	 */
+	long[] sortedKeys() {
+		long[] ret = new long[size];
+		int i = 0;
+		for (long key : keys) {
+			if (key != EMPTY) {
+				ret[i++] = key;
+			}
+		}
+		for (int j = 0; j < ret.length; j++) {
+			ret[j] = Long.rotateLeft(ret[j], 32) ^ 0x80000000L;
+		}
+		Arrays.sort(ret);
+		for (int j = 0; j < ret.length; j++) {
+			ret[j] = Long.rotateRight(ret[j] ^ 0x80000000L, 32);
+		}
+		return ret;
+	}
+
+	/**
+	 * The end (exclusive) of the run of sorted keys, starting at start, that share
+	 * the chunk row of the key at start.
+	 */
+	static int chunkRowEnd(long[] sortedKeys, int start) {
+		int y = (int) sortedKeys[start];
+		int end = start + 1;
+		while (end < sortedKeys.length && (int) sortedKeys[end] == y) {
+			end++;
+		}
+		return end;
+	}
+}
@@ -123,6 +123,26 @@ public class IconLayer {
 		return ImmutableList.of(ICONLAYER_EMPTY);
 	}
 
+	/**
+	 * Identifies the icon that {@link #createIcon(List, int)} draws from these
+	 * layers, from the stamps of their files and how they are placed. Returns 0 if
+	 * any file can not be found.
+	 */
+	public static long stamp(List<IconLayer> layers, int size) {
+		long stamp = size;
+		for (IconLayer layer : layers) {
+			long fileStamp = FactorioManager.lookupModImageStamp(layer.path);
+			if (fileStamp == 0) {
+				return 0;
+			}
+			stamp = 31 * stamp + fileStamp;
+			stamp = 31 * stamp + layer.source.hashCode();
+			stamp = 31 * stamp + layer.bounds.hashCode();
+			stamp = 31 * stamp + layer.tint.getRGB();
+		}
+		return stamp;
+	}
+
 	public static BufferedImage createIcon(List<IconLayer> defs, int size) {
 
 		BufferedImage icon = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
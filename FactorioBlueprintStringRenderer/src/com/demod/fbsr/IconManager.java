@@ -12,6 +12,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -20,6 +23,7 @@ import javax.swing.FocusManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.demod.factorio.DataTable;
 import com.demod.factorio.FactorioData;
 import com.demod.factorio.Utils;
 import com.demod.factorio.fakelua.LuaTable;
@@ -27,6 +31,8 @@ import com.demod.factorio.prototype.DataPrototype;
 import com.demod.factorio.prototype.ItemSubGroupPrototype;
 import com.demod.factorio.prototype.RecipePrototype;
 import com.demod.fbsr.RichText.TagToken;
+import com.demod.fbsr.bs.BSEntity;
+import com.demod.fbsr.bs.BSItemWithQualityID;
 import com.demod.fbsr.composite.TintComposite;
 import com.demod.fbsr.def.IconDef;
 import com.demod.fbsr.def.ImageDef;
@@ -43,20 +49,59 @@ public class IconManager {
 	public static class PrototypeResolver extends IconResolver {
 		protected final Map<String, ? extends DataPrototype> map;
 		protected final Map<String, IconDef> defs;
+		private final Map<String, IconDef> staged = new LinkedHashMap<>();
 
 		public PrototypeResolver(String category, Map<String, ? extends DataPrototype> map) {
 			super(category);
 
 			this.map = map;
 
-			defs = createDefs();
+			defs = new ConcurrentHashMap<>(createDefs(map));
+		}
+
+		/**
+		 * Registers the defs with their atlas packages, in the order of the prototype
+		 * map so the atlas packing does not depend on which resolver finished first.
+		 */
+		public void registerDefs() {
+			for (String key : map.keySet()) {
+				IconDef def = defs.get(key);
+				if (def != null) {
+					def.getProfile().getAtlasPackage().registerDef(def);
+				}
+			}
+		}
+
+		/**
+		 * Stages icons for prototypes of a profile loaded after startup, and registers
+		 * them with their atlas packages. Names that already have an icon keep it.
+		 * Staged icons are not visible to lookups until {@link #publish()}.
+		 */
+		public void add(Map<String, ? extends DataPrototype> added) {
+			Map<String, DataPrototype> fresh = new LinkedHashMap<>();
+			for (Entry<String, ? extends DataPrototype> entry : added.entrySet()) {
+				if (!defs.containsKey(entry.getKey()) && !staged.containsKey(entry.getKey())) {
+					fresh.put(entry.getKey(), entry.getValue());
+				}
+			}
 
-			for (IconDef def : defs.values()) {
-				def.getProfile().getAtlasPackage().registerDef(def);
+			Map<String, IconDef> created = createDefs(fresh);
+			for (String key : fresh.keySet()) {
+				IconDef def = created.get(key);
+				if (def != null) {
+					staged.put(key, def);
+					def.getProfile().getAtlasPackage().registerDef(def);
+				}
 			}
 		}
 
-		protected Map<String, IconDef> createDefs() {
+		// Called once the atlases holding the staged icons are initialized
+		public void publish() {
+			staged.forEach(defs::putIfAbsent);
+			staged.clear();
+		}
+
+		protected Map<String, IconDef> createDefs(Map<String, ? extends DataPrototype> map) {
 			Map<String, IconDef> defs = new HashMap<>();
 			for (Entry<String, ? extends DataPrototype> entry : map.entrySet()) {
 				DataPrototype proto = entry.getValue();
@@ -81,7 +126,7 @@ public class IconManager {
 		}
 
 		@Override
-		protected Map<String, IconDef> createDefs() {
+		protected Map<String, IconDef> createDefs(Map<String, ? extends DataPrototype> map) {
 			Map<String, IconDef> defs = new HashMap<>();
 			for (Entry<String, ? extends DataPrototype> entry : map.entrySet()) {
 				DataPrototype proto = entry.getValue();
@@ -137,6 +182,42 @@ public class IconManager {
 		}
 	}
 
+	public static class PathResolver extends PrototypeResolver {
+		private final String[] rawPaths;
+
+		public PathResolver(String category, String[] rawPaths, Map<String, DataPrototype> map) {
+			super(category, map);
+			this.rawPaths = rawPaths;
+		}
+
+		public void addProfile(ModsProfile profile) {
+			Map<String, DataPrototype> map = new LinkedHashMap<>();
+			putPathPrototypes(map, profile, rawPaths);
+			add(map);
+		}
+
+		private static void putPathPrototypes(Map<String, DataPrototype> map, ModsProfile profile,
+				String[] rawPaths) {
+			for (String rawPath : rawPaths) {
+				String[] path = rawPath.split("\\.");
+				FactorioData data = profile.getData();
+				LuaTable lua = data.getTable().getRaw(path).get().totableObject();
+				Utils.forEach(lua, (k, v) -> {
+					DataPrototype proto = new DataPrototype(v.totableObject());
+					Optional<ItemSubGroupPrototype> subgroup = proto.getSubgroup()
+							.flatMap(s -> data.getTable().getItemSubgroup(s));
+					if (subgroup.isPresent()) {
+						proto.setGroup(subgroup.get().getGroup());
+					} else {
+						proto.setGroup(Optional.empty());
+					}
+					proto.setTable(data.getTable());
+					map.put(k.tojstring(), proto);
+				});
+			}
+		}
+	}
+
 	public static abstract class IconResolver {
 		protected final String category;
 
@@ -150,7 +231,7 @@ public class IconManager {
 
 		public abstract Optional<IconDef> lookup(String key);
 
-		public static IconResolver forRecipes(String category, List<RecipePrototype> prototypes) {
+		public static PrototypeResolver forRecipes(String category, List<RecipePrototype> prototypes) {
 			Map<String, RecipePrototype> map = new LinkedHashMap<>();
 			for (RecipePrototype proto : prototypes) {
 				map.put(proto.getName(), proto);
@@ -158,7 +239,7 @@ public class IconManager {
 			return new RecipeResolver(category, map);
 		}
 
-		public static IconResolver forPrototypes(String category, List<? extends DataPrototype> prototypes) {
+		public static PrototypeResolver forPrototypes(String category, List<? extends DataPrototype> prototypes) {
 			Map<String, DataPrototype> map = new LinkedHashMap<>();
 			for (DataPrototype proto : prototypes) {
 				map.put(proto.getName(), proto);
@@ -166,28 +247,15 @@ public class IconManager {
 			return new PrototypeResolver(category, map);
 		}
 
-		public static IconResolver forPath(String... rawPaths) {
+		public static PathResolver forPath(String... rawPaths) {
 			Map<String, DataPrototype> map = new LinkedHashMap<>();
 			for (String rawPath : rawPaths) {
-				String[] path = rawPath.split("\\.");
 				for (ModsProfile profile : FactorioManager.getProfiles()) {
-					FactorioData data = profile.getData();
-					LuaTable lua = data.getTable().getRaw(path).get().totableObject();
-					Utils.forEach(lua, (k, v) -> {
-						DataPrototype proto = new DataPrototype(v.totableObject());
-						Optional<ItemSubGroupPrototype> subgroup = proto.getSubgroup()
-								.flatMap(s -> data.getTable().getItemSubgroup(s));
-						if (subgroup.isPresent()) {
-							proto.setGroup(subgroup.get().getGroup());
-						} else {
-							proto.setGroup(Optional.empty());
-						}
-						proto.setTable(data.getTable());
-						map.put(k.tojstring(), proto);
-					});
+					PathResolver.putPathPrototypes(map, profile, new String[] { rawPath });
 				}
 			}
-			return new PrototypeResolver("path-" + Arrays.stream(rawPaths).collect(Collectors.joining("-")), map);
+			return new PathResolver("path-" + Arrays.stream(rawPaths).collect(Collectors.joining("-")), rawPaths,
+					map);
 		}
 	}
 
@@ -268,21 +336,21 @@ public class IconManager {
 
 	private static volatile boolean initialized = false;
 
-	private static IconResolver itemResolver;
-	private static IconResolver entityResolver;
-	private static IconResolver technologyResolver;
-	private static IconResolver recipeResolver;
-	private static IconResolver itemGroupResolver;
-	private static IconResolver fluidResolver;
-	private static IconResolver tileResolver;
-	private static IconResolver virtualSignalResolver;
-	private static IconResolver achievementResolver;
-	private static IconResolver armorResolver;
-	private static IconResolver shortcutResolver;
-	private static IconResolver qualityResolver;
-	private static IconResolver planetResolver;
-	private static IconResolver spaceLocationResolver;
-	private static IconResolver asteroidChunkResolver;
+	private static PrototypeResolver itemResolver;
+	private static PrototypeResolver entityResolver;
+	private static PrototypeResolver technologyResolver;
+	private static PrototypeResolver recipeResolver;
+	private static PrototypeResolver itemGroupResolver;
+	private static PrototypeResolver fluidResolver;
+	private static PrototypeResolver tileResolver;
+	private static PathResolver virtualSignalResolver;
+	private static PrototypeResolver achievementResolver;
+	private static PathResolver armorResolver;
+	private static PathResolver shortcutResolver;
+	private static PathResolver qualityResolver;
+	private static PathResolver planetResolver;
+	private static PathResolver spaceLocationResolver;
+	private static PathResolver asteroidChunkResolver;
 
 	private static Map<String, TagResolver> tagResolvers = new HashMap<>();
 
@@ -292,21 +360,57 @@ public class IconManager {
 		}
 		initialized = true;
 
-		itemResolver = IconResolver.forPrototypes("item", FactorioManager.getItems());
-		entityResolver = IconResolver.forPrototypes("entity", FactorioManager.getEntities());
-		technologyResolver = IconResolver.forPrototypes("technology", FactorioManager.getTechnologies());
-		recipeResolver = IconResolver.forRecipes("recipe", FactorioManager.getRecipes());
-		itemGroupResolver = IconResolver.forPrototypes("item-group", FactorioManager.getItemGroups());
-		fluidResolver = IconResolver.forPrototypes("fluid", FactorioManager.getFluids());
-		tileResolver = IconResolver.forPrototypes("tile", FactorioManager.getTiles());
-		virtualSignalResolver = IconResolver.forPath("virtual-signal");
-		achievementResolver = IconResolver.forPrototypes("achievement", FactorioManager.getAchievements());
-		armorResolver = IconResolver.forPath("armor");
-		shortcutResolver = IconResolver.forPath("shortcut");
-		qualityResolver = IconResolver.forPath("quality");
-		planetResolver = IconResolver.forPath("planet");
-		spaceLocationResolver = IconResolver.forPath("space-location", "planet");
-		asteroidChunkResolver = IconResolver.forPath("asteroid-chunk");
+		long startMillis = System.currentTimeMillis();
+
+		// Each resolver builds its icon defs independently on the fork-join pool
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		ForkJoinTask<PrototypeResolver> itemTask = pool
+				.submit(() -> IconResolver.forPrototypes("item", FactorioManager.getItems()));
+		ForkJoinTask<PrototypeResolver> entityTask = pool
+				.submit(() -> IconResolver.forPrototypes("entity", FactorioManager.getEntities()));
+		ForkJoinTask<PrototypeResolver> technologyTask = pool
+				.submit(() -> IconResolver.forPrototypes("technology", FactorioManager.getTechnologies()));
+		ForkJoinTask<PrototypeResolver> recipeTask = pool
+				.submit(() -> IconResolver.forRecipes("recipe", FactorioManager.getRecipes()));
+		ForkJoinTask<PrototypeResolver> itemGroupTask = pool
+				.submit(() -> IconResolver.forPrototypes("item-group", FactorioManager.getItemGroups()));
+		ForkJoinTask<PrototypeResolver> fluidTask = pool
+				.submit(() -> IconResolver.forPrototypes("fluid", FactorioManager.getFluids()));
+		ForkJoinTask<PrototypeResolver> tileTask = pool
+				.submit(() -> IconResolver.forPrototypes("tile", FactorioManager.getTiles()));
+		ForkJoinTask<PathResolver> virtualSignalTask = pool.submit(() -> IconResolver.forPath("virtual-signal"));
+		ForkJoinTask<PrototypeResolver> achievementTask = pool
+				.submit(() -> IconResolver.forPrototypes("achievement", FactorioManager.getAchievements()));
+		ForkJoinTask<PathResolver> armorTask = pool.submit(() -> IconResolver.forPath("armor"));
+		ForkJoinTask<PathResolver> shortcutTask = pool.submit(() -> IconResolver.forPath("shortcut"));
+		ForkJoinTask<PathResolver> qualityTask = pool.submit(() -> IconResolver.forPath("quality"));
+		ForkJoinTask<PathResolver> planetTask = pool.submit(() -> IconResolver.forPath("planet"));
+		ForkJoinTask<PathResolver> spaceLocationTask = pool
+				.submit(() -> IconResolver.forPath("space-location", "planet"));
+		ForkJoinTask<PathResolver> asteroidChunkTask = pool.submit(() -> IconResolver.forPath("asteroid-chunk"));
+
+		itemResolver = itemTask.join();
+		entityResolver = entityTask.join();
+		technologyResolver = technologyTask.join();
+		recipeResolver = recipeTask.join();
+		itemGroupResolver = itemGroupTask.join();
+		fluidResolver = fluidTask.join();
+		tileResolver = tileTask.join();
+		virtualSignalResolver = virtualSignalTask.join();
+		achievementResolver = achievementTask.join();
+		armorResolver = armorTask.join();
+		shortcutResolver = shortcutTask.join();
+		qualityResolver = qualityTask.join();
+		planetResolver = planetTask.join();
+		spaceLocationResolver = spaceLocationTask.join();
+		asteroidChunkResolver = asteroidChunkTask.join();
+
+		for (PrototypeResolver resolver : Arrays.asList(itemResolver, entityResolver, technologyResolver,
+				recipeResolver, itemGroupResolver, fluidResolver, tileResolver, virtualSignalResolver,
+				achievementResolver, armorResolver, shortcutResolver, qualityResolver, planetResolver,
+				spaceLocationResolver, asteroidChunkResolver)) {
+			resolver.registerDefs();
+		}
 
 		FPUtilitySprites utilitySprites = FactorioManager.getUtilitySprites();
 		//TODO img should at least resolve class.name format
@@ -335,6 +439,61 @@ public class IconManager {
 		tagResolvers.put("space-location", new DelegateTagResolver(spaceLocationResolver));
 		tagResolvers.put("space-age", new PlaceholderTagResolver(utilitySprites.spaceAgeIcon));
 		tagResolvers.put("asteroid-chunk", new DelegateTagResolver(asteroidChunkResolver));
+
+		FactorioManager.getPrototypeTable().bindIcons(entityResolver::lookup, tileResolver::lookup,
+				itemResolver::lookup, qualityResolver::lookup);
+
+		LOGGER.info("Initialized icons ({} ms).", System.currentTimeMillis() - startMillis);
+	}
+
+	/**
+	 * Stages the icons of a mod profile loaded after startup, see
+	 * {@link FactorioManager#ensureProfilesLoaded}. They are looked up only after
+	 * {@link #publishProfile()}, once the profile's atlases are initialized.
+	 */
+	public static synchronized void addProfile(ModsProfile profile) {
+		DataTable table = profile.getData().getTable();
+		itemResolver.add(table.getItems());
+		entityResolver.add(table.getEntities());
+		technologyResolver.add(table.getTechnologies());
+		recipeResolver.add(table.getRecipes());
+		itemGroupResolver.add(table.getItemGroups());
+		fluidResolver.add(table.getFluids());
+		tileResolver.add(table.getTiles());
+		achievementResolver.add(table.getAchievements());
+		virtualSignalResolver.addProfile(profile);
+		armorResolver.addProfile(profile);
+		shortcutResolver.addProfile(profile);
+		qualityResolver.addProfile(profile);
+		planetResolver.addProfile(profile);
+		spaceLocationResolver.addProfile(profile);
+		asteroidChunkResolver.addProfile(profile);
+	}
+
+	public static synchronized void publishProfile() {
+		itemResolver.publish();
+		entityResolver.publish();
+		technologyResolver.publish();
+		recipeResolver.publish();
+		itemGroupResolver.publish();
+		fluidResolver.publish();
+		tileResolver.publish();
+		achievementResolver.publish();
+		virtualSignalResolver.publish();
+		armorResolver.publish();
+		shortcutResolver.publish();
+		qualityResolver.publish();
+		planetResolver.publish();
+		spaceLocationResolver.publish();
+		asteroidChunkResolver.publish();
+	}
+
+	public static Optional<IconDef> lookupItem(BSItemWithQualityID item) {
+		int id = FactorioManager.resolveItemId(item);
+		if (id == PrototypeTable.UNKNOWN) {
+			return Optional.empty();
+		}
+		return FactorioManager.getPrototypeTable().getItemIcon(id);
 	}
 
 	public static Optional<IconDef> lookupItem(String name) {
@@ -381,6 +540,21 @@ public class IconManager {
 		return shortcutResolver.lookup(name);
 	}
 
+	public static Optional<IconDef> lookupQuality(BSEntity entity) {
+		return lookupQualityId(FactorioManager.resolveQualityId(entity));
+	}
+
+	public static Optional<IconDef> lookupQuality(BSItemWithQualityID item) {
+		return lookupQualityId(FactorioManager.resolveQualityId(item));
+	}
+
+	private static Optional<IconDef> lookupQualityId(int id) {
+		if (id == PrototypeTable.UNKNOWN) {
+			return Optional.empty();
+		}
+		return FactorioManager.getPrototypeTable().getQualityIcon(id);
+	}
+
 	public static Optional<IconDef> lookupQuality(String name) {
 		return qualityResolver.lookup(name);
 	}
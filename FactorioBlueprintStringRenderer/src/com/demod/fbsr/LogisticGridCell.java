@@ -7,6 +7,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 
 import com.demod.fbsr.map.MapPosition;
 
@@ -18,7 +19,10 @@ public class LogisticGridCell {
 	private Optional<Set<String>> outputs = Optional.empty();
 	private Optional<Set<String>> bannedOutputs = Optional.empty();
 
-	private Optional<SortedSet<String>> transits = Optional.empty();
+	// Bitset over transitItems, filled in by LogisticsEngine
+	private long[] transits = null;
+	private String[] transitItems = null;
+	private int engineIndex = -1;
 	private boolean blockTransit = false;
 	// Not implemented in FBSR::populateReverseLogistics
 	private boolean blockWarpToIfMove = false; // dont warp to here if origin has a "move".
@@ -65,13 +69,6 @@ public class LogisticGridCell {
 		outputs.get().add(itemName);
 	}
 
-	public boolean addTransit(String itemName) {
-		if (!transits.isPresent()) {
-			transits = Optional.of(new TreeSet<>());
-		}
-		return transits.get().add(itemName);
-	}
-
 	public void addWarp(MapPosition warp) {
 		if (!warps.isPresent()) {
 			warps = Optional.of(new ArrayList<>());
@@ -110,8 +107,41 @@ public class LogisticGridCell {
 		return outputs;
 	}
 
+	public void forEachTransit(Consumer<String> consumer) {
+		if (transits == null) {
+			return;
+		}
+		for (int w = 0; w < transits.length; w++) {
+			long bits = transits[w];
+			while (bits != 0) {
+				consumer.accept(transitItems[(w << 6) + Long.numberOfTrailingZeros(bits)]);
+				bits &= bits - 1;
+			}
+		}
+	}
+
+	int getEngineIndex() {
+		return engineIndex;
+	}
+
+	public int getTransitCount() {
+		if (transits == null) {
+			return 0;
+		}
+		int count = 0;
+		for (long bits : transits) {
+			count += Long.bitCount(bits);
+		}
+		return count;
+	}
+
 	public Optional<SortedSet<String>> getTransits() {
-		return transits;
+		if (transits == null) {
+			return Optional.empty();
+		}
+		SortedSet<String> ret = new TreeSet<>();
+		forEachTransit(ret::add);
+		return Optional.of(ret);
 	}
 
 	public Optional<List<MapPosition>> getWarpedFrom() {
@@ -174,6 +204,10 @@ public class LogisticGridCell {
 		this.blockWarpToIfMove = blockWarpToIfMove;
 	}
 
+	void setEngineIndex(int engineIndex) {
+		this.engineIndex = engineIndex;
+	}
+
 	public void setInputs(Optional<Set<String>> inputs) {
 		this.inputs = inputs;
 	}
@@ -192,4 +226,9 @@ public class LogisticGridCell {
 		this.outputs = outputs;
 	}
 
+	void setTransits(long[] transits, String[] transitItems) {
+		this.transits = transits;
+		this.transitItems = transitItems;
+	}
+
 }
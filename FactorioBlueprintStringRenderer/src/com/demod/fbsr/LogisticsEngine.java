@@ -0,0 +1,362 @@
+package com.demod.fbsr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+import com.demod.fbsr.map.MapPosition;
+
+/**
+ * Propagates item transits over the logistic grid of a {@link WorldMap}.
+ *
+ * Every item name seen on a transit start or end is given a dense index (in
+ * name order), and each cell keeps the items passing through it as a bitset.
+ * All items are then pushed along the move and warp edges together, OR-ing
+ * bitsets until nothing changes. Cells are split into connected components,
+ * which are independent and can be solved in parallel on large maps.
+ */
+public final class LogisticsEngine {
+
+	private static final int PARALLEL_THRESHOLD = 8192;
+
+	public static void populateTransits(WorldMap map, boolean populateInputs, boolean populateOutputs) {
+		if (!populateInputs && !populateOutputs) {
+			return;
+		}
+		new LogisticsEngine(map, populateInputs, populateOutputs).run();
+	}
+
+	private final WorldMap map;
+	private final boolean populateInputs;
+	private final boolean populateOutputs;
+
+	private LogisticGridCell[] cells;
+	private String[] items;
+	private int words;
+
+	// Edges in compressed row form, forward (move/warp) and backward
+	// (movedFrom/warpedFrom)
+	private int[] forwardStart;
+	private int[] forwardTargets;
+	private int[] backwardStart;
+	private int[] backwardTargets;
+
+	private long[] seedOutputs;
+	private long[] seedInputs;
+	private long[] banned;
+
+	private long[] transits;
+	private long[] pending;
+	private boolean[] queued;
+
+	private LogisticsEngine(WorldMap map, boolean populateInputs, boolean populateOutputs) {
+		this.map = map;
+		this.populateInputs = populateInputs;
+		this.populateOutputs = populateOutputs;
+	}
+
+	private void run() {
+		List<LogisticGridCell> cellList = new ArrayList<>();
+		List<MapPosition> posList = new ArrayList<>();
+		Set<String> itemSet = new TreeSet<>();
+		map.getLogisticGrid().forEach((x, y, cell) -> {
+			cell.setEngineIndex(cellList.size());
+			cellList.add(cell);
+			posList.add(map.getLogisticCellPosition(x, y));
+			if (populateOutputs && cell.isTransitStart()) {
+				itemSet.addAll(cell.getOutputs().get());
+			}
+			if (populateInputs && cell.isTransitEnd()) {
+				itemSet.addAll(cell.getInputs().get());
+			}
+		});
+		if (itemSet.isEmpty()) {
+			return;
+		}
+
+		cells = cellList.toArray(new LogisticGridCell[cellList.size()]);
+		items = itemSet.toArray(new String[itemSet.size()]);
+		words = (items.length + 63) >>> 6;
+
+		int n = cells.length;
+		transits = new long[n * words];
+		pending = new long[n * words];
+		queued = new boolean[n];
+		seedOutputs = new long[n * words];
+		seedInputs = new long[n * words];
+		banned = new long[n * words];
+
+		for (int c = 0; c < n; c++) {
+			LogisticGridCell cell = cells[c];
+			if (populateOutputs && cell.isTransitStart()) {
+				setBits(seedOutputs, c, cell.getOutputs().get());
+			}
+			if (populateInputs && cell.isTransitEnd()) {
+				setBits(seedInputs, c, cell.getInputs().get());
+			}
+			Optional<Set<String>> bannedOutputs = cell.getBannedOutputs();
+			if (bannedOutputs.isPresent()) {
+				setBits(banned, c, bannedOutputs.get());
+			}
+		}
+
+		buildEdges(posList);
+
+		int[][] components = findComponents();
+		if (n >= PARALLEL_THRESHOLD && components.length > 1) {
+			IntStream.range(0, components.length).parallel().forEach(i -> solve(components[i]));
+		} else {
+			for (int[] component : components) {
+				solve(component);
+			}
+		}
+
+		for (int c = 0; c < n; c++) {
+			int base = c * words;
+			for (int w = 0; w < words; w++) {
+				if (transits[base + w] != 0) {
+					cells[c].setTransits(Arrays.copyOfRange(transits, base, base + words), items);
+					break;
+				}
+			}
+		}
+	}
+
+	private void buildEdges(List<MapPosition> posList) {
+		int n = cells.length;
+		IntList fwdFrom = new IntList(n);
+		IntList fwdTo = new IntList(n);
+		IntList bwdFrom = new IntList(n);
+		IntList bwdTo = new IntList(n);
+
+		for (int c = 0; c < n; c++) {
+			LogisticGridCell cell = cells[c];
+			MapPosition pos = posList.get(c);
+			int from = c;
+
+			if (populateOutputs) {
+				cell.getMove().ifPresent(d -> {
+					map.getLogisticGridCell(d.offset(pos, 0.5)).filter(nc -> !nc.isBlockTransit() && nc.acceptMoveFrom(d))
+							.ifPresent(nc -> {
+								fwdFrom.add(from);
+								fwdTo.add(nc.getEngineIndex());
+							});
+				});
+				cell.getWarps().ifPresent(l -> {
+					for (MapPosition p : l) {
+						map.getLogisticGridCell(p)
+								.filter(nc -> !nc.isBlockTransit()
+										&& !(nc.getMove().isPresent() && cell.isBlockWarpFromIfMove())
+										&& !(cell.getMove().isPresent() && nc.isBlockWarpToIfMove()))
+								.ifPresent(nc -> {
+									fwdFrom.add(from);
+									fwdTo.add(nc.getEngineIndex());
+								});
+					}
+				});
+			}
+
+			if (populateInputs) {
+				cell.getMovedFrom().ifPresent(l -> {
+					for (Direction d : l) {
+						map.getLogisticGridCell(d.offset(pos, 0.5)).filter(nc -> !nc.isBlockTransit())
+								.ifPresent(nc -> {
+									bwdFrom.add(from);
+									bwdTo.add(nc.getEngineIndex());
+								});
+					}
+				});
+				cell.getWarpedFrom().ifPresent(l -> {
+					for (MapPosition p : l) {
+						map.getLogisticGridCell(p).filter(nc -> !nc.isBlockTransit())
+								.ifPresent(nc -> {
+									bwdFrom.add(from);
+									bwdTo.add(nc.getEngineIndex());
+								});
+					}
+				});
+			}
+		}
+
+		forwardStart = new int[n + 1];
+		forwardTargets = new int[fwdTo.size];
+		toCompressedRows(fwdFrom, fwdTo, forwardStart, forwardTargets);
+		backwardStart = new int[n + 1];
+		backwardTargets = new int[bwdTo.size];
+		toCompressedRows(bwdFrom, bwdTo, backwardStart, backwardTargets);
+	}
+
+	private static void toCompressedRows(IntList from, IntList to, int[] start, int[] targets) {
+		// Edges were added in source order, so a prefix count is enough
+		for (int i = 0; i < from.size; i++) {
+			start[from.values[i] + 1]++;
+		}
+		for (int i = 1; i < start.length; i++) {
+			start[i] += start[i - 1];
+		}
+		System.arraycopy(to.values, 0, targets, 0, to.size);
+	}
+
+	private int[][] findComponents() {
+		int n = cells.length;
+		int[] parent = new int[n];
+		for (int c = 0; c < n; c++) {
+			parent[c] = c;
+		}
+		for (int c = 0; c < n; c++) {
+			for (int e = forwardStart[c]; e < forwardStart[c + 1]; e++) {
+				union(parent, c, forwardTargets[e]);
+			}
+			for (int e = backwardStart[c]; e < backwardStart[c + 1]; e++) {
+				union(parent, c, backwardTargets[e]);
+			}
+		}
+
+		int[] componentId = new int[n];
+		int[] componentSize = new int[n];
+		int count = 0;
+		Arrays.fill(componentId, -1);
+		for (int c = 0; c < n; c++) {
+			int root = find(parent, c);
+			if (componentId[root] == -1) {
+				componentId[root] = count++;
+			}
+			componentSize[componentId[root]]++;
+		}
+
+		int[][] ret = new int[count][];
+		for (int i = 0; i < count; i++) {
+			ret[i] = new int[componentSize[i]];
+		}
+		int[] fill = new int[count];
+		for (int c = 0; c < n; c++) {
+			int id = componentId[find(parent, c)];
+			ret[id][fill[id]++] = c;
+		}
+		return ret;
+	}
+
+	private static int find(int[] parent, int c) {
+		while (parent[c] != c) {
+			parent[c] = parent[parent[c]];
+			c = parent[c];
+		}
+		return c;
+	}
+
+	private static void union(int[] parent, int a, int b) {
+		int ra = find(parent, a);
+		int rb = find(parent, b);
+		if (ra != rb) {
+			parent[Math.max(ra, rb)] = Math.min(ra, rb);
+		}
+	}
+
+	/**
+	 * Solves one connected component. Outputs are pushed forward first and stop
+	 * at cells that ban the item. Inputs are then pulled backward, stopping at
+	 * cells that already carry the item, matching the order the overlays have
+	 * always been built in.
+	 */
+	private void solve(int[] component) {
+		int[] queue = new int[component.length];
+		if (populateOutputs) {
+			propagate(component, queue, seedOutputs, forwardStart, forwardTargets, banned);
+		}
+		if (populateInputs) {
+			propagate(component, queue, seedInputs, backwardStart, backwardTargets, null);
+		}
+	}
+
+	private void propagate(int[] component, int[] queue, long[] seeds, int[] edgeStart, int[] edgeTargets,
+			long[] stop) {
+		int capacity = queue.length;
+		int head = 0;
+		int count = 0;
+
+		for (int c : component) {
+			int base = c * words;
+			boolean seeded = false;
+			for (int w = 0; w < words; w++) {
+				long bits = seeds[base + w];
+				if (bits != 0) {
+					pending[base + w] |= bits;
+					seeded = true;
+				}
+			}
+			if (seeded) {
+				queued[c] = true;
+				queue[(head + count++) % capacity] = c;
+			}
+		}
+
+		long[] forward = new long[words];
+		while (count > 0) {
+			int c = queue[head];
+			head = (head + 1) % capacity;
+			count--;
+			queued[c] = false;
+
+			int base = c * words;
+			boolean any = false;
+			for (int w = 0; w < words; w++) {
+				long added = pending[base + w] & ~transits[base + w];
+				pending[base + w] = 0;
+				transits[base + w] |= added;
+				long bits = (stop != null) ? (added & ~stop[base + w]) : added;
+				forward[w] = bits;
+				any |= bits != 0;
+			}
+			if (!any) {
+				continue;
+			}
+
+			for (int e = edgeStart[c]; e < edgeStart[c + 1]; e++) {
+				int t = edgeTargets[e];
+				int tbase = t * words;
+				boolean changed = false;
+				for (int w = 0; w < words; w++) {
+					long bits = forward[w] & ~transits[tbase + w] & ~pending[tbase + w];
+					if (bits != 0) {
+						pending[tbase + w] |= bits;
+						changed = true;
+					}
+				}
+				if (changed && !queued[t]) {
+					queued[t] = true;
+					queue[(head + count++) % capacity] = t;
+				}
+			}
+		}
+	}
+
+	private void setBits(long[] bits, int c, Set<String> names) {
+		int base = c * words;
+		for (String name : names) {
+			int index = Arrays.binarySearch(items, name);
+			if (index >= 0) {
+				bits[base + (index >>> 6)] |= 1L << index;
+			}
+		}
+	}
+
+	private static class IntList {
+		private int[] values;
+		private int size = 0;
+
+		public IntList(int capacity) {
+			values = new int[Math.max(capacity, 16)];
+		}
+
+		public void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+}
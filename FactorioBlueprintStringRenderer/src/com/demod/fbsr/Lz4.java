@@ -0,0 +1,154 @@
+package com.demod.fbsr;
+
+import java.util.Arrays;
+
+/**
+ * LZ4 block format codec (no frame header or checksums). Greedy matching with
+ * a single-entry hash table, which is plenty for atlas pages where most of the
+ * data is transparent runs.
+ */
+final class Lz4 {
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_BITS = 16;
+
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses src[srcOff, srcOff + srcLen) into dst at dstOff, which must have
+	 * room for {@link #maxCompressedLength(int)} bytes. Returns the compressed
+	 * length.
+	 */
+	public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+		int end = srcOff + srcLen;
+		int mfLimit = end - MF_LIMIT;
+		int matchLimit = end - LAST_LITERALS;
+		int anchor = srcOff;
+		int ip = srcOff;
+		int op = dstOff;
+
+		if (srcLen >= MF_LIMIT + 1) {
+			int[] table = new int[1 << HASH_BITS];
+			Arrays.fill(table, -1);
+			while (ip < mfLimit) {
+				int sequence = readInt(src, ip);
+				int h = hash(sequence);
+				int ref = table[h];
+				table[h] = ip;
+				if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+					ip++;
+					continue;
+				}
+
+				int matchLen = MIN_MATCH;
+				while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+					matchLen++;
+				}
+
+				op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLen);
+				ip += matchLen;
+				anchor = ip;
+			}
+		}
+
+		int literals = end - anchor;
+		int token = op++;
+		dst[token] = (byte) (Math.min(literals, 15) << 4);
+		op = writeLength(dst, op, literals);
+		System.arraycopy(src, anchor, dst, op, literals);
+		op += literals;
+		return op - dstOff;
+	}
+
+	/**
+	 * Decompresses one block into dst at dstOff. Returns the decompressed length.
+	 */
+	public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+		int ip = srcOff;
+		int srcEnd = srcOff + srcLen;
+		int op = dstOff;
+		while (true) {
+			int token = src[ip++] & 0xFF;
+
+			int literals = token >>> 4;
+			if (literals == 15) {
+				int b;
+				do {
+					b = src[ip++] & 0xFF;
+					literals += b;
+				} while (b == 255);
+			}
+			System.arraycopy(src, ip, dst, op, literals);
+			ip += literals;
+			op += literals;
+			if (ip >= srcEnd) {
+				break;
+			}
+
+			int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+			ip += 2;
+			int matchLen = token & 15;
+			if (matchLen == 15) {
+				int b;
+				do {
+					b = src[ip++] & 0xFF;
+					matchLen += b;
+				} while (b == 255);
+			}
+			matchLen += MIN_MATCH;
+
+			int match = op - offset;
+			if (offset >= matchLen) {
+				System.arraycopy(dst, match, dst, op, matchLen);
+			} else {
+				// Overlapping copy repeats the last offset bytes
+				for (int i = 0; i < matchLen; i++) {
+					dst[op + i] = dst[match + i];
+				}
+			}
+			op += matchLen;
+		}
+		return op - dstOff;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_BITS);
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+	}
+
+	private static int writeLength(byte[] dst, int op, int length) {
+		if (length >= 15) {
+			length -= 15;
+			while (length >= 255) {
+				dst[op++] = (byte) 255;
+				length -= 255;
+			}
+			dst[op++] = (byte) length;
+		}
+		return op;
+	}
+
+	private static int writeSequence(byte[] src, int literalOff, int literals, byte[] dst, int op, int offset,
+			int matchLen) {
+		int token = op++;
+		op = writeLength(dst, op, literals);
+		System.arraycopy(src, literalOff, dst, op, literals);
+		op += literals;
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+		int ml = matchLen - MIN_MATCH;
+		op = writeLength(dst, op, ml);
+		dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(ml, 15));
+		return op;
+	}
+
+	private Lz4() {
+	}
+}
@@ -0,0 +1,177 @@
+package com.demod.fbsr;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MaxRects bin packer using the best-short-side-fit heuristic. The free space
+ * of the bin is kept as a list of maximal free rectangles, which are split
+ * around every placed rectangle and pruned when one is contained in another.
+ */
+class MaxRectsPacker {
+
+	static class Placement {
+		private final Rectangle rect;
+		private final int shortSide;
+		private final int longSide;
+
+		private Placement(Rectangle rect, int shortSide, int longSide) {
+			this.rect = rect;
+			this.shortSide = shortSide;
+			this.longSide = longSide;
+		}
+
+		public Rectangle getRect() {
+			return rect;
+		}
+
+		/**
+		 * Lower is a tighter fit.
+		 */
+		public boolean isBetterThan(Placement other) {
+			if (other == null) {
+				return true;
+			}
+			if (shortSide != other.shortSide) {
+				return shortSide < other.shortSide;
+			}
+			return longSide < other.longSide;
+		}
+	}
+
+	private final int width;
+	private final int height;
+	private final List<Rectangle> freeRects = new ArrayList<>();
+	private long usedArea = 0;
+
+	public MaxRectsPacker(int width, int height) {
+		this.width = width;
+		this.height = height;
+		freeRects.add(new Rectangle(0, 0, width, height));
+	}
+
+	/**
+	 * Finds the best position for a rectangle of this size without placing it,
+	 * or null if it does not fit anywhere.
+	 */
+	public Placement findPosition(int w, int h) {
+		Placement best = null;
+		for (int i = 0, n = freeRects.size(); i < n; i++) {
+			Rectangle free = freeRects.get(i);
+			if (free.width >= w && free.height >= h) {
+				int leftoverX = free.width - w;
+				int leftoverY = free.height - h;
+				int shortSide = Math.min(leftoverX, leftoverY);
+				int longSide = Math.max(leftoverX, leftoverY);
+				if (best == null || shortSide < best.shortSide
+						|| (shortSide == best.shortSide && longSide < best.longSide)) {
+					best = new Placement(new Rectangle(free.x, free.y, w, h), shortSide, longSide);
+				}
+			}
+		}
+		return best;
+	}
+
+	public long getUsedArea() {
+		return usedArea;
+	}
+
+	public long getTotalArea() {
+		return (long) width * height;
+	}
+
+	/**
+	 * Convenience for {@link #findPosition(int, int)} followed by
+	 * {@link #place(Rectangle)}.
+	 */
+	public Rectangle insert(int w, int h) {
+		Placement placement = findPosition(w, h);
+		if (placement == null) {
+			return null;
+		}
+		place(placement.rect);
+		return placement.rect;
+	}
+
+	public void place(Rectangle used) {
+		List<Rectangle> created = new ArrayList<>();
+		for (int i = freeRects.size() - 1; i >= 0; i--) {
+			Rectangle free = freeRects.get(i);
+			if (splitFreeRect(free, used, created)) {
+				int last = freeRects.size() - 1;
+				freeRects.set(i, freeRects.get(last));
+				freeRects.remove(last);
+			}
+		}
+		pruneFreeRects(created);
+		usedArea += (long) used.width * used.height;
+	}
+
+	private static boolean splitFreeRect(Rectangle free, Rectangle used, List<Rectangle> created) {
+		if (used.x >= free.x + free.width || used.x + used.width <= free.x || used.y >= free.y + free.height
+				|| used.y + used.height <= free.y) {
+			return false;
+		}
+
+		if (used.x < free.x + free.width && used.x + used.width > free.x) {
+			// Above
+			if (used.y > free.y && used.y < free.y + free.height) {
+				created.add(new Rectangle(free.x, free.y, free.width, used.y - free.y));
+			}
+			// Below
+			if (used.y + used.height < free.y + free.height) {
+				created.add(new Rectangle(free.x, used.y + used.height, free.width,
+						free.y + free.height - (used.y + used.height)));
+			}
+		}
+
+		if (used.y < free.y + free.height && used.y + used.height > free.y) {
+			// Left
+			if (used.x > free.x && used.x < free.x + free.width) {
+				created.add(new Rectangle(free.x, free.y, used.x - free.x, free.height));
+			}
+			// Right
+			if (used.x + used.width < free.x + free.width) {
+				created.add(new Rectangle(used.x + used.width, free.y, free.x + free.width - (used.x + used.width),
+						free.height));
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * The untouched free rectangles were already maximal, so only the newly split
+	 * ones need checking, against each other and against the rest.
+	 */
+	private void pruneFreeRects(List<Rectangle> created) {
+		for (int i = 0; i < created.size(); i++) {
+			Rectangle a = created.get(i);
+			boolean redundant = false;
+			for (int j = 0; j < created.size(); j++) {
+				if (i != j) {
+					Rectangle b = created.get(j);
+					// Break ties between equal rects by index, so one of them survives
+					if (b.contains(a) && (!a.equals(b) || j < i)) {
+						redundant = true;
+						break;
+					}
+				}
+			}
+			if (!redundant) {
+				for (Rectangle b : freeRects) {
+					if (b.contains(a)) {
+						redundant = true;
+						break;
+					}
+				}
+			}
+			if (redundant) {
+				created.remove(i--);
+			}
+		}
+
+		freeRects.addAll(created);
+	}
+}
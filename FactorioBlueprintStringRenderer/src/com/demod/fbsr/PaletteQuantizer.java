@@ -0,0 +1,314 @@
+package com.demod.fbsr;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Reduces an image to an adaptive palette of up to 256 colors, for palette PNG
+ * output through {@link PngEncoder}.
+ *
+ * Pixels are counted in a 5-5-5 bit RGB, 4 bit alpha histogram, which is split
+ * by median cut into the palette. Every pixel is then mapped to its nearest
+ * palette color through a lookup table on the same bins, optionally with a 4x4
+ * ordered dither, and each palette color is moved to the mean of the pixels
+ * mapped to it. Histogram and mapping run in parallel row strips; ordered
+ * dithering needs no error carried between rows, so strips stay independent.
+ */
+public final class PaletteQuantizer {
+	private static final int BIN_COUNT = 1 << 19;
+	private static final int MAX_COLORS = 256;
+	private static final int[] BAYER_4X4 = { //
+			0, 8, 2, 10, //
+			12, 4, 14, 6, //
+			3, 11, 1, 9, //
+			15, 7, 13, 5, //
+	};
+	// Peak to peak dither offset per color channel, in 8-bit levels
+	private static final int DITHER_AMPLITUDE = 16;
+
+	private static class Box {
+		final int[] bins;
+		final int from;
+		final int to;
+		final long count;
+		final int channel;
+		final int range;
+
+		Box(int[] bins, int from, int to, int[] histogram) {
+			this.bins = bins;
+			this.from = from;
+			this.to = to;
+			long count = 0;
+			int[] min = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE };
+			int[] max = { Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+			for (int i = from; i < to; i++) {
+				int bin = bins[i];
+				count += histogram[bin];
+				for (int c = 0; c < 4; c++) {
+					int v = channel(bin, c);
+					min[c] = Math.min(min[c], v);
+					max[c] = Math.max(max[c], v);
+				}
+			}
+			this.count = count;
+			int channel = 0;
+			int range = -1;
+			for (int c = 0; c < 4; c++) {
+				if (max[c] - min[c] > range) {
+					range = max[c] - min[c];
+					channel = c;
+				}
+			}
+			this.channel = channel;
+			this.range = range;
+		}
+
+		double priority() {
+			return (double) count * range;
+		}
+	}
+
+	private static int binOf(int argb) {
+		return ((argb >>> 28) << 15) | (((argb >> 19) & 0x1F) << 10) | (((argb >> 11) & 0x1F) << 5)
+				| ((argb >> 3) & 0x1F);
+	}
+
+	/**
+	 * Center of a bin as ARGB.
+	 */
+	private static int binColor(int bin) {
+		int a = ((bin >> 15) << 4) | 0x8;
+		int r = (((bin >> 10) & 0x1F) << 3) | 0x4;
+		int g = (((bin >> 5) & 0x1F) << 3) | 0x4;
+		int b = ((bin & 0x1F) << 3) | 0x4;
+		if ((bin >> 15) == 0) {
+			a = 0;
+		} else if ((bin >> 15) == 0xF) {
+			a = 0xFF;
+		}
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * Channel of a bin on a common 0-31 scale, alpha doubled from its 4 bits.
+	 */
+	private static int channel(int bin, int c) {
+		switch (c) {
+		case 0:
+			return (bin >> 10) & 0x1F;
+		case 1:
+			return (bin >> 5) & 0x1F;
+		case 2:
+			return bin & 0x1F;
+		default:
+			return (bin >> 15) << 1;
+		}
+	}
+
+	private static int[] histogram(BufferedImage image, int strips) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		return IntStream.range(0, strips).parallel().mapToObj(strip -> {
+			int[] histogram = new int[BIN_COUNT];
+			int[] pixels = new int[width];
+			for (int y = strip * height / strips; y < (strip + 1) * height / strips; y++) {
+				readRow(image, y, pixels);
+				for (int x = 0; x < width; x++) {
+					histogram[binOf(pixels[x])]++;
+				}
+			}
+			return histogram;
+		}).reduce((h1, h2) -> {
+			for (int i = 0; i < BIN_COUNT; i++) {
+				h1[i] += h2[i];
+			}
+			return h1;
+		}).get();
+	}
+
+	private static List<Box> medianCut(int[] histogram) {
+		int[] bins = IntStream.range(0, BIN_COUNT).filter(i -> histogram[i] > 0).toArray();
+		List<Box> done = new ArrayList<>();
+		PriorityQueue<Box> queue = new PriorityQueue<>(Comparator.comparingDouble(Box::priority).reversed());
+		queue.add(new Box(bins, 0, bins.length, histogram));
+		while (!queue.isEmpty() && queue.size() + done.size() < MAX_COLORS) {
+			Box box = queue.poll();
+			if (box.range <= 0) {
+				done.add(box);
+				continue;
+			}
+
+			// Sort the bins along the widest channel, packed as channel then bin
+			long[] sorted = new long[box.to - box.from];
+			for (int i = 0; i < sorted.length; i++) {
+				int bin = box.bins[box.from + i];
+				sorted[i] = ((long) channel(bin, box.channel) << 20) | bin;
+			}
+			Arrays.sort(sorted);
+			for (int i = 0; i < sorted.length; i++) {
+				box.bins[box.from + i] = (int) (sorted[i] & (BIN_COUNT - 1));
+			}
+
+			// Split at the median pixel, keeping a bin on each side
+			long half = box.count / 2;
+			long running = 0;
+			int split = box.from + 1;
+			for (int i = box.from; i < box.to - 1; i++) {
+				running += histogram[box.bins[i]];
+				split = i + 1;
+				if (running >= half) {
+					break;
+				}
+			}
+			queue.add(new Box(box.bins, box.from, split, histogram));
+			queue.add(new Box(box.bins, split, box.to, histogram));
+		}
+		done.addAll(queue);
+		return done;
+	}
+
+	private static int nearest(int[] palette, int argb) {
+		int a = argb >>> 24;
+		int r = (argb >> 16) & 0xFF;
+		int g = (argb >> 8) & 0xFF;
+		int b = argb & 0xFF;
+		int best = 0;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < palette.length; i++) {
+			int p = palette[i];
+			int da = (p >>> 24) - a;
+			int dr = ((p >> 16) & 0xFF) - r;
+			int dg = ((p >> 8) & 0xFF) - g;
+			int db = (p & 0xFF) - b;
+			int distance = da * da + dr * dr + dg * dg + db * db;
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns a {@link BufferedImage#TYPE_BYTE_INDEXED} copy of the image.
+	 */
+	public static BufferedImage quantize(BufferedImage image, boolean dither) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int processors = Runtime.getRuntime().availableProcessors();
+		int strips = Math.max(1, Math.min(height, processors * 4));
+
+		// A histogram per strip is 2MB, so those strips follow the core count
+		int[] histogram = histogram(image, Math.max(1, Math.min(height, processors)));
+		List<Box> boxes = medianCut(histogram);
+		int[] palette = new int[boxes.size()];
+		for (int i = 0; i < palette.length; i++) {
+			Box box = boxes.get(i);
+			long[] sums = new long[4];
+			for (int j = box.from; j < box.to; j++) {
+				int color = binColor(box.bins[j]);
+				long count = histogram[box.bins[j]];
+				sums[0] += (color >>> 24) * count;
+				sums[1] += ((color >> 16) & 0xFF) * count;
+				sums[2] += ((color >> 8) & 0xFF) * count;
+				sums[3] += (color & 0xFF) * count;
+			}
+			palette[i] = toArgb(sums, box.count);
+		}
+
+		// Nearest palette entry per bin, filled in on first use. Racing threads
+		// compute the same value, so no locking is needed.
+		int[] lookup = new int[BIN_COUNT];
+		Arrays.fill(lookup, -1);
+
+		BufferedImage ret = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED,
+				new IndexColorModel(8, palette.length, new byte[palette.length], new byte[palette.length],
+						new byte[palette.length]));
+		byte[] indices = ((DataBufferByte) ret.getRaster().getDataBuffer()).getData();
+		long[] sums = IntStream.range(0, strips).parallel().mapToObj(strip -> {
+			long[] stripSums = new long[palette.length * 5];
+			int[] pixels = new int[width];
+			for (int y = strip * height / strips; y < (strip + 1) * height / strips; y++) {
+				readRow(image, y, pixels);
+				for (int x = 0; x < width; x++) {
+					int argb = pixels[x];
+					int lookupArgb = dither ? dither(argb, x, y) : argb;
+					int bin = binOf(lookupArgb);
+					int index = lookup[bin];
+					if (index == -1) {
+						index = nearest(palette, binColor(bin));
+						lookup[bin] = index;
+					}
+					indices[y * width + x] = (byte) index;
+					int s = index * 5;
+					stripSums[s] += argb >>> 24;
+					stripSums[s + 1] += (argb >> 16) & 0xFF;
+					stripSums[s + 2] += (argb >> 8) & 0xFF;
+					stripSums[s + 3] += argb & 0xFF;
+					stripSums[s + 4]++;
+				}
+			}
+			return stripSums;
+		}).reduce((s1, s2) -> {
+			for (int i = 0; i < s1.length; i++) {
+				s1[i] += s2[i];
+			}
+			return s1;
+		}).get();
+
+		byte[] a = new byte[palette.length];
+		byte[] r = new byte[palette.length];
+		byte[] g = new byte[palette.length];
+		byte[] b = new byte[palette.length];
+		for (int i = 0; i < palette.length; i++) {
+			long count = sums[i * 5 + 4];
+			int argb = count == 0 ? palette[i] : toArgb(Arrays.copyOfRange(sums, i * 5, i * 5 + 4), count);
+			a[i] = (byte) (argb >>> 24);
+			r[i] = (byte) (argb >> 16);
+			g[i] = (byte) (argb >> 8);
+			b[i] = (byte) argb;
+		}
+
+		// Same raster, with the refined palette
+		IndexColorModel icm = new IndexColorModel(8, palette.length, r, g, b, a);
+		return new BufferedImage(icm, ret.getRaster(), false, null);
+	}
+
+	private static int dither(int argb, int x, int y) {
+		int offset = (BAYER_4X4[((y & 3) << 2) | (x & 3)] * DITHER_AMPLITUDE) / 16 - DITHER_AMPLITUDE / 2;
+		int r = Math.max(0, Math.min(255, ((argb >> 16) & 0xFF) + offset));
+		int g = Math.max(0, Math.min(255, ((argb >> 8) & 0xFF) + offset));
+		int b = Math.max(0, Math.min(255, (argb & 0xFF) + offset));
+		return (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+	}
+
+	private static void readRow(BufferedImage image, int y, int[] pixels) {
+		int width = image.getWidth();
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			image.getRaster().getDataElements(0, y, width, 1, pixels);
+		} else {
+			image.getRGB(0, y, width, 1, pixels, 0, width);
+		}
+	}
+
+	private static int toArgb(long[] sums, long count) {
+		if (count == 0) {
+			return 0;
+		}
+		int a = (int) ((sums[0] + count / 2) / count);
+		int r = (int) ((sums[1] + count / 2) / count);
+		int g = (int) ((sums[2] + count / 2) / count);
+		int b = (int) ((sums[3] + count / 2) / count);
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	private PaletteQuantizer() {
+	}
+}
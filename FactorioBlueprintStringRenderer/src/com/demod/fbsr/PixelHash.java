@@ -0,0 +1,127 @@
+package com.demod.fbsr;
+
+/**
+ * 128-bit content hash of an ARGB pixel block, used to find identical sprites
+ * while building atlases. This is MurmurHash3 (x64, 128-bit) run directly over
+ * the int pixels, four pixels per round, so nothing is copied or boxed.
+ */
+final class PixelHash {
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	@SuppressWarnings("fallthrough")
+	public static PixelHash of(int[] pixels, int width, int height) {
+		long h1 = width;
+		long h2 = height;
+
+		int count = width * height;
+		int blocks = count >>> 2;
+		for (int b = 0, i = 0; b < blocks; b++, i += 4) {
+			long k1 = (pixels[i] & 0xFFFFFFFFL) | ((long) pixels[i + 1] << 32);
+			long k2 = (pixels[i + 2] & 0xFFFFFFFFL) | ((long) pixels[i + 3] << 32);
+
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		int tail = blocks << 2;
+		long k1 = 0;
+		long k2 = 0;
+		switch (count - tail) {
+		case 3:
+			k2 = pixels[tail + 2] & 0xFFFFFFFFL;
+			h2 ^= mixK2(k2);
+			// fall through
+		case 2:
+			k1 = ((long) pixels[tail + 1] << 32);
+			// fall through
+		case 1:
+			k1 |= pixels[tail] & 0xFFFFFFFFL;
+			h1 ^= mixK1(k1);
+		}
+
+		long length = (long) count * 4;
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		return new PixelHash(h1, h2);
+	}
+
+	public static PixelHash parse(String hex) {
+		return new PixelHash(Long.parseUnsignedLong(hex.substring(0, 16), 16),
+				Long.parseUnsignedLong(hex.substring(16), 16));
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static long mixK1(long k1) {
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		k1 *= C2;
+		return k1;
+	}
+
+	private static long mixK2(long k2) {
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		k2 *= C1;
+		return k2;
+	}
+
+	private final long h1;
+	private final long h2;
+
+	public PixelHash(long h1, long h2) {
+		this.h1 = h1;
+		this.h2 = h2;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PixelHash)) {
+			return false;
+		}
+		PixelHash other = (PixelHash) obj;
+		return h1 == other.h1 && h2 == other.h2;
+	}
+
+	public long getH1() {
+		return h1;
+	}
+
+	public long getH2() {
+		return h2;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) h1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", h1, h2);
+	}
+}
@@ -0,0 +1,405 @@
+package com.demod.fbsr;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder that filters and deflates the image in row strips in parallel.
+ *
+ * Every strip is compressed as its own run of raw deflate blocks, primed with
+ * the last 32K of filtered data before it, and ends on a sync flush so the
+ * strips concatenate into one valid zlib stream. The Adler-32 of each strip is
+ * combined into the stream checksum. Strips are written as IDAT chunks in order,
+ * as soon as each one is done.
+ *
+ * 8-bit {@link IndexColorModel} images, such as the output of
+ * {@link PaletteQuantizer}, are written as palette PNGs, unfiltered as the PNG
+ * spec recommends for them.
+ */
+public final class PngEncoder {
+
+	public enum Preset {
+		/** Fastest deflate and the Sub filter on every row. */
+		FAST(Deflater.BEST_SPEED, false),
+		/** The deflate level of the JDK writer, adaptive filter per row. */
+		DEFAULT(4, true),
+		/** Best deflate, adaptive filter per row. */
+		SMALL(Deflater.BEST_COMPRESSION, true),
+		;
+
+		private final int level;
+		private final boolean adaptive;
+
+		private Preset(int level, boolean adaptive) {
+			this.level = level;
+			this.adaptive = adaptive;
+		}
+	}
+
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int WINDOW_SIZE = 32768;
+	// Raw bytes per strip, large enough that the restarted window costs little
+	private static final int STRIP_BYTES = 1 << 19;
+
+	private static final int FILTER_NONE = 0;
+	private static final int FILTER_SUB = 1;
+	private static final int FILTER_UP = 2;
+	private static final int FILTER_AVERAGE = 3;
+	private static final int FILTER_PAETH = 4;
+
+	private static class Strip {
+		byte[] data;
+		int length;
+		long adler;
+		int rawLength;
+	}
+
+	private static long adler32Combine(long adler1, long adler2, long length2) {
+		final long base = 65521;
+		long rem = length2 % base;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = (rem * sum1) % base;
+		sum1 += (adler2 & 0xFFFF) + base - 1;
+		sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - rem;
+		if (sum1 >= base) {
+			sum1 -= base;
+		}
+		if (sum1 >= base) {
+			sum1 -= base;
+		}
+		if (sum2 >= (base << 1)) {
+			sum2 -= (base << 1);
+		}
+		if (sum2 >= base) {
+			sum2 -= base;
+		}
+		return sum1 | (sum2 << 16);
+	}
+
+	private static Strip compressStrip(BufferedImage image, int bpp, Preset preset, int startRow, int endRow,
+			boolean last) {
+		int rowBytes = image.getWidth() * bpp;
+		int filteredRowBytes = rowBytes + 1;
+
+		// The rows before the strip are filtered again to prime the window
+		int dictRows = startRow == 0 ? 0 : Math.min(startRow, (WINDOW_SIZE + filteredRowBytes - 1) / filteredRowBytes);
+		int firstRow = startRow - dictRows;
+		byte[] filtered = filterRows(image, bpp, preset, firstRow, endRow);
+		int dictLength = Math.min(WINDOW_SIZE, dictRows * filteredRowBytes);
+		int dataOffset = dictRows * filteredRowBytes;
+		int dataLength = filtered.length - dataOffset;
+
+		Deflater deflater = new Deflater(preset.level, true);
+		try {
+			if (dictLength > 0) {
+				deflater.setDictionary(filtered, dataOffset - dictLength, dictLength);
+			}
+			deflater.setInput(filtered, dataOffset, dataLength);
+			if (last) {
+				deflater.finish();
+			}
+
+			Strip strip = new Strip();
+			strip.data = new byte[dataLength / 4 + 64];
+			while (true) {
+				int space = strip.data.length - strip.length;
+				int n = deflater.deflate(strip.data, strip.length, space,
+						last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				strip.length += n;
+				// A sync flush is complete once it leaves room in the buffer
+				if (last ? deflater.finished() : (n < space && deflater.needsInput())) {
+					break;
+				}
+				if (strip.length == strip.data.length) {
+					strip.data = Arrays.copyOf(strip.data, strip.data.length * 2);
+				}
+			}
+
+			Adler32 adler = new Adler32();
+			adler.update(filtered, dataOffset, dataLength);
+			strip.adler = adler.getValue();
+			strip.rawLength = dataLength;
+			return strip;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	public static byte[] encode(BufferedImage image) {
+		return encode(image, Preset.DEFAULT);
+	}
+
+	public static byte[] encode(BufferedImage image, Preset preset) {
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			write(image, preset, baos);
+			return baos.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the filtered row to out at outOff, after the filter type byte, and
+	 * returns the sum of absolute differences the adaptive choice goes by.
+	 */
+	private static int filterRow(int filter, byte[] row, byte[] prior, int bpp, byte[] out, int outOff) {
+		out[outOff++] = (byte) filter;
+		int length = row.length;
+		int sum = 0;
+		switch (filter) {
+		case FILTER_NONE:
+			for (int i = 0; i < length; i++) {
+				byte value = row[i];
+				out[outOff + i] = value;
+				sum += Math.abs(value);
+			}
+			break;
+		case FILTER_SUB:
+			for (int i = 0; i < bpp; i++) {
+				byte value = row[i];
+				out[outOff + i] = value;
+				sum += Math.abs(value);
+			}
+			for (int i = bpp; i < length; i++) {
+				byte value = (byte) (row[i] - row[i - bpp]);
+				out[outOff + i] = value;
+				sum += Math.abs(value);
+			}
+			break;
+		case FILTER_UP:
+			for (int i = 0; i < length; i++) {
+				byte value = (byte) (row[i] - prior[i]);
+				out[outOff + i] = value;
+				sum += Math.abs(value);
+			}
+			break;
+		case FILTER_AVERAGE:
+			for (int i = 0; i < bpp; i++) {
+				byte value = (byte) (row[i] - ((prior[i] & 0xFF) >>> 1));
+				out[outOff + i] = value;
+				sum += Math.abs(value);
+			}
+			for (int i = bpp; i < length; i++) {
+				byte value = (byte) (row[i] - (((row[i - bpp] & 0xFF) + (prior[i] & 0xFF)) >>> 1));
+				out[outOff + i] = value;
+				sum += Math.abs(value);
+			}
+			break;
+		case FILTER_PAETH:
+			for (int i = 0; i < bpp; i++) {
+				byte value = (byte) (row[i] - prior[i]);
+				out[outOff + i] = value;
+				sum += Math.abs(value);
+			}
+			for (int i = bpp; i < length; i++) {
+				int a = row[i - bpp] & 0xFF;
+				int b = prior[i] & 0xFF;
+				int c = prior[i - bpp] & 0xFF;
+				byte value = (byte) (row[i] - paeth(a, b, c));
+				out[outOff + i] = value;
+				sum += Math.abs(value);
+			}
+			break;
+		}
+		return sum;
+	}
+
+	/**
+	 * Filters rows [startRow, endRow), each prefixed by its filter type. Adaptive
+	 * presets pick the filter with the smallest sum of absolute differences.
+	 */
+	private static byte[] filterRows(BufferedImage image, int bpp, Preset preset, int startRow, int endRow) {
+		int width = image.getWidth();
+		int rowBytes = width * bpp;
+		byte[] out = new byte[(endRow - startRow) * (rowBytes + 1)];
+		int[] pixels = new int[width];
+		byte[] row = new byte[rowBytes];
+		byte[] prior = new byte[rowBytes];
+		byte[] trial = new byte[rowBytes + 1];
+		if (startRow > 0) {
+			readRow(image, startRow - 1, bpp, pixels, prior);
+		}
+
+		for (int y = startRow; y < endRow; y++) {
+			readRow(image, y, bpp, pixels, row);
+			int outOff = (y - startRow) * (rowBytes + 1);
+			if (bpp == 1) {
+				filterRow(FILTER_NONE, row, prior, bpp, out, outOff);
+			} else if (!preset.adaptive) {
+				filterRow(FILTER_SUB, row, prior, bpp, out, outOff);
+			} else {
+				int best = filterRow(FILTER_NONE, row, prior, bpp, out, outOff);
+				for (int filter = FILTER_SUB; filter <= FILTER_PAETH; filter++) {
+					int sum = filterRow(filter, row, prior, bpp, trial, 0);
+					if (sum < best) {
+						best = sum;
+						System.arraycopy(trial, 0, out, outOff, trial.length);
+					}
+				}
+			}
+			byte[] swap = prior;
+			prior = row;
+			row = swap;
+		}
+		return out;
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc) {
+			return a;
+		} else if (pb <= pc) {
+			return b;
+		}
+		return c;
+	}
+
+	private static boolean isIndexed(BufferedImage image) {
+		return image.getType() == BufferedImage.TYPE_BYTE_INDEXED
+				&& ((IndexColorModel) image.getColorModel()).getPixelSize() == 8;
+	}
+
+	private static void readRow(BufferedImage image, int y, int bpp, int[] pixels, byte[] row) {
+		int width = image.getWidth();
+		int type = image.getType();
+		if (bpp == 1) {
+			image.getRaster().getDataElements(0, y, width, 1, row);
+			return;
+		} else if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB) {
+			// Packed the same as getRGB, without the color model per pixel
+			image.getRaster().getDataElements(0, y, width, 1, pixels);
+		} else {
+			image.getRGB(0, y, width, 1, pixels, 0, width);
+		}
+		for (int x = 0, i = 0; x < width; x++) {
+			int argb = pixels[x];
+			row[i++] = (byte) (argb >> 16);
+			row[i++] = (byte) (argb >> 8);
+			row[i++] = (byte) argb;
+			if (bpp == 4) {
+				row[i++] = (byte) (argb >>> 24);
+			}
+		}
+	}
+
+	public static void write(BufferedImage image, OutputStream out) throws IOException {
+		write(image, Preset.DEFAULT, out);
+	}
+
+	public static void write(BufferedImage image, Preset preset, OutputStream out) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		boolean indexed = isIndexed(image);
+		boolean alpha = image.getColorModel().hasAlpha();
+		int bpp = indexed ? 1 : alpha ? 4 : 3;
+
+		DataOutputStream dos = new DataOutputStream(out);
+		dos.write(SIGNATURE);
+
+		ByteArrayOutputStream ihdr = new ByteArrayOutputStream(13);
+		DataOutputStream ihdrDos = new DataOutputStream(ihdr);
+		ihdrDos.writeInt(width);
+		ihdrDos.writeInt(height);
+		ihdrDos.writeByte(8);
+		ihdrDos.writeByte(indexed ? 3 : alpha ? 6 : 2);
+		ihdrDos.writeByte(0);
+		ihdrDos.writeByte(0);
+		ihdrDos.writeByte(0);
+		writeChunk(dos, "IHDR", ihdr.toByteArray(), 0, ihdr.size());
+
+		if (indexed) {
+			writePalette(dos, (IndexColorModel) image.getColorModel());
+		}
+
+		int rowsPerStrip = Math.max(1, STRIP_BYTES / (width * bpp + 1));
+		List<CompletableFuture<Strip>> strips = new ArrayList<>();
+		for (int startRow = 0; startRow < height; startRow += rowsPerStrip) {
+			int start = startRow;
+			int end = Math.min(height, startRow + rowsPerStrip);
+			boolean last = end == height;
+			strips.add(CompletableFuture.supplyAsync(() -> compressStrip(image, bpp, preset, start, end, last),
+					ForkJoinPool.commonPool()));
+		}
+
+		// zlib header for a 32K window, level hint to match the preset
+		int flevel = preset.level <= 1 ? 0 : preset.level < 6 ? 1 : preset.level == 6 ? 2 : 3;
+		int cmf = 0x78;
+		int flg = flevel << 6;
+		flg += 31 - ((cmf << 8) + flg) % 31;
+		writeChunk(dos, "IDAT", new byte[] { (byte) cmf, (byte) flg }, 0, 2);
+
+		long adler = 1;
+		try {
+			for (CompletableFuture<Strip> future : strips) {
+				Strip strip = future.join();
+				adler = adler32Combine(adler, strip.adler, strip.rawLength);
+				writeChunk(dos, "IDAT", strip.data, 0, strip.length);
+			}
+		} catch (CompletionException e) {
+			strips.forEach(f -> f.cancel(false));
+			throw new IOException(e.getCause());
+		}
+
+		writeChunk(dos, "IDAT", new byte[] { (byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8),
+				(byte) adler }, 0, 4);
+		writeChunk(dos, "IEND", new byte[0], 0, 0);
+		dos.flush();
+	}
+
+	private static void writeChunk(DataOutputStream dos, String type, byte[] data, int off, int len)
+			throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, off, len);
+		dos.writeInt(len);
+		dos.write(typeBytes);
+		dos.write(data, off, len);
+		dos.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * PLTE, and tRNS with the alphas up to the last entry that is not opaque.
+	 */
+	private static void writePalette(DataOutputStream dos, IndexColorModel icm) throws IOException {
+		int size = icm.getMapSize();
+		byte[] plte = new byte[size * 3];
+		byte[] trns = new byte[size];
+		int trnsLength = 0;
+		for (int i = 0; i < size; i++) {
+			int argb = icm.getRGB(i);
+			plte[i * 3] = (byte) (argb >> 16);
+			plte[i * 3 + 1] = (byte) (argb >> 8);
+			plte[i * 3 + 2] = (byte) argb;
+			trns[i] = (byte) (argb >>> 24);
+			if ((argb >>> 24) != 0xFF) {
+				trnsLength = i + 1;
+			}
+		}
+		writeChunk(dos, "PLTE", plte, 0, plte.length);
+		if (trnsLength > 0) {
+			writeChunk(dos, "tRNS", trns, 0, trnsLength);
+		}
+	}
+
+	private PngEncoder() {
+	}
+}
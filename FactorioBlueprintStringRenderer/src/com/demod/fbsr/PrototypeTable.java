@@ -0,0 +1,237 @@
+package com.demod.fbsr;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import com.demod.factorio.ItemToPlace;
+import com.demod.factorio.prototype.EntityPrototype;
+import com.demod.factorio.prototype.ItemPrototype;
+import com.demod.factorio.prototype.TilePrototype;
+import com.demod.fbsr.def.IconDef;
+
+/**
+ * Interned name table, rebuilt whenever factories are added. Every known
+ * entity, tile, item and quality name is assigned a dense int id, and the
+ * factories, prototypes, primary items and icons for those names are held in
+ * parallel arrays indexed by that id.
+ *
+ * Blueprint entities, tiles and items resolve their names to ids once (see
+ * {@link FactorioManager#resolveEntityId} and friends), after which every
+ * further lookup is plain array indexing.
+ */
+public class PrototypeTable {
+
+	public static final int UNKNOWN = -1;
+	public static final int UNRESOLVED = -2;
+
+	private final Map<String, Integer> entityIds = new HashMap<>();
+	private final String[] entityNames;
+	private final EntityRendererFactory[] entityFactories;
+	private final EntityPrototype[] entityPrototypes;
+	private final ItemToPlace[] entityItems;
+	private final int[] entityItemIds;
+	private final IconDef[] entityIcons;
+
+	private final Map<String, Integer> tileIds = new HashMap<>();
+	private final String[] tileNames;
+	private final TileRendererFactory[] tileFactories;
+	private final TilePrototype[] tilePrototypes;
+	private final ItemToPlace[] tileItems;
+	private final int[] tileItemIds;
+	private final IconDef[] tileIcons;
+
+	private final Map<String, Integer> itemIds = new HashMap<>();
+	private final String[] itemNames;
+	private final ItemPrototype[] itemPrototypes;
+	private final IconDef[] itemIcons;
+
+	private final Map<String, Integer> qualityIds = new HashMap<>();
+	private final String[] qualityNames;
+	private final IconDef[] qualityIcons;
+
+	public PrototypeTable(List<EntityRendererFactory> entityFactories, List<TileRendererFactory> tileFactories,
+			List<ItemPrototype> items, Collection<String> qualities) {
+
+		int itemCount = items.size();
+		itemNames = new String[itemCount];
+		itemPrototypes = new ItemPrototype[itemCount];
+		itemIcons = new IconDef[itemCount];
+		for (int id = 0; id < itemCount; id++) {
+			ItemPrototype item = items.get(id);
+			itemNames[id] = item.getName();
+			itemPrototypes[id] = item;
+			itemIds.put(item.getName(), id);
+		}
+
+		int entityCount = entityFactories.size();
+		entityNames = new String[entityCount];
+		this.entityFactories = new EntityRendererFactory[entityCount];
+		entityPrototypes = new EntityPrototype[entityCount];
+		entityItems = new ItemToPlace[entityCount];
+		entityItemIds = new int[entityCount];
+		entityIcons = new IconDef[entityCount];
+		for (int id = 0; id < entityCount; id++) {
+			EntityRendererFactory factory = entityFactories.get(id);
+			entityNames[id] = factory.getName();
+			this.entityFactories[id] = factory;
+			entityPrototypes[id] = factory.getPrototype();
+			entityItems[id] = factory.getPrototype().getPrimaryItem().orElse(null);
+			entityItemIds[id] = (entityItems[id] != null) ? lookupItemId(entityItems[id].getItem()) : UNKNOWN;
+			entityIds.put(factory.getName(), id);
+		}
+
+		int tileCount = tileFactories.size();
+		tileNames = new String[tileCount];
+		this.tileFactories = new TileRendererFactory[tileCount];
+		tilePrototypes = new TilePrototype[tileCount];
+		tileItems = new ItemToPlace[tileCount];
+		tileItemIds = new int[tileCount];
+		tileIcons = new IconDef[tileCount];
+		for (int id = 0; id < tileCount; id++) {
+			TileRendererFactory factory = tileFactories.get(id);
+			tileNames[id] = factory.getName();
+			this.tileFactories[id] = factory;
+			tilePrototypes[id] = factory.getPrototype();
+			tileItems[id] = factory.getPrototype().getPrimaryItem().orElse(null);
+			tileItemIds[id] = (tileItems[id] != null) ? lookupItemId(tileItems[id].getItem()) : UNKNOWN;
+			tileIds.put(factory.getName(), id);
+		}
+
+		qualityNames = qualities.stream().distinct().toArray(String[]::new);
+		qualityIcons = new IconDef[qualityNames.length];
+		for (int id = 0; id < qualityNames.length; id++) {
+			qualityIds.put(qualityNames[id], id);
+		}
+	}
+
+	/**
+	 * Fills the icon columns once {@link IconManager} has resolved its icon defs.
+	 */
+	public void bindIcons(Function<String, Optional<IconDef>> entityLookup,
+			Function<String, Optional<IconDef>> tileLookup, Function<String, Optional<IconDef>> itemLookup,
+			Function<String, Optional<IconDef>> qualityLookup) {
+		bindIcons(entityNames, entityIcons, entityLookup);
+		bindIcons(tileNames, tileIcons, tileLookup);
+		bindIcons(itemNames, itemIcons, itemLookup);
+		bindIcons(qualityNames, qualityIcons, qualityLookup);
+	}
+
+	private static void bindIcons(String[] names, IconDef[] icons, Function<String, Optional<IconDef>> lookup) {
+		Arrays.fill(icons, null);
+		for (int id = 0; id < names.length; id++) {
+			icons[id] = lookup.apply(names[id]).orElse(null);
+		}
+	}
+
+	private static int lookupId(Map<String, Integer> ids, String name) {
+		Integer id = ids.get(name);
+		return (id != null) ? id : UNKNOWN;
+	}
+
+	public int getEntityCount() {
+		return entityNames.length;
+	}
+
+	public EntityRendererFactory getEntityFactory(int id) {
+		return entityFactories[id];
+	}
+
+	public Optional<IconDef> getEntityIcon(int id) {
+		return Optional.ofNullable(entityIcons[id]);
+	}
+
+	public Optional<ItemToPlace> getEntityItem(int id) {
+		return Optional.ofNullable(entityItems[id]);
+	}
+
+	// UNKNOWN if the entity has no primary item, or it is not in the table
+	public int getEntityItemId(int id) {
+		return entityItemIds[id];
+	}
+
+	public String getEntityName(int id) {
+		return entityNames[id];
+	}
+
+	public EntityPrototype getEntityPrototype(int id) {
+		return entityPrototypes[id];
+	}
+
+	public int getItemCount() {
+		return itemNames.length;
+	}
+
+	public Optional<IconDef> getItemIcon(int id) {
+		return Optional.ofNullable(itemIcons[id]);
+	}
+
+	public String getItemName(int id) {
+		return itemNames[id];
+	}
+
+	public ItemPrototype getItemPrototype(int id) {
+		return itemPrototypes[id];
+	}
+
+	public int getQualityCount() {
+		return qualityNames.length;
+	}
+
+	public Optional<IconDef> getQualityIcon(int id) {
+		return Optional.ofNullable(qualityIcons[id]);
+	}
+
+	public String getQualityName(int id) {
+		return qualityNames[id];
+	}
+
+	public int getTileCount() {
+		return tileNames.length;
+	}
+
+	public TileRendererFactory getTileFactory(int id) {
+		return tileFactories[id];
+	}
+
+	public Optional<IconDef> getTileIcon(int id) {
+		return Optional.ofNullable(tileIcons[id]);
+	}
+
+	public Optional<ItemToPlace> getTileItem(int id) {
+		return Optional.ofNullable(tileItems[id]);
+	}
+
+	// UNKNOWN if the tile has no primary item, or it is not in the table
+	public int getTileItemId(int id) {
+		return tileItemIds[id];
+	}
+
+	public String getTileName(int id) {
+		return tileNames[id];
+	}
+
+	public TilePrototype getTilePrototype(int id) {
+		return tilePrototypes[id];
+	}
+
+	public int lookupEntityId(String name) {
+		return lookupId(entityIds, name);
+	}
+
+	public int lookupItemId(String name) {
+		return lookupId(itemIds, name);
+	}
+
+	public int lookupQualityId(String name) {
+		return lookupId(qualityIds, name);
+	}
+
+	public int lookupTileId(String name) {
+		return lookupId(tileIds, name);
+	}
+}
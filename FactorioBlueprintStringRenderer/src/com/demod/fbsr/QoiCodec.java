@@ -0,0 +1,232 @@
+package com.demod.fbsr;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * QOI image format (https://qoiformat.org/qoi-specification.pdf), lossless and
+ * a small fraction of the PNG encode time. For internal pipelines such as local
+ * storage, with {@link #convertToPng(File, File)} where a PNG is needed after
+ * all.
+ *
+ * Images with alpha are written with 4 channels, others with 3. Decoding always
+ * gives {@link BufferedImage#TYPE_INT_ARGB}.
+ */
+public final class QoiCodec {
+	private static final int MAGIC = 0x716F6966; // qoif
+	private static final byte[] END_MARKER = { 0, 0, 0, 0, 0, 0, 0, 1 };
+	// Keeps a corrupt header from allocating an absurd image
+	private static final long MAX_PIXELS = 400_000_000L;
+
+	private static final int OP_INDEX = 0x00;
+	private static final int OP_DIFF = 0x40;
+	private static final int OP_LUMA = 0x80;
+	private static final int OP_RUN = 0xC0;
+	private static final int OP_RGB = 0xFE;
+	private static final int OP_RGBA = 0xFF;
+	private static final int MASK_2 = 0xC0;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	public static void convertToPng(File fileQoi, File filePng) throws IOException {
+		BufferedImage image;
+		try (InputStream in = new FileInputStream(fileQoi)) {
+			image = decode(in);
+		}
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filePng))) {
+			PngEncoder.write(image, out);
+		}
+	}
+
+	public static BufferedImage decode(byte[] data) throws IOException {
+		return decode(new ByteArrayInputStream(data));
+	}
+
+	public static BufferedImage decode(InputStream in) throws IOException {
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		if (dis.readInt() != MAGIC) {
+			throw new IOException("Not a QOI image");
+		}
+		long width = dis.readInt() & 0xFFFFFFFFL;
+		long height = dis.readInt() & 0xFFFFFFFFL;
+		int channels = dis.readUnsignedByte();
+		dis.readUnsignedByte(); // colorspace
+		if (width == 0 || height == 0 || width * height > MAX_PIXELS || (channels != 3 && channels != 4)) {
+			throw new IOException("Bad QOI header: " + width + "x" + height + ", " + channels + " channels");
+		}
+
+		BufferedImage image = new BufferedImage((int) width, (int) height, BufferedImage.TYPE_INT_ARGB);
+		int[] row = new int[(int) width];
+		int[] index = new int[64];
+		int px = 0xFF000000;
+		int run = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (run > 0) {
+					run--;
+				} else {
+					int b1 = dis.readUnsignedByte();
+					if (b1 == OP_RGB) {
+						px = (px & 0xFF000000) | (dis.readUnsignedByte() << 16) | (dis.readUnsignedByte() << 8)
+								| dis.readUnsignedByte();
+					} else if (b1 == OP_RGBA) {
+						int r = dis.readUnsignedByte();
+						int g = dis.readUnsignedByte();
+						int b = dis.readUnsignedByte();
+						int a = dis.readUnsignedByte();
+						px = (a << 24) | (r << 16) | (g << 8) | b;
+					} else if ((b1 & MASK_2) == OP_INDEX) {
+						px = index[b1];
+					} else if ((b1 & MASK_2) == OP_DIFF) {
+						int r = ((px >> 16) + ((b1 >> 4) & 0x03) - 2) & 0xFF;
+						int g = ((px >> 8) + ((b1 >> 2) & 0x03) - 2) & 0xFF;
+						int b = (px + (b1 & 0x03) - 2) & 0xFF;
+						px = (px & 0xFF000000) | (r << 16) | (g << 8) | b;
+					} else if ((b1 & MASK_2) == OP_LUMA) {
+						int b2 = dis.readUnsignedByte();
+						int vg = (b1 & 0x3F) - 32;
+						int r = ((px >> 16) + vg - 8 + ((b2 >> 4) & 0x0F)) & 0xFF;
+						int g = ((px >> 8) + vg) & 0xFF;
+						int b = (px + vg - 8 + (b2 & 0x0F)) & 0xFF;
+						px = (px & 0xFF000000) | (r << 16) | (g << 8) | b;
+					} else {
+						run = b1 & 0x3F;
+					}
+					index[hash(px)] = px;
+				}
+				row[x] = px;
+			}
+			image.getRaster().setDataElements(0, y, (int) width, 1, row);
+		}
+		return image;
+	}
+
+	public static byte[] encode(BufferedImage image) {
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			write(image, baos);
+			return baos.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static int hash(int argb) {
+		int a = argb >>> 24;
+		int r = (argb >> 16) & 0xFF;
+		int g = (argb >> 8) & 0xFF;
+		int b = argb & 0xFF;
+		return (r * 3 + g * 5 + b * 7 + a * 11) & 63;
+	}
+
+	public static void write(BufferedImage image, OutputStream out) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		boolean alpha = image.getColorModel().hasAlpha();
+		int type = image.getType();
+		boolean packed = type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB;
+
+		byte[] buf = new byte[BUFFER_SIZE];
+		int pos = 0;
+		buf[pos++] = 'q';
+		buf[pos++] = 'o';
+		buf[pos++] = 'i';
+		buf[pos++] = 'f';
+		pos = writeInt(buf, pos, width);
+		pos = writeInt(buf, pos, height);
+		buf[pos++] = (byte) (alpha ? 4 : 3);
+		buf[pos++] = 0;
+
+		int[] row = new int[width];
+		int[] index = new int[64];
+		int prev = 0xFF000000;
+		int run = 0;
+		for (int y = 0; y < height; y++) {
+			if (packed) {
+				image.getRaster().getDataElements(0, y, width, 1, row);
+			} else {
+				image.getRGB(0, y, width, 1, row, 0, width);
+			}
+			for (int x = 0; x < width; x++) {
+				// At most a run and an RGBA op, 6 bytes, per pixel
+				if (pos > BUFFER_SIZE - 6) {
+					out.write(buf, 0, pos);
+					pos = 0;
+				}
+
+				int px = alpha ? row[x] : (row[x] | 0xFF000000);
+				if (px == prev) {
+					run++;
+					if (run == 62) {
+						buf[pos++] = (byte) (OP_RUN | (run - 1));
+						run = 0;
+					}
+					continue;
+				}
+				if (run > 0) {
+					buf[pos++] = (byte) (OP_RUN | (run - 1));
+					run = 0;
+				}
+
+				int h = hash(px);
+				if (index[h] == px) {
+					buf[pos++] = (byte) (OP_INDEX | h);
+				} else {
+					index[h] = px;
+					if ((px >>> 24) == (prev >>> 24)) {
+						int vr = (byte) ((px >> 16) - (prev >> 16));
+						int vg = (byte) ((px >> 8) - (prev >> 8));
+						int vb = (byte) (px - prev);
+						int vgr = vr - vg;
+						int vgb = vb - vg;
+						if (vr > -3 && vr < 2 && vg > -3 && vg < 2 && vb > -3 && vb < 2) {
+							buf[pos++] = (byte) (OP_DIFF | ((vr + 2) << 4) | ((vg + 2) << 2) | (vb + 2));
+						} else if (vgr > -9 && vgr < 8 && vg > -33 && vg < 32 && vgb > -9 && vgb < 8) {
+							buf[pos++] = (byte) (OP_LUMA | (vg + 32));
+							buf[pos++] = (byte) (((vgr + 8) << 4) | (vgb + 8));
+						} else {
+							buf[pos++] = (byte) OP_RGB;
+							buf[pos++] = (byte) (px >> 16);
+							buf[pos++] = (byte) (px >> 8);
+							buf[pos++] = (byte) px;
+						}
+					} else {
+						buf[pos++] = (byte) OP_RGBA;
+						buf[pos++] = (byte) (px >> 16);
+						buf[pos++] = (byte) (px >> 8);
+						buf[pos++] = (byte) px;
+						buf[pos++] = (byte) (px >>> 24);
+					}
+				}
+				prev = px;
+			}
+		}
+		if (run > 0) {
+			buf[pos++] = (byte) (OP_RUN | (run - 1));
+		}
+		out.write(buf, 0, pos);
+		out.write(END_MARKER);
+		out.flush();
+	}
+
+	private static int writeInt(byte[] buf, int pos, int value) {
+		buf[pos++] = (byte) (value >>> 24);
+		buf[pos++] = (byte) (value >>> 16);
+		buf[pos++] = (byte) (value >>> 8);
+		buf[pos++] = (byte) value;
+		return pos;
+	}
+
+	private QoiCodec() {
+	}
+}
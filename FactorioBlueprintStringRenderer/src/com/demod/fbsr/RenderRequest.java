@@ -1,9 +1,11 @@
 package com.demod.fbsr;
 
 import java.awt.Color;
+import java.awt.image.BufferedImage;
 import java.util.Optional;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
+import java.util.function.Consumer;
 
 import com.demod.dcba.CommandReporting;
 import com.demod.fbsr.bs.BSBlueprint;
@@ -37,6 +39,10 @@ public class RenderRequest {
 	private Optional<Color> background = Optional.of(FBSR.GROUND_COLOR);
 	private Optional<Color> gridLines = Optional.of(FBSR.GRID_COLOR);
 
+	// Given a flat color preview as soon as the blueprint is parsed, on the
+	// render thread, before the full render carries on
+	private Optional<Consumer<BufferedImage>> previewListener = Optional.empty();
+
 	public final Debug debug = new Debug();
 	public final Show show = new Show();
 
@@ -77,6 +83,10 @@ public class RenderRequest {
 		return minWidth;
 	}
 
+	public Optional<Consumer<BufferedImage>> getPreviewListener() {
+		return previewListener;
+	}
+
 	public CommandReporting getReporting() {
 		return reporting;
 	}
@@ -121,6 +131,10 @@ public class RenderRequest {
 		this.minWidth = minWidth;
 	}
 
+	public void setPreviewListener(Optional<Consumer<BufferedImage>> previewListener) {
+		this.previewListener = previewListener;
+	}
+
 	public void setReporting(CommandReporting reporting) {
 		this.reporting = reporting;
 	}
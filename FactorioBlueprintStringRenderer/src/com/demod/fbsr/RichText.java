@@ -4,8 +4,6 @@ import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Font;
 import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.Rectangle;
 import java.awt.font.FontRenderContext;
 import java.awt.font.TextLayout;
 import java.awt.geom.AffineTransform;
@@ -173,14 +171,13 @@ public class RichText {
 						TagWithQuality tag = lookupTag.get();
 						Optional<String> quality = tag.getQuality();
 						AtlasRef ref = tag.getDef().getAtlasRef();
-						Image image = ref.getAtlas().getImage();
-						Rectangle source = ref.getRect();
+						double pixelSize = Math.abs(pat.getScaleX()) * ICON_SIZE * tagSize;
 						
 						double iconY = y - tagSize / 2.0 + (ICON_OFFSET_Y - ICON_SIZE / 2.0) * tagSize;
 						g.translate(x, iconY);
 						g.scale(ICON_SIZE * tagSize, ICON_SIZE * tagSize);
 						
-						g.drawImage(image, 0, 0, 1, 1, source.x, source.y, source.x + source.width, source.y + source.height, null);
+						ref.draw(g, Atlas.selectMipLevel(pixelSize / ref.getRect().width));
 
 						if (quality.isPresent()) {
 							Optional<IconDef> def = IconManager.lookupQuality(quality.get());
@@ -188,10 +185,7 @@ public class RichText {
 							g.translate(0, 1.0 - qSize);
 							g.scale(qSize, qSize);
 							AtlasRef qRef = def.get().getAtlasRef();
-							Image qImage = qRef.getAtlas().getImage();
-							Rectangle qSource = qRef.getRect();
-							g.drawImage(qImage, 0, 0, 1, 1, qSource.x, qSource.y, qSource.x + qSource.width, qSource.y + qSource.height,
-									null);
+							qRef.draw(g, Atlas.selectMipLevel(pixelSize * qSize / qRef.getRect().width));
 						}
 
 						g.setTransform(pat);
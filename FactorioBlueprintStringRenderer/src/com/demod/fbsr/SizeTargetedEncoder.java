@@ -0,0 +1,242 @@
+package com.demod.fbsr;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes an image to fit a size limit, in one full encode whenever it can.
+ *
+ * A few strips spread over the image are stitched together and encoded first,
+ * which predicts the full size of each candidate. The first candidate predicted
+ * to fit is encoded: PNG, then palette PNG, then JPG at high and at normal
+ * quality, then JPG scaled down so its area fits the limit. Only a wrong prediction costs another
+ * pass, at a scale corrected from the actual size.
+ */
+public final class SizeTargetedEncoder {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SizeTargetedEncoder.class);
+
+	public static class Result {
+		public final byte[] data;
+		public final String extension;
+		public final double scale;
+		public final int passes;
+
+		private Result(byte[] data, String extension, double scale, int passes) {
+			this.data = data;
+			this.extension = extension;
+			this.scale = scale;
+			this.passes = passes;
+		}
+	}
+
+	private static final int SAMPLE_STRIPS = 8;
+	private static final int SAMPLE_ROWS = 32;
+	// Aim under the limit, so prediction error rarely costs a second pass
+	private static final double TARGET_FRACTION = 0.85;
+	private static final float QUALITY_HIGH = 0.9f;
+	private static final float QUALITY_NORMAL = 0.75f;
+	private static final int SCALE_REFINE_STEPS = 3;
+
+	private static final LongAdder statEncodes = new LongAdder();
+	private static final LongAdder statPasses = new LongAdder();
+	private static final LongAdder statRetries = new LongAdder();
+	private static final LongAdder statPng = new LongAdder();
+	private static final LongAdder statPalette = new LongAdder();
+	private static final LongAdder statJpg = new LongAdder();
+	private static final LongAdder statScaled = new LongAdder();
+	private static final LongAdder statPredictNanos = new LongAdder();
+	private static final LongAdder statEncodeNanos = new LongAdder();
+
+	public static Result encode(BufferedImage image, int maxBytes) throws IOException {
+		long target = (long) (maxBytes * TARGET_FRACTION);
+		int passes = 0;
+
+		long startNanos = System.nanoTime();
+		BufferedImage sample = sample(image);
+		// A small image is its own sample, and its sample encode is the full one
+		boolean whole = sample == image;
+		double sampleFactor = (double) image.getHeight() / sample.getHeight();
+		byte[] samplePng = encodePng(sample);
+		long predictedPng = (long) (samplePng.length * sampleFactor);
+		statPredictNanos.add(System.nanoTime() - startNanos);
+
+		try {
+			if (predictedPng <= target || (whole && predictedPng <= maxBytes)) {
+				passes++;
+				byte[] data = whole ? samplePng : encodePng(image);
+				if (data.length <= maxBytes) {
+					statPng.increment();
+					return new Result(data, "png", 1.0, passes);
+				}
+			}
+
+			// Lossless within 256 colors, and no JPG artifacts on sprites and grid lines
+			startNanos = System.nanoTime();
+			byte[] samplePalette = encodePng(PaletteQuantizer.quantize(sample, false));
+			long predictedPalette = (long) (samplePalette.length * sampleFactor);
+			statPredictNanos.add(System.nanoTime() - startNanos);
+			if (predictedPalette <= target || (whole && predictedPalette <= maxBytes)) {
+				passes++;
+				byte[] data = whole ? samplePalette : encodePng(PaletteQuantizer.quantize(image, false));
+				if (data.length <= maxBytes) {
+					statPalette.increment();
+					return new Result(data, "png", 1.0, passes);
+				}
+			}
+
+			startNanos = System.nanoTime();
+			BufferedImage opaqueSample = toOpaque(sample, 1.0);
+			long predictedHigh = (long) (encodeJpg(opaqueSample, QUALITY_HIGH).length * sampleFactor);
+			long predictedNormal = (long) (encodeJpg(opaqueSample, QUALITY_NORMAL).length * sampleFactor);
+			statPredictNanos.add(System.nanoTime() - startNanos);
+
+			float quality;
+			double scale;
+			if (predictedHigh <= target) {
+				quality = QUALITY_HIGH;
+				scale = 1.0;
+			} else if (predictedNormal <= target) {
+				quality = QUALITY_NORMAL;
+				scale = 1.0;
+			} else {
+				// JPG size goes roughly with the pixel count, but a smaller image has
+				// more detail per pixel, so check the guess on the scaled sample
+				quality = QUALITY_NORMAL;
+				scale = Math.sqrt((double) target / predictedNormal);
+				startNanos = System.nanoTime();
+				for (int i = 0; i < SCALE_REFINE_STEPS; i++) {
+					long predicted = (long) (encodeJpg(toOpaque(sample, scale), quality).length * sampleFactor);
+					if (predicted <= target) {
+						break;
+					}
+					scale *= Math.sqrt((double) target / predicted);
+				}
+				statPredictNanos.add(System.nanoTime() - startNanos);
+			}
+
+			while (true) {
+				BufferedImage scaledImage = toOpaque(image, scale);
+				passes++;
+				byte[] data = encodeJpg(scaledImage, quality);
+				if (data.length <= maxBytes) {
+					statJpg.increment();
+					if (scale < 1.0) {
+						statScaled.increment();
+					}
+					return new Result(data, "jpg", scale, passes);
+				}
+				scale *= Math.min(0.95, Math.sqrt((double) target / data.length));
+			}
+
+		} finally {
+			statEncodes.increment();
+			statPasses.add(passes);
+			if (passes > 1) {
+				statRetries.increment();
+				LOGGER.info("Size targeted encode of {}x{} took {} passes", image.getWidth(), image.getHeight(),
+						passes);
+			}
+		}
+	}
+
+	private static byte[] encodeJpg(BufferedImage image, float quality) throws IOException {
+		long startNanos = System.nanoTime();
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			writeJpg(image, quality, baos);
+			return baos.toByteArray();
+		} finally {
+			statEncodeNanos.add(System.nanoTime() - startNanos);
+		}
+	}
+
+	private static byte[] encodePng(BufferedImage image) {
+		long startNanos = System.nanoTime();
+		try {
+			return PngEncoder.encode(image);
+		} finally {
+			statEncodeNanos.add(System.nanoTime() - startNanos);
+		}
+	}
+
+	public static JSONObject getStatsJson() {
+		long encodes = statEncodes.sum();
+		JSONObject json = new JSONObject();
+		json.put("encodes", encodes);
+		json.put("passes", statPasses.sum());
+		json.put("passes_per_encode", encodes == 0 ? 0 : Math.round(statPasses.sum() * 100.0 / encodes) / 100.0);
+		json.put("retried", statRetries.sum());
+		json.put("png", statPng.sum());
+		json.put("png_palette", statPalette.sum());
+		json.put("jpg", statJpg.sum());
+		json.put("jpg_scaled", statScaled.sum());
+		json.put("predict_ms", statPredictNanos.sum() / 1000000);
+		json.put("encode_ms", statEncodeNanos.sum() / 1000000);
+		return json;
+	}
+
+	/**
+	 * Evenly spaced strips of the image, stitched into one. Small images are
+	 * their own sample.
+	 */
+	private static BufferedImage sample(BufferedImage image) {
+		int height = image.getHeight();
+		if (height <= SAMPLE_STRIPS * SAMPLE_ROWS * 2) {
+			return image;
+		}
+		BufferedImage sample = new BufferedImage(image.getWidth(), SAMPLE_STRIPS * SAMPLE_ROWS,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = sample.createGraphics();
+		for (int i = 0; i < SAMPLE_STRIPS; i++) {
+			int y = (int) ((height - SAMPLE_ROWS) * (i + 0.5) / SAMPLE_STRIPS);
+			g.drawImage(image.getSubimage(0, y, image.getWidth(), SAMPLE_ROWS), 0, i * SAMPLE_ROWS, null);
+		}
+		g.dispose();
+		return sample;
+	}
+
+	/**
+	 * Scales the image onto black, since JPG has no alpha.
+	 */
+	private static BufferedImage toOpaque(BufferedImage image, double scale) {
+		int width = Math.max(1, (int) (image.getWidth() * scale));
+		int height = Math.max(1, (int) (image.getHeight() * scale));
+		BufferedImage ret = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = ret.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, width, height, Color.black, null);
+		g.dispose();
+		return ret;
+	}
+
+	private static void writeJpg(BufferedImage image, float quality, OutputStream out) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+		try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(ios);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	private SizeTargetedEncoder() {
+	}
+}
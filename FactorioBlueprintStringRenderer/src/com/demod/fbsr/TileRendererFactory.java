@@ -492,17 +492,27 @@ public class TileRendererFactory {
 	}
 
 	public static void initFactories(List<TileRendererFactory> factories) {
-		for (TileRendererFactory factory : factories) {
+		long startMillis = System.currentTimeMillis();
+
+		// Same as the entity factories, defs are registered in factory order
+		List<List<ImageDef>> factoryDefs = factories.parallelStream().map(factory -> {
 			try {
 				ModsProfile profile = factory.getProfile();
 				factory.initFromPrototype(profile.getData().getTable());
-				factory.initAtlas(profile.getAtlasPackage()::registerDef);
+				List<ImageDef> defs = new ArrayList<>();
+				factory.initAtlas(defs::add);
+				return defs;
 			} catch (Exception e) {
 				LOGGER.error("TILE {}", factory.getName());
 				throw e;
 			}
+		}).collect(Collectors.toList());
+
+		for (int i = 0; i < factories.size(); i++) {
+			factoryDefs.get(i).forEach(factories.get(i).getProfile().getAtlasPackage()::registerDef);
 		}
-		LOGGER.info("Initialized {} tiles.", factories.size());
+
+		LOGGER.info("Initialized {} tiles ({} ms).", factories.size(), System.currentTimeMillis() - startMillis);
 	}
 
 	public static void registerFactories(Consumer<TileRendererFactory> register, ModsProfile profile, JSONObject json) {
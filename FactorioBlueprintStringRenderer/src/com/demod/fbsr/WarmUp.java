@@ -0,0 +1,234 @@
+package com.demod.fbsr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.demod.dcba.CommandReporting;
+import com.demod.factorio.Config;
+import com.demod.fbsr.bs.BSBlueprint;
+import com.demod.fbsr.map.MapVersion;
+
+/**
+ * Renders a synthetic blueprint set after startup so the render path is JIT
+ * compiled before the services take real requests.
+ *
+ * The set places every registered entity factory and every tile factory, the
+ * tiles in a stencil that produces each kind of edge transition. It is rendered
+ * at several sizes, round after round, until the round time stops improving.
+ * Services check {@link #isReady()} or wait in {@link #awaitReady()} before
+ * serving renders.
+ */
+public final class WarmUp {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WarmUp.class);
+
+	private static final int ENTITIES_PER_BLUEPRINT = 36;
+	private static final int ENTITY_SPACING = 12;
+	private static final int TILES_PER_BLUEPRINT = 64;
+	private static final int TILE_CELL = 8;
+	// Blocks, a one tile strip, a lone tile and notches, for every edge rule
+	private static final String[] TILE_STENCIL = { //
+			"###.#.", //
+			"###.#.", //
+			"###...", //
+			"......", //
+			"##.#.#", //
+			"#..###", //
+	};
+	private static final int[] RENDER_WIDTHS = { 2048, 1024, 256 };
+	// A round within this fraction of the previous one counts as stable
+	private static final double STABLE_FRACTION = 0.05;
+
+	private static final CountDownLatch readyLatch = new CountDownLatch(1);
+	private static volatile boolean started = false;
+	private static volatile JSONObject report = new JSONObject();
+
+	public static void awaitReady() throws InterruptedException {
+		start();
+		readyLatch.await();
+	}
+
+	public static boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+		start();
+		return readyLatch.await(timeout, unit);
+	}
+
+	private static JSONObject createBlueprintJson(JSONArray jsonEntities, JSONArray jsonTiles) {
+		JSONObject json = new JSONObject();
+		json.put("version", new MapVersion(2, 0, 0, 0).getSerialized());
+		json.put("entities", jsonEntities);
+		json.put("tiles", jsonTiles);
+		return json;
+	}
+
+	/**
+	 * Blueprints covering every registered entity factory and tile factory.
+	 */
+	public static List<BSBlueprint> createBlueprints() {
+		List<BSBlueprint> blueprints = new ArrayList<>();
+
+		List<EntityRendererFactory> entityFactories = FactorioManager.getEntityFactories();
+		for (int start = 0; start < entityFactories.size(); start += ENTITIES_PER_BLUEPRINT) {
+			JSONArray jsonEntities = new JSONArray();
+			int end = Math.min(entityFactories.size(), start + ENTITIES_PER_BLUEPRINT);
+			for (int i = start; i < end; i++) {
+				int index = i - start;
+				JSONObject jsonEntity = new JSONObject();
+				jsonEntity.put("entity_number", index + 1);
+				jsonEntity.put("name", entityFactories.get(i).getName());
+				jsonEntity.put("position", createPositionJson((index % 6) * ENTITY_SPACING + 0.5,
+						(index / 6) * ENTITY_SPACING + 0.5));
+				jsonEntities.put(jsonEntity);
+			}
+			blueprints.add(new BSBlueprint(createBlueprintJson(jsonEntities, new JSONArray())));
+		}
+
+		List<TileRendererFactory> tileFactories = FactorioManager.getTileFactories();
+		for (int start = 0; start < tileFactories.size(); start += TILES_PER_BLUEPRINT) {
+			JSONArray jsonTiles = new JSONArray();
+			int end = Math.min(tileFactories.size(), start + TILES_PER_BLUEPRINT);
+			for (int i = start; i < end; i++) {
+				int index = i - start;
+				int cellX = (index % 8) * TILE_CELL;
+				int cellY = (index / 8) * TILE_CELL;
+				for (int y = 0; y < TILE_STENCIL.length; y++) {
+					for (int x = 0; x < TILE_STENCIL[y].length(); x++) {
+						if (TILE_STENCIL[y].charAt(x) == '#') {
+							JSONObject jsonTile = new JSONObject();
+							jsonTile.put("name", tileFactories.get(i).getName());
+							jsonTile.put("position", createPositionJson(cellX + x, cellY + y));
+							jsonTiles.put(jsonTile);
+						}
+					}
+				}
+			}
+			blueprints.add(new BSBlueprint(createBlueprintJson(new JSONArray(), jsonTiles)));
+		}
+
+		return blueprints;
+	}
+
+	private static JSONObject createPositionJson(double x, double y) {
+		JSONObject json = new JSONObject();
+		json.put("x", x);
+		json.put("y", y);
+		return json;
+	}
+
+	public static JSONObject getReportJson() {
+		JSONObject json = new JSONObject(report.toString());
+		json.put("ready", isReady());
+		return json;
+	}
+
+	public static boolean isReady() {
+		return readyLatch.getCount() == 0;
+	}
+
+	private static void markReady(JSONObject finalReport) {
+		report = finalReport;
+		readyLatch.countDown();
+	}
+
+	private static long renderRound(List<BSBlueprint> blueprints) {
+		long startNanos = System.nanoTime();
+		for (BSBlueprint blueprint : blueprints) {
+			for (int width : RENDER_WIDTHS) {
+				RenderRequest request = new RenderRequest(blueprint, new CommandReporting("Warm-up", null, null));
+				request.setMaxWidth(OptionalInt.of(width));
+				request.setMaxHeight(OptionalInt.of(width));
+				try {
+					FBSR.renderBlueprint(request);
+				} catch (Exception e) {
+					LOGGER.warn("Warm-up render failed", e);
+				}
+			}
+		}
+		return (System.nanoTime() - startNanos) / 1000000;
+	}
+
+	private static void run(int maxRounds, long maxMillis) {
+		long startMillis = System.currentTimeMillis();
+
+		List<BSBlueprint> blueprints = createBlueprints();
+		int renders = blueprints.size() * RENDER_WIDTHS.length;
+		LOGGER.info("Warm-up started: {} blueprints, {} renders per round", blueprints.size(), renders);
+
+		List<Long> roundMillis = new ArrayList<>();
+		int stableRounds = 0;
+		while (roundMillis.isEmpty() || (roundMillis.size() < maxRounds && stableRounds < 2
+				&& System.currentTimeMillis() - startMillis < maxMillis)) {
+			long millis = renderRound(blueprints);
+			if (!roundMillis.isEmpty()) {
+				long previous = roundMillis.get(roundMillis.size() - 1);
+				stableRounds = (Math.abs(millis - previous) <= previous * STABLE_FRACTION) ? stableRounds + 1 : 0;
+			}
+			roundMillis.add(millis);
+			LOGGER.info("Warm-up round {}: {} ms", roundMillis.size(), millis);
+		}
+
+		long durationMillis = System.currentTimeMillis() - startMillis;
+		double coldMillis = (double) roundMillis.get(0) / renders;
+		double warmMillis = (double) roundMillis.get(roundMillis.size() - 1) / renders;
+
+		JSONObject json = new JSONObject();
+		json.put("duration_ms", durationMillis);
+		json.put("rounds", roundMillis.size());
+		json.put("renders_per_round", renders);
+		json.put("stable", stableRounds >= 2);
+		json.put("cold_ms_per_render", Math.round(coldMillis * 10) / 10.0);
+		json.put("warm_ms_per_render", Math.round(warmMillis * 10) / 10.0);
+		JSONArray jsonRounds = new JSONArray();
+		roundMillis.forEach(jsonRounds::put);
+		json.put("round_ms", jsonRounds);
+
+		LOGGER.info("Warm-up done in {} ms ({} rounds): {} ms -> {} ms per render", durationMillis,
+				roundMillis.size(), String.format("%.1f", coldMillis), String.format("%.1f", warmMillis));
+		markReady(json);
+	}
+
+	/**
+	 * Starts the warm-up in the background, once. Does nothing if it has already
+	 * been started. With warm-up disabled in the config, the renderer is ready
+	 * right away.
+	 */
+	public static synchronized void start() {
+		if (started) {
+			return;
+		}
+		started = true;
+
+		JSONObject json = Config.get().optJSONObject("warmup");
+		if (json == null) {
+			json = new JSONObject();
+		}
+		if (!json.optBoolean("enabled", true)) {
+			markReady(new JSONObject());
+			return;
+		}
+		int maxRounds = json.optInt("max_rounds", 10);
+		long maxMillis = json.optLong("max_seconds", 120) * 1000;
+
+		Thread thread = new Thread(() -> {
+			try {
+				run(maxRounds, maxMillis);
+			} catch (Exception e) {
+				// A failed warm-up only costs speed, the renderer is still usable
+				LOGGER.error("Warm-up failed", e);
+				markReady(new JSONObject());
+			}
+		}, "FBSR Warm-up");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private WarmUp() {
+	}
+}
@@ -2,7 +2,6 @@ package com.demod.fbsr;
 
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -16,8 +15,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Optional;
 
-import javax.imageio.ImageIO;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -43,13 +40,7 @@ public final class WebUtils {
 	}
 
 	public static byte[] getImageData(BufferedImage image) {
-		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-			ImageIO.write(image, "PNG", baos);
-			return baos.toByteArray();
-		} catch (IOException e) {
-			e.printStackTrace();
-			throw new InternalError(e);
-		}
+		return PngEncoder.encode(image);
 	}
 
 	private static synchronized String getImgBBAPIKey() {
@@ -105,9 +96,7 @@ public final class WebUtils {
 
 	public static String uploadToImgBB(BufferedImage image, String name) throws IOException {
 		// 1. Convert BufferedImage to base64
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		ImageIO.write(image, "png", baos);
-		String base64Image = Base64.getEncoder().encodeToString(baos.toByteArray());
+		String base64Image = Base64.getEncoder().encodeToString(PngEncoder.encode(image));
 
 		String endpoint = "https://api.imgbb.com/1/upload?key=" + getImgBBAPIKey();
 		String postData = "image=" + URLEncoder.encode(base64Image, StandardCharsets.UTF_8) + "&name="
@@ -19,12 +19,9 @@ import com.demod.fbsr.map.MapEntity;
 import com.demod.fbsr.map.MapPosition;
 import com.demod.fbsr.map.MapRail;
 import com.demod.fbsr.map.MapRect;
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Table;
-import com.google.common.collect.Table.Cell;
 
 public class WorldMap {
 
@@ -76,6 +73,25 @@ public class WorldMap {
 	}
 
 	public static class BeltCell {
+		// Every possible belt state, so the belt grid only needs to store a code
+		private static final BeltCell[] INTERNED = new BeltCell[Direction.values().length * 4];
+		static {
+			for (Direction facing : Direction.values()) {
+				for (int flags = 0; flags < 4; flags++) {
+					INTERNED[(facing.ordinal() << 2) | flags] = new BeltCell(facing, (flags & 0b10) != 0,
+							(flags & 0b01) != 0);
+				}
+			}
+		}
+
+		private static int encode(Direction facing, boolean bendable, boolean bendOthers) {
+			return ((facing.ordinal() << 2) | (bendable ? 0b10 : 0) | (bendOthers ? 0b01 : 0)) + 1;
+		}
+
+		private static BeltCell decode(int code) {
+			return (code == 0) ? null : INTERNED[code - 1];
+		}
+
 		private final Direction facing;
 		private final boolean bendable;
 		private final boolean bendOthers;
@@ -256,20 +272,22 @@ public class WorldMap {
 	// 	}
 	// }
 
-	// XXX Hash-based tables are not the most efficient here
-	// Row: X
-	// Column: Y
-	private final Table<Integer, Integer, BeltCell> belts = HashBasedTable.create();
-	private final Table<Integer, Integer, Integer> pipes = HashBasedTable.create();
-	private final Table<Integer, Integer, Integer> heatPipes = HashBasedTable.create();
-	private final Table<Integer, Integer, Object> walls = HashBasedTable.create();
-	private final Table<Integer, Integer, Boolean> gates = HashBasedTable.create();
-	private final Table<Integer, Integer, Entry<String, Direction>> undergroundBeltEndings = HashBasedTable.create();
-	private final Table<Integer, Integer, List<BeaconSource>> beaconed = HashBasedTable.create();
-	private final Table<Integer, Integer, MapEntity> cargoBayConnectables = HashBasedTable.create();
-	private final Table<Integer, Integer, List<Boolean>> fusionConnections = HashBasedTable.create();
-	private final Table<Integer, Integer, List<RailPoint>> railConnectionsGrounded = HashBasedTable.create();
-	private final Table<Integer, Integer, List<RailPoint>> railConnectionsElevated = HashBasedTable.create();
+	private static final int GATE_HORIZONTAL = 1;
+	private static final int GATE_VERTICAL = 2;
+
+	// X: cell X
+	// Y: cell Y
+	private final ChunkedByteGrid belts = new ChunkedByteGrid(); // BeltCell codes
+	private final ChunkedByteGrid pipes = new ChunkedByteGrid(); // Direction flags
+	private final ChunkedByteGrid heatPipes = new ChunkedByteGrid(); // Direction flags
+	private final ChunkedByteGrid walls = new ChunkedByteGrid();
+	private final ChunkedByteGrid gates = new ChunkedByteGrid();
+	private final ChunkedGrid<Entry<String, Direction>> undergroundBeltEndings = new ChunkedGrid<>();
+	private final ChunkedGrid<List<BeaconSource>> beaconed = new ChunkedGrid<>();
+	private final ChunkedGrid<MapEntity> cargoBayConnectables = new ChunkedGrid<>();
+	private final ChunkedGrid<List<Boolean>> fusionConnections = new ChunkedGrid<>();
+	private final ChunkedGrid<List<RailPoint>> railConnectionsGrounded = new ChunkedGrid<>();
+	private final ChunkedGrid<List<RailPoint>> railConnectionsElevated = new ChunkedGrid<>();
 	// private final Table<Integer, Integer, RailSlot> railSignalSlots = HashBasedTable.create();
 	// private final Table<Integer, Integer, RailSlot> elevatedRailSignalSlots = HashBasedTable.create();
 	// private final Table<Integer, Integer, RailNode> railNodes = HashBasedTable.create();
@@ -277,11 +295,11 @@ public class WorldMap {
 	// private final Table<Integer, Integer, RailSlot> railStationSlots = HashBasedTable.create();
 
 	// TODO a more generalized approach
-	private final Table<Integer, Integer, MapEntity> nixieTubes = HashBasedTable.create();
+	private final ChunkedGrid<MapEntity> nixieTubes = new ChunkedGrid<>();
 
-	// Row: X*2
-	// Column: Y*2
-	private final Table<Integer, Integer, LogisticGridCell> logisticGrid = HashBasedTable.create();
+	// X: half-cell X (X*2)
+	// Y: half-cell Y (Y*2)
+	private final ChunkedGrid<LogisticGridCell> logisticGrid = new ChunkedGrid<>();
 
 	// private final List<Entry<RailEdge, RailEdge>> railEdges = new ArrayList<>();
 
@@ -310,7 +328,7 @@ public class WorldMap {
 	}
 
 	public Optional<BeltCell> getBelt(MapPosition pos) {
-		return Optional.ofNullable(belts.get(pos.getXCell(), pos.getYCell()));
+		return Optional.ofNullable(BeltCell.decode(belts.get(pos.getXCell(), pos.getYCell())));
 	}
 
 	public Optional<BeltBend> getBeltBend(MapPosition pos) {
@@ -340,7 +358,7 @@ public class WorldMap {
 	}
 
 	public Optional<Direction> getBeltFacing(MapPosition pos) {
-		return Optional.ofNullable(belts.get(pos.getXCell(), pos.getYCell())).map(BeltCell::getFacing);
+		return getBelt(pos).map(BeltCell::getFacing);
 	}
 
 	public List<Boolean> getFusionConnections(MapPosition pos) {
@@ -357,11 +375,11 @@ public class WorldMap {
 		return ret;
 	}
 
-	public MapPosition getLogisticCellPosition(Cell<Integer, Integer, LogisticGridCell> c) {
-		return MapPosition.byUnit(c.getRowKey() / 2.0 + 0.25, c.getColumnKey() / 2.0 + 0.25);
+	public MapPosition getLogisticCellPosition(int halfCellX, int halfCellY) {
+		return MapPosition.byUnit(halfCellX / 2.0 + 0.25, halfCellY / 2.0 + 0.25);
 	}
 
-	public Table<Integer, Integer, LogisticGridCell> getLogisticGrid() {
+	public ChunkedGrid<LogisticGridCell> getLogisticGrid() {
 		return logisticGrid;
 	}
 
@@ -480,15 +498,11 @@ public class WorldMap {
 	}
 
 	public boolean isHeatPipe(MapPosition pos, Direction facing) {
-		int kr = pos.getXCell();
-		int kc = pos.getYCell();
-		return heatPipes.contains(kr, kc) && (heatPipes.get(kr, kc) & flag(facing)) > 0;
+		return (heatPipes.get(pos.getXCell(), pos.getYCell()) & flag(facing)) > 0;
 	}
 
 	public boolean isHorizontalGate(MapPosition pos) {
-		int kr = pos.getXCell();
-		int kc = pos.getYCell();
-		return gates.contains(kr, kc) && (gates.get(kr, kc) == false);
+		return gates.get(pos.getXCell(), pos.getYCell()) == GATE_HORIZONTAL;
 	}
 
 	public boolean isMatchingUndergroundBeltEnding(String name, MapPosition pos, Direction dir) {
@@ -497,9 +511,7 @@ public class WorldMap {
 	}
 
 	public boolean isPipe(MapPosition pos, Direction facing) {
-		int kr = pos.getXCell();
-		int kc = pos.getYCell();
-		return pipes.contains(kr, kc) && (pipes.get(kr, kc) & flag(facing)) > 0;
+		return (pipes.get(pos.getXCell(), pos.getYCell()) & flag(facing)) > 0;
 	}
 
 	public boolean isFoundation() {
@@ -507,9 +519,7 @@ public class WorldMap {
 	}
 
 	public boolean isVerticalGate(MapPosition pos) {
-		int kr = pos.getXCell();
-		int kc = pos.getYCell();
-		return gates.contains(kr, kc) && (gates.get(kr, kc) == true);
+		return gates.get(pos.getXCell(), pos.getYCell()) == GATE_VERTICAL;
 	}
 
 	public boolean isWall(MapPosition pos) {
@@ -531,7 +541,7 @@ public class WorldMap {
 	}
 
 	public void setBelt(MapPosition pos, Direction facing, boolean bendable, boolean bendOthers) {
-		belts.put(pos.getXCell(), pos.getYCell(), new BeltCell(facing, bendable, bendOthers));
+		belts.set(pos.getXCell(), pos.getYCell(), BeltCell.encode(facing, bendable, bendOthers));
 	}
 
 	public void setCargoBayConnectable(MapPosition pos, MapEntity entity) {
@@ -547,11 +557,11 @@ public class WorldMap {
 				flags |= flag(facing);
 			}
 		}
-		heatPipes.put(pos.getXCell(), pos.getYCell(), flags);
+		heatPipes.set(pos.getXCell(), pos.getYCell(), flags);
 	}
 
 	public void setHorizontalGate(MapPosition pos) {
-		gates.put(pos.getXCell(), pos.getYCell(), false);
+		gates.set(pos.getXCell(), pos.getYCell(), GATE_HORIZONTAL);
 	}
 
 	public void setNixieTube(MapPosition pos, MapEntity entity) {
@@ -567,11 +577,7 @@ public class WorldMap {
 				flags |= flag(facing);
 			}
 		}
-		Integer currentFlags = pipes.get(pos.getXCell(), pos.getYCell());
-		if (currentFlags != null) {
-			flags |= currentFlags;
-		}
-		pipes.put(pos.getXCell(), pos.getYCell(), flags);
+		pipes.or(pos.getXCell(), pos.getYCell(), flags);
 	}
 
 	public void setFoundation(boolean foundation) {
@@ -583,11 +589,11 @@ public class WorldMap {
 	}
 
 	public void setVerticalGate(MapPosition pos) {
-		gates.put(pos.getXCell(), pos.getYCell(), true);
+		gates.set(pos.getXCell(), pos.getYCell(), GATE_VERTICAL);
 	}
 
 	public void setWall(MapPosition pos) {
-		walls.put(pos.getXCell(), pos.getYCell(), pos);
+		walls.set(pos.getXCell(), pos.getYCell(), 1);
 	}
 
 	public void setRail(MapRail rail) {
@@ -608,7 +614,7 @@ public class WorldMap {
 		int kr = pos.getXCell();
 		int kc = pos.getYCell();
 
-		Table<Integer, Integer, List<RailPoint>> railConnections = point.elevated ? railConnectionsElevated : railConnectionsGrounded;
+		ChunkedGrid<List<RailPoint>> railConnections = point.elevated ? railConnectionsElevated : railConnectionsGrounded;
 		List<RailPoint> list = railConnections.get(kr, kc);
 		if (list == null) {
 			railConnections.put(kr, kc, list = new ArrayList<>());
@@ -621,7 +627,7 @@ public class WorldMap {
 		int kr = pos.getXCell();
 		int kc = pos.getYCell();
 
-		Table<Integer, Integer, List<RailPoint>> railConnections = point.elevated ? railConnectionsElevated : railConnectionsGrounded;
+		ChunkedGrid<List<RailPoint>> railConnections = point.elevated ? railConnectionsElevated : railConnectionsGrounded;
 		List<RailPoint> list = railConnections.get(kr, kc);
 		if (list == null) {
 			return false;
@@ -1,10 +1,7 @@
 package com.demod.fbsr.app;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.StringWriter;
@@ -23,12 +20,15 @@ import java.util.OptionalDouble;
 import java.util.OptionalInt;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import javax.imageio.ImageIO;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -57,9 +57,12 @@ import com.demod.fbsr.FBSR;
 import com.demod.fbsr.FBSR.RenderDebugLayersResult;
 import com.demod.fbsr.FactorioManager;
 import com.demod.fbsr.ModsProfile;
+import com.demod.fbsr.PngEncoder;
 import com.demod.fbsr.RenderRequest;
 import com.demod.fbsr.RenderResult;
 import com.demod.fbsr.RenderUtils;
+import com.demod.fbsr.SizeTargetedEncoder;
+import com.demod.fbsr.WarmUp;
 import com.demod.fbsr.WebUtils;
 import com.demod.fbsr.app.WatchdogService.WatchdogReporter;
 import com.demod.fbsr.bs.BSBlueprint;
@@ -81,6 +84,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.LinkedHashMultiset;
 import com.google.common.collect.Multiset;
 import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.Message;
@@ -156,6 +160,62 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 
 	public static final int MAX_FILE_SIZE = 10 << 20; // JDA has not updated 25MB -> 10MB yet
 
+	// Renders that finish sooner never post their preview
+	private static final long PREVIEW_DELAY_MILLIS = 2000;
+	private static final ScheduledExecutorService previewScheduler = Executors.newScheduledThreadPool(2,
+			new ThreadFactoryBuilder().setNameFormat("discord-preview-%d").setDaemon(true).build());
+
+	/**
+	 * Shows the flat color preview in the deferred reply, but only if the full
+	 * render is still running after {@link #PREVIEW_DELAY_MILLIS}, so fast renders
+	 * skip the upload.
+	 */
+	private static class DelayedPreview {
+		private final InteractionHook hook;
+		private ScheduledFuture<?> pending = null;
+		private boolean finished = false;
+		private boolean posted = false;
+
+		public DelayedPreview(InteractionHook hook) {
+			this.hook = hook;
+		}
+
+		/**
+		 * Called once the full render is done, or has failed. Returns true if the
+		 * preview took the deferred reply, which then needs to be replaced.
+		 */
+		public synchronized boolean finish() {
+			finished = true;
+			if (pending != null) {
+				pending.cancel(false);
+			}
+			return posted;
+		}
+
+		public Optional<Consumer<BufferedImage>> listener() {
+			return Optional.of(this::schedule);
+		}
+
+		private synchronized void post(BufferedImage preview) {
+			if (finished) {
+				return;
+			}
+			byte[] data = PngEncoder.encode(preview, PngEncoder.Preset.FAST);
+			// Waits for the edit while holding the lock, so finish() only returns
+			// after it and the final reply cannot land before the preview
+			hook.editOriginal("Rendering full image...").setFiles(FileUpload.fromData(data, "preview.png"))
+					.complete();
+			posted = true;
+		}
+
+		private synchronized void schedule(BufferedImage preview) {
+			if (finished || pending != null) {
+				return;
+			}
+			pending = previewScheduler.schedule(() -> post(preview), PREVIEW_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
 	private static OptionalDouble optDouble(Optional<Double> value) {
 		return value.map(OptionalDouble::of).orElse(OptionalDouble.empty());
 	}
@@ -165,58 +225,9 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 	}
 
 	private static ImageShrinkResult shrinkImageToFitUploadLimit(BufferedImage image) {
-		int width = image.getWidth();
-		int height = image.getHeight();
-
-		boolean scaled = false;
-		double scale = 1.0;
-
-		try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-			while (true) {
-
-				BufferedImage scaledImage;
-				if (scaled) {
-					int scaledWidth = (int) (width * scale);
-					int scaledHeight = (int) (height * scale);
-					scaledImage = new BufferedImage(scaledWidth, scaledHeight, image.getType());
-					Graphics2D g = scaledImage.createGraphics();
-					g.drawImage(image.getScaledInstance(scaledWidth, scaledHeight, Image.SCALE_FAST), 0, 0, null);
-					g.dispose();
-				} else {
-					scaledImage = image;
-				}
-
-				if (!scaled) {
-					ImageIO.write(scaledImage, "PNG", baos);
-					if (baos.size() <= MAX_FILE_SIZE) {
-						return new ImageShrinkResult(scaled, scale, baos.toByteArray(), "png");
-					}
-					baos.reset();
-				}
-
-				if (!ImageIO.write(scaledImage, "JPG", baos)) {
-					BufferedImage noAlphaImage = new BufferedImage(scaledImage.getWidth(), scaledImage.getHeight(),
-							BufferedImage.TYPE_INT_RGB);
-					Graphics2D g = noAlphaImage.createGraphics();
-					g.drawImage(scaledImage, 0, 0, Color.black, null);
-					g.dispose();
-					ImageIO.write(noAlphaImage, "JPG", baos);
-				}
-				if (baos.size() <= MAX_FILE_SIZE) {
-					return new ImageShrinkResult(scaled, scale, baos.toByteArray(), "jpg");
-				}
-				int size = baos.size();
-				baos.reset();
-
-				scaled = true;
-				if (size > MAX_FILE_SIZE * 1.25) {
-					// Approximation based on file size
-					scale = MAX_FILE_SIZE / (double) size;
-				} else {
-					scale *= 0.9;
-				}
-			}
-
+		try {
+			SizeTargetedEncoder.Result result = SizeTargetedEncoder.encode(image, MAX_FILE_SIZE);
+			return new ImageShrinkResult(result.scale < 1.0, result.scale, result.data, result.extension);
 		} catch (IOException e) {
 			throw new InternalError(e);
 		}
@@ -382,9 +393,9 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 			renderTimes.add(layout.getResult().renderTime);
 
 			Set<String> groups = new LinkedHashSet<>();
-			blueprint.entities.stream().map(e -> FactorioManager.lookupEntityFactoryForName(e.name))
+			blueprint.entities.stream().map(FactorioManager::lookupEntityFactory)
 					.map(e -> e.isUnknown() ? "Modded" : e.getGroupName()).forEach(groups::add);
-			blueprint.tiles.stream().map(t -> FactorioManager.lookupTileFactoryForName(t.name))
+			blueprint.tiles.stream().map(FactorioManager::lookupTileFactory)
 					.filter(t -> !t.isUnknown()).map(t -> t.getGroupName()).forEach(groups::add);
 			spaceAge = groups.contains("Space Age");
 			groups.removeAll(Arrays.asList("Base", "Space Age"));
@@ -418,11 +429,10 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 			List<BSBlueprint> blueprints = book.getAllBlueprints();
 
 			Set<String> groups = new LinkedHashSet<>();
-			blueprints.stream().flatMap(b -> b.entities.stream().map(e -> e.name)).distinct()
-					.map(n -> FactorioManager.lookupEntityFactoryForName(n))
+			blueprints.stream().flatMap(b -> b.entities.stream()).map(FactorioManager::lookupEntityFactory).distinct()
 					.map(e -> e.isUnknown() ? "Modded" : e.getGroupName()).forEach(groups::add);
-			blueprints.stream().flatMap(b -> b.tiles.stream().map(t -> t.name)).distinct()
-					.map(n -> FactorioManager.lookupTileFactoryForName(n)).filter(t -> !t.isUnknown())
+			blueprints.stream().flatMap(b -> b.tiles.stream()).map(FactorioManager::lookupTileFactory).distinct()
+					.filter(t -> !t.isUnknown())
 					.map(t -> t.getGroupName()).forEach(groups::add);
 			spaceAge = groups.contains("Space Age");
 			groups.removeAll(Arrays.asList("Base", "Space Age"));
@@ -1134,10 +1144,18 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 		if (blueprintString.blueprint.isPresent()) {
 			BSBlueprint blueprint = blueprintString.blueprint.get();
 
+			// The preview goes in the deferred reply, which is deleted once the
+			// full image is posted
 			GUILayoutBlueprint layout = new GUILayoutBlueprint();
 			layout.setBlueprint(blueprint);
 			layout.setReporting(reporting);
-			image = layout.generateDiscordImage();
+			DelayedPreview preview = new DelayedPreview(hook);
+			layout.setPreviewListener(preview.listener());
+			try {
+				image = layout.generateDiscordImage();
+			} finally {
+				preview.finish();
+			}
 			renderTimes.add(layout.getResult().renderTime);
 
 			if (layout.getResult().renderScale < 0.501) {
@@ -1263,6 +1281,7 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 		String command = split[0];
 
 		InteractionHook hook = event.deferReply(true).complete();
+		DelayedPreview preview = new DelayedPreview(hook);
 
 		String replyContent = null;
 
@@ -1292,7 +1311,13 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 				BSBlueprint blueprint = blueprintString.blueprint.get();
 
 				RenderRequest request = new RenderRequest(blueprint, reporting);
-				RenderResult result = FBSR.renderBlueprint(request);
+				request.setPreviewListener(preview.listener());
+				RenderResult result;
+				try {
+					result = FBSR.renderBlueprint(request);
+				} finally {
+					preview.finish();
+				}
 
 				reporting.addField(new Field("Render Time", result.renderTime + " ms", true));
 
@@ -1320,7 +1345,12 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 
 		if (replyContent != null) {
 			if (event.getChannelType() != ChannelType.PRIVATE) {
-				hook.sendMessage(replyContent).queue();
+				if (preview.finish()) {
+					// The preview took the deferred reply, so replace it
+					hook.editOriginal(replyContent).setAttachments().queue();
+				} else {
+					hook.sendMessage(replyContent).queue();
+				}
 			} else {
 				hook.deleteOriginal().queue();
 			}
@@ -1343,6 +1373,7 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 		String command = event.getComponentId();
 
 		InteractionHook hook = event.deferReply(true).complete();
+		DelayedPreview preview = new DelayedPreview(hook);
 
 		String replyContent = null;
 
@@ -1366,7 +1397,13 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 				BSBlueprint blueprint = blueprintString.blueprintBook.get().getAllBlueprints().get(index);
 
 				RenderRequest request = new RenderRequest(blueprint, reporting);
-				RenderResult result = FBSR.renderBlueprint(request);
+				request.setPreviewListener(preview.listener());
+				RenderResult result;
+				try {
+					result = FBSR.renderBlueprint(request);
+				} finally {
+					preview.finish();
+				}
 
 				reporting.addField(new Field("Render Time", result.renderTime + " ms", true));
 
@@ -1394,7 +1431,12 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 
 		if (replyContent != null) {
 			if (event.getChannelType() != ChannelType.PRIVATE) {
-				hook.sendMessage(replyContent).queue();
+				if (preview.finish()) {
+					// The preview took the deferred reply, so replace it
+					hook.editOriginal(replyContent).setAttachments().queue();
+				} else {
+					hook.sendMessage(replyContent).queue();
+				}
 			} else {
 				hook.deleteOriginal().queue();
 			}
@@ -1454,6 +1496,14 @@ public class BlueprintBotDiscordService extends AbstractIdleService {
 		FBSR.initialize();
 		LOGGER.info("Factorio {} Data Loaded.", FBSR.getVersion());
 
+		// The bot only connects once warm, so it takes no commands while the renderer is cold
+		try {
+			WarmUp.awaitReady();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted during warm-up", e);
+		}
+
 		Set<String> groups = new HashSet<>();
 		FactorioManager.getEntityFactories().forEach(e -> groups.add(e.getGroupName()));
 		FactorioManager.getTileFactories().forEach(t -> groups.add(t.getGroupName()));
@@ -0,0 +1,112 @@
+package com.demod.fbsr.app;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.rapidoid.http.Req;
+import org.rapidoid.http.Resp;
+import org.rapidoid.net.abstracts.Channel;
+
+/**
+ * Response body sent with chunked transfer as it is written, in chunks of up to
+ * 64KB, so no response is held whole. Closing sends what is left, but does not
+ * finish the response.
+ *
+ * The connection copies each chunk into its output buffer, so a chunk is only
+ * handed over once the buffer has drained below {@link #MAX_QUEUED}, and a slow
+ * client holds back the writer instead of the server buffering the response.
+ * Writing and flushing throw once the connection is closed, or once the client
+ * has not read anything for {@link #STALL_MILLIS}.
+ */
+class ChunkedResponseStream extends OutputStream {
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final int MAX_QUEUED = 4 * CHUNK_SIZE;
+	private static final long POLL_MILLIS = 5;
+	private static final long STALL_MILLIS = 60000;
+
+	private final Channel channel;
+	// Connections are recycled, so a changed id also means ours is closed
+	private final long connId;
+	private final Resp resp;
+	private final byte[] buf = new byte[CHUNK_SIZE];
+	private int pos = 0;
+
+	public ChunkedResponseStream(Req req, Resp resp) {
+		this.channel = req.channel();
+		this.connId = channel.connId();
+		this.resp = resp;
+	}
+
+	private void awaitClient() throws IOException {
+		long stallStart = System.currentTimeMillis();
+		// Read off the IO thread, the size is only an estimate, which is enough to
+		// hold back the writer
+		int queued = channel.output().size();
+		while (queued > MAX_QUEUED) {
+			checkOpen();
+			try {
+				Thread.sleep(POLL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the client");
+			}
+			int size = channel.output().size();
+			if (size < queued) {
+				stallStart = System.currentTimeMillis();
+			} else if (System.currentTimeMillis() - stallStart > STALL_MILLIS) {
+				throw new IOException("Client stopped reading");
+			}
+			queued = size;
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (channel.isClosing() || channel.connId() != connId) {
+			throw new IOException("Client closed the connection");
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	/**
+	 * Sends what is buffered, and throws if the client is gone even when there is
+	 * nothing to send, so writers can check before starting on more work.
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		if (pos > 0) {
+			awaitClient();
+			// The connection may still be sending the previous chunk
+			resp.chunk(Arrays.copyOf(buf, pos));
+			pos = 0;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, CHUNK_SIZE - pos);
+			System.arraycopy(b, off, buf, pos, n);
+			pos += n;
+			off += n;
+			len -= n;
+			if (pos == CHUNK_SIZE) {
+				flush();
+			}
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		buf[pos++] = (byte) b;
+		if (pos == CHUNK_SIZE) {
+			flush();
+		}
+	}
+}
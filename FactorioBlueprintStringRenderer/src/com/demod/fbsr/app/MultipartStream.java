@@ -0,0 +1,82 @@
+package com.demod.fbsr.app;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes a multipart/mixed body (RFC 2046) part by part, each part body written
+ * straight through to the underlying stream.
+ */
+class MultipartStream {
+	private final OutputStream out;
+	private final String boundary;
+	private boolean inPart = false;
+
+	public static String contentType(String boundary) {
+		return "multipart/mixed; boundary=" + boundary;
+	}
+
+	public static String newBoundary() {
+		return "fbsr-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+	}
+
+	public MultipartStream(OutputStream out, String boundary) {
+		this.out = out;
+		this.boundary = boundary;
+	}
+
+	/**
+	 * Starts a part, ending the previous one. The returned stream writes the
+	 * part body, and closing it leaves the underlying stream open.
+	 */
+	public OutputStream beginPart(String contentType, Map<String, String> headers) throws IOException {
+		endPart();
+		StringBuilder sb = new StringBuilder();
+		sb.append("--").append(boundary).append("\r\n");
+		sb.append("Content-Type: ").append(contentType).append("\r\n");
+		for (Entry<String, String> entry : headers.entrySet()) {
+			sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+		}
+		sb.append("\r\n");
+		out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+		inPart = true;
+
+		return new FilterOutputStream(out) {
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+		};
+	}
+
+	/**
+	 * Ends the last part and the body.
+	 */
+	public void close() throws IOException {
+		endPart();
+		out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	private void endPart() throws IOException {
+		if (inPart) {
+			out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			inPart = false;
+		}
+	}
+
+	public void writePart(String contentType, Map<String, String> headers, byte[] data) throws IOException {
+		beginPart(contentType, headers).write(data);
+	}
+}
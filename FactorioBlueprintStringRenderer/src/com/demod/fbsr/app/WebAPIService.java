@@ -1,23 +1,37 @@
 package com.demod.fbsr.app;
 
+import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.stream.Collectors;
 
-import javax.imageio.ImageIO;
-
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.Resp;
 import org.rapidoid.setup.App;
 import org.rapidoid.setup.On;
 import org.slf4j.Logger;
@@ -26,14 +40,23 @@ import org.slf4j.LoggerFactory;
 import com.demod.dcba.CommandReporting;
 import com.demod.factorio.Config;
 import com.demod.factorio.Utils;
+import com.demod.fbsr.AtlasStore;
 import com.demod.fbsr.BlueprintFinder;
 import com.demod.fbsr.BlueprintFinder.FindBlueprintResult;
 import com.demod.fbsr.FBSR;
+import com.demod.fbsr.PaletteQuantizer;
+import com.demod.fbsr.PngEncoder;
+import com.demod.fbsr.QoiCodec;
 import com.demod.fbsr.RenderRequest;
 import com.demod.fbsr.RenderResult;
+import com.demod.fbsr.SizeTargetedEncoder;
+import com.demod.fbsr.WarmUp;
 import com.demod.fbsr.WebUtils;
 import com.demod.fbsr.bs.BSBlueprint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import net.dv8tion.jda.api.entities.MessageEmbed.Field;
 
@@ -41,9 +64,135 @@ public class WebAPIService extends AbstractIdleService {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(WebAPIService.class);
 
+	private static final MediaType IMAGE_QOI = MediaType.create("image/qoi");
+
+	private static class BatchJob {
+		final int item;
+		final int page;
+		final Optional<String> label;
+		final RenderRequest request;
+		// Renders run in parallel, so each gets its own reporting
+		final CommandReporting reporting;
+		CompletableFuture<RenderResult> future;
+
+		BatchJob(int item, int page, Optional<String> label, RenderRequest request, CommandReporting reporting) {
+			this.item = item;
+			this.page = page;
+			this.label = label;
+			this.request = request;
+			this.reporting = reporting;
+		}
+	}
+
+	// Per item render options of the batch endpoint, each defaulting to the
+	// option of the same name on the batch itself
+	private static final List<String> BATCH_OPTIONS = ImmutableList.of("max-width", "max-height", "scale",
+			"alt-mode", "background");
+
+	@FunctionalInterface
+	private interface BodyWriter {
+		void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * QOI is lossless and far cheaper to encode than PNG, for internal consumers.
+	 * QoiCodec.convertToPng turns it into a PNG where one is needed.
+	 */
+	private enum ImageFormat {
+		PNG("png", "image/png", MediaType.IMAGE_PNG), QOI("qoi", "image/qoi", IMAGE_QOI);
+
+		private final String extension;
+		private final String mimeType;
+		private final MediaType mediaType;
+
+		private ImageFormat(String extension, String mimeType, MediaType mediaType) {
+			this.extension = extension;
+			this.mimeType = mimeType;
+			this.mediaType = mediaType;
+		}
+
+		public void write(BufferedImage image, OutputStream out) throws IOException {
+			if (this == QOI) {
+				QoiCodec.write(image, out);
+			} else {
+				PngEncoder.write(image, out);
+			}
+		}
+	}
+
 	private JSONObject configJson;
 
-	private String saveToLocalStorage(File folder, BufferedImage image) throws IOException {
+	// Streamed responses are written here, off the request workers
+	private final ExecutorService streamExecutor = Executors
+			.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("webapi-stream-%d").setDaemon(true).build());
+
+	/**
+	 * One job per blueprint found in each item, books expanded into their pages.
+	 * Items without blueprints are noted in the infos.
+	 */
+	private static List<BatchJob> createBatchJobs(JSONObject body, List<String> infos) {
+		JSONArray items = body.optJSONArray("items");
+		if (items == null) {
+			// The batch itself is the only item
+			items = new JSONArray();
+			items.put(new JSONObject());
+		}
+
+		List<BatchJob> jobs = new ArrayList<>();
+		for (int i = 0; i < items.length(); i++) {
+			JSONObject item = items.getJSONObject(i);
+			JSONObject options = new JSONObject();
+			for (String key : BATCH_OPTIONS) {
+				if (item.has(key)) {
+					options.put(key, item.get(key));
+				} else if (body.has(key)) {
+					options.put(key, body.get(key));
+				}
+			}
+
+			String content = item.has("blueprint") ? item.getString("blueprint") : body.getString("blueprint");
+			List<BSBlueprint> blueprints = BlueprintFinder.search(content).stream()
+					.filter(f -> f.blueprintString.isPresent())
+					.flatMap(f -> f.blueprintString.get().findAllBlueprints().stream()).collect(Collectors.toList());
+			if (blueprints.isEmpty()) {
+				infos.add("No blueprint found in item " + (i + 1) + ".");
+			}
+
+			for (int j = 0; j < blueprints.size(); j++) {
+				BSBlueprint blueprint = blueprints.get(j);
+				CommandReporting reporting = new CommandReporting("Web API Batch Item", null, null);
+				RenderRequest request = new RenderRequest(blueprint, reporting);
+				if (options.has("max-width")) {
+					request.setMaxWidth(OptionalInt.of(options.getInt("max-width")));
+				}
+				if (options.has("max-height")) {
+					request.setMaxHeight(OptionalInt.of(options.getInt("max-height")));
+				}
+				if (options.has("scale")) {
+					request.setMaxScale(OptionalDouble.of(options.getDouble("scale")));
+				}
+				request.show.altMode = options.optBoolean("alt-mode", true);
+				if (options.has("background")) {
+					// true, false, or a color like "#2F2F2F"
+					if (options.get("background") instanceof Boolean) {
+						request.setBackground(
+								options.getBoolean("background") ? Optional.of(FBSR.GROUND_COLOR) : Optional.empty());
+					} else {
+						request.setBackground(Optional.of(Color.decode(options.getString("background"))));
+					}
+				}
+				jobs.add(new BatchJob(i + 1, j + 1, blueprint.label, request, reporting));
+			}
+		}
+		return jobs;
+	}
+
+	private static BufferedImage prepareImage(JSONObject body, BufferedImage image) {
+		// 256 color palette PNG, several times smaller for most renders
+		return body.optBoolean("palette") ? PaletteQuantizer.quantize(image, body.optBoolean("dither")) : image;
+	}
+
+	private String saveToLocalStorage(File folder, BufferedImage image, ImageFormat format) throws IOException {
 		if (!folder.exists()) {
 			folder.mkdirs();
 		}
@@ -51,11 +200,13 @@ public class WebAPIService extends AbstractIdleService {
 		File imageFile;
 		long id = System.currentTimeMillis();
 		String fileName;
-		while ((imageFile = new File(folder, fileName = "Blueprint" + id + ".png")).exists()) {
+		while ((imageFile = new File(folder, fileName = "Blueprint" + id + "." + format.extension)).exists()) {
 			id++;
 		}
 
-		ImageIO.write(image, "PNG", imageFile);
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(imageFile))) {
+			format.write(image, out);
+		}
 
 		return fileName;
 	}
@@ -65,12 +216,217 @@ public class WebAPIService extends AbstractIdleService {
 		ServiceFinder.removeService(this);
 
 		App.shutdown();
+		streamExecutor.shutdownNow();
+	}
+
+	/**
+	 * Sends the body with chunked transfer as the writer produces it. The
+	 * response finishes when the writer returns; the status code and headers are
+	 * already sent by then, so a failure can only cut the body short. Writes wait
+	 * for a slow client, and throw once the client is gone.
+	 */
+	private Resp stream(Req req, Resp resp, MediaType contentType, CommandReporting reporting, BodyWriter writer) {
+		req.async();
+		resp.contentType(contentType);
+		streamExecutor.execute(() -> {
+			try (ChunkedResponseStream out = new ChunkedResponseStream(req, resp)) {
+				writer.write(out);
+			} catch (Exception e) {
+				LOGGER.warn("Streamed response failed", e);
+				reporting.addException(e);
+			} finally {
+				req.done();
+				submitReport(reporting);
+			}
+		});
+		return resp;
+	}
+
+	/**
+	 * Renders the blueprints into a multipart/mixed response, one image part
+	 * per blueprint sent as soon as it is encoded, then a JSON part in the shape
+	 * of the regular response, with part names in place of links.
+	 *
+	 * With "progressive", each image part follows a flat color preview part of
+	 * the same blueprint, sent as soon as it is parsed. X-Render-Stage tells
+	 * them apart.
+	 */
+	private Resp streamBlueprints(Req req, Resp resp, JSONObject body, List<BSBlueprint> blueprints,
+			ImageFormat format, CommandReporting reporting) {
+		String boundary = MultipartStream.newBoundary();
+		return stream(req, resp, MediaType.create(MultipartStream.contentType(boundary)), reporting, out -> {
+			MultipartStream multipart = new MultipartStream(out, boundary);
+			List<String> infos = new ArrayList<>();
+			JSONArray images = new JSONArray();
+
+			boolean progressive = body.optBoolean("progressive");
+			for (int i = 0; i < blueprints.size(); i++) {
+				BSBlueprint blueprint = blueprints.get(i);
+				out.flush();
+				try {
+					String fileName = (i + 1) + "-"
+							+ WebUtils.formatBlueprintFilename(blueprint.label, format.extension);
+					String previewFileName = (i + 1) + "-preview-"
+							+ WebUtils.formatBlueprintFilename(blueprint.label, format.extension);
+
+					RenderRequest request = new RenderRequest(blueprint, reporting);
+					if (progressive) {
+						request.setPreviewListener(Optional.of(preview -> {
+							try (OutputStream part = multipart.beginPart(format.mimeType,
+									ImmutableMap.of("Content-Disposition",
+											"attachment; filename=\"" + previewFileName + "\"", "X-Render-Stage",
+											"preview"))) {
+								format.write(preview, part);
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						}));
+					}
+					RenderResult result = FBSR.renderBlueprint(request);
+					BufferedImage image = prepareImage(body, result.image);
+
+					try (OutputStream part = multipart.beginPart(format.mimeType,
+							ImmutableMap.of("Content-Disposition", "attachment; filename=\"" + fileName + "\"",
+									"X-Render-Stage", "final"))) {
+						format.write(image, part);
+					}
+
+					JSONObject json = new JSONObject();
+					Utils.terribleHackToHaveOrderedJSONObject(json);
+					blueprint.label.ifPresent(l -> json.put("label", l));
+					if (progressive) {
+						json.put("preview", previewFileName);
+					}
+					json.put("part", fileName);
+					json.put("render-time", result.renderTime);
+					images.put(json);
+
+				} catch (IOException e) {
+					// The client is gone, no point rendering the rest
+					throw e;
+				} catch (Exception e) {
+					reporting.addException(e);
+					infos.add("There was a problem rendering blueprint " + (i + 1) + ".");
+				}
+			}
+
+			JSONObject result = new JSONObject();
+			Utils.terribleHackToHaveOrderedJSONObject(result);
+			if (!infos.isEmpty()) {
+				result.put("info", new JSONArray(infos));
+			}
+			result.put("images", images);
+			multipart.writePart("application/json",
+					ImmutableMap.of("Content-Disposition", "attachment; filename=\"result.json\""),
+					result.toString(2).getBytes(StandardCharsets.UTF_8));
+			multipart.close();
+		});
+	}
+
+	/**
+	 * Renders the batch on the render pool and streams each image as a
+	 * multipart/mixed part in completion order, with X-Batch-Item and
+	 * X-Batch-Page headers locating it in the request. A final JSON part lists
+	 * every render in the same order, with its error if it failed.
+	 *
+	 * At most the concurrency cap of renders are in flight or waiting to be
+	 * sent at once, which keeps one batch from taking over the pool.
+	 */
+	private Resp streamBatch(Req req, Resp resp, JSONObject body, List<BatchJob> jobs, List<String> infos,
+			ImageFormat format, int concurrency, CommandReporting reporting) {
+		String boundary = MultipartStream.newBoundary();
+		return stream(req, resp, MediaType.create(MultipartStream.contentType(boundary)), reporting, out -> {
+			MultipartStream multipart = new MultipartStream(out, boundary);
+			JSONArray images = new JSONArray();
+			BlockingQueue<BatchJob> completed = new LinkedBlockingQueue<>();
+			long startMillis = System.currentTimeMillis();
+			long renderMillis = 0;
+			int failed = 0;
+
+			int next = 0;
+			int pending = 0;
+			while (next < jobs.size() || pending > 0) {
+				out.flush();
+				while (pending < concurrency && next < jobs.size()) {
+					BatchJob job = jobs.get(next++);
+					job.future = FBSR.renderBlueprintAsync(job.request);
+					job.future.whenComplete((r, e) -> completed.add(job));
+					pending++;
+				}
+
+				BatchJob job;
+				try {
+					job = completed.take();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Batch interrupted");
+				}
+				pending--;
+
+				job.reporting.getExceptionsWithBlame().forEach(e -> reporting.addException(e.getException()));
+
+				JSONObject json = new JSONObject();
+				Utils.terribleHackToHaveOrderedJSONObject(json);
+				json.put("item", job.item);
+				json.put("page", job.page);
+				job.label.ifPresent(l -> json.put("label", l));
+
+				RenderResult result;
+				try {
+					result = job.future.join();
+				} catch (CompletionException e) {
+					reporting.addException(e.getCause());
+					json.put("error", String.valueOf(e.getCause().getMessage()));
+					images.put(json);
+					failed++;
+					continue;
+				} finally {
+					job.future = null;
+				}
+				renderMillis += result.renderTime;
+
+				BufferedImage image = prepareImage(body, result.image);
+				String fileName = job.item + "-" + job.page + "-"
+						+ WebUtils.formatBlueprintFilename(job.label, format.extension);
+				try (OutputStream part = multipart.beginPart(format.mimeType,
+						ImmutableMap.of("Content-Disposition", "attachment; filename=\"" + fileName + "\"",
+								"X-Batch-Item", Integer.toString(job.item), "X-Batch-Page",
+								Integer.toString(job.page)))) {
+					format.write(image, part);
+				}
+
+				json.put("part", fileName);
+				json.put("render-time", result.renderTime);
+				images.put(json);
+			}
+
+			if (failed > 0) {
+				infos.add("There was a problem rendering " + failed + " of " + jobs.size() + " blueprints.");
+			}
+			reporting.addField(new Field("Render Time", renderMillis + " ms in " + jobs.size() + " renders, "
+					+ (System.currentTimeMillis() - startMillis) + " ms total at concurrency " + concurrency, true));
+
+			JSONObject result = new JSONObject();
+			Utils.terribleHackToHaveOrderedJSONObject(result);
+			if (!infos.isEmpty()) {
+				result.put("info", new JSONArray(infos));
+			}
+			result.put("images", images);
+			multipart.writePart("application/json",
+					ImmutableMap.of("Content-Disposition", "attachment; filename=\"result.json\""),
+					result.toString(2).getBytes(StandardCharsets.UTF_8));
+			multipart.close();
+		});
+	}
+
+	private void submitReport(CommandReporting reporting) {
+		ServiceFinder.findService(BlueprintBotDiscordService.class).ifPresent(s -> s.getBot().submitReport(reporting));
 	}
 
 	@Override
 	protected void startUp() throws JSONException, IOException {
 
 		FBSR.initialize();
+		WarmUp.start();
 
 		ServiceFinder.addService(this);
 
@@ -83,6 +439,12 @@ public class WebAPIService extends AbstractIdleService {
 
 		On.post("/blueprint").serve((req, resp) -> {
 			LOGGER.info("Web API POST!");
+			if (!WarmUp.isReady()) {
+				resp.code(503);
+				resp.header("Retry-After", "10");
+				resp.plain("Renderer is warming up, try again shortly.");
+				return resp;
+			}
 			CommandReporting reporting = new CommandReporting(
 					"Web API / " + req.clientIpAddress() + " / "
 							+ Optional.ofNullable(req.header("User-Agent", null)).orElse("<Unknown>"),
@@ -90,11 +452,15 @@ public class WebAPIService extends AbstractIdleService {
 			try {
 				JSONObject body = null;
 				BufferedImage returnSingleImage = null;
+				boolean streaming = false;
 
 				List<String> infos = new ArrayList<>();
 				List<Entry<Optional<String>, String>> imageLinks = new ArrayList<>();
 
 				boolean useLocalStorage = configJson.optBoolean("use-local-storage", false);
+				ImageFormat localStorageFormat = ImageFormat
+						.valueOf(configJson.optString("local-storage-format", "png").toUpperCase());
+				ImageFormat singleImageFormat = ImageFormat.PNG;
 
 				try {
 					if (req.body() == null) {
@@ -114,10 +480,23 @@ public class WebAPIService extends AbstractIdleService {
 					}
 					reporting.setCommand(body.toString(2));
 
+					if (body.has("format")) {
+						try {
+							localStorageFormat = singleImageFormat = ImageFormat
+									.valueOf(body.getString("format").toUpperCase());
+						} catch (IllegalArgumentException e) {
+							reporting.addException(e);
+							resp.code(400);
+							resp.plain("Unknown format: " + body.getString("format"));
+							return resp;
+						}
+					}
+
 					/*
 					 * { "blueprint": "0e...", (required) "max-width": 1234, "max-height": 1234,
-					 * "show-info-panels": false } | v { "info": [ "message 1!", "message 2!", ...
-					 * ], "images": [ { "label": "Blueprint Label", "link":
+					 * "show-info-panels": false, "palette": false, "dither": false, "format":
+					 * "png" (or "qoi"), "stream": false, "progressive": false } | v { "info": [
+					 * "message 1!", "message 2!", ... ], "images": [ { "label": "Blueprint Label", "link":
 					 * "https://cdn.discordapp.com/..." (or) "1563569893008.png" } ] }
 					 */
 
@@ -130,20 +509,35 @@ public class WebAPIService extends AbstractIdleService {
 							.collect(Collectors.toList());
 					List<Long> renderTimes = new ArrayList<>();
 
+					if (body.optBoolean("progressive") && !blueprints.isEmpty()) {
+						// A single image is its preview then itself, in the same multipart form
+						streaming = true;
+						return streamBlueprints(req, resp, body,
+								body.optBoolean("return-single-image") ? blueprints.subList(0, 1) : blueprints,
+								singleImageFormat, reporting);
+					}
+
+					if (body.optBoolean("stream") && !body.optBoolean("return-single-image")) {
+						streaming = true;
+						return streamBlueprints(req, resp, body, blueprints, singleImageFormat, reporting);
+					}
+
 					for (BSBlueprint blueprint : blueprints) {
 						try {
 							RenderRequest request = new RenderRequest(blueprint, reporting);
 							RenderResult result = FBSR.renderBlueprint(request);
 							renderTimes.add(result.renderTime);
 
+							BufferedImage image = prepareImage(body, result.image);
+
 							if (body.optBoolean("return-single-image")) {
-								returnSingleImage = result.image;
+								returnSingleImage = image;
 								break;
 							}
 
 							if (useLocalStorage) {
 								File localStorageFolder = new File(configJson.getString("local-storage"));
-								String imageLink = saveToLocalStorage(localStorageFolder, result.image);
+								String imageLink = saveToLocalStorage(localStorageFolder, image, localStorageFormat);
 								imageLinks.add(new SimpleEntry<>(blueprint.label, imageLink));
 							} else {
 								// TODO links expire, need a new approach
@@ -154,7 +548,7 @@ public class WebAPIService extends AbstractIdleService {
 											.add(new SimpleEntry<>(blueprint.label,
 													discordService.get().useDiscordForFileHosting(
 															WebUtils.formatBlueprintFilename(blueprint.label, "png"),
-															result.image).toString()));
+															image).toString()));
 								}
 							}
 						} catch (Exception e) {
@@ -177,13 +571,10 @@ public class WebAPIService extends AbstractIdleService {
 				}
 
 				if (returnSingleImage != null) {
-					resp.contentType(MediaType.IMAGE_PNG);
-					try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-						ImageIO.write(returnSingleImage, "PNG", baos);
-						baos.flush();
-						resp.body(baos.toByteArray());
-					}
-					return resp;
+					streaming = true;
+					BufferedImage image = returnSingleImage;
+					ImageFormat format = singleImageFormat;
+					return stream(req, resp, format.mediaType, reporting, out -> format.write(image, out));
 
 				} else {
 
@@ -226,12 +617,108 @@ public class WebAPIService extends AbstractIdleService {
 				}
 
 			} finally {
-				ServiceFinder.findService(BlueprintBotDiscordService.class)
-						.ifPresent(s -> s.getBot().submitReport(reporting));
+				// A streamed response reports once it is done
+				if (!streaming) {
+					submitReport(reporting);
+				}
 			}
 
 		});
 
+		// Fair share of the render pool for a single batch
+		int batchMaxConcurrency = configJson.optInt("batch-max-concurrency",
+				Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+		On.post("/batch").serve((req, resp) -> {
+			LOGGER.info("Web API batch POST!");
+			if (!WarmUp.isReady()) {
+				resp.code(503);
+				resp.header("Retry-After", "10");
+				resp.plain("Renderer is warming up, try again shortly.");
+				return resp;
+			}
+			CommandReporting reporting = new CommandReporting(
+					"Web API Batch / " + req.clientIpAddress() + " / "
+							+ Optional.ofNullable(req.header("User-Agent", null)).orElse("<Unknown>"),
+					null, Instant.now());
+			boolean streaming = false;
+			try {
+				if (req.body() == null) {
+					resp.code(400);
+					resp.plain("Body is empty!");
+					reporting.addException(new IllegalArgumentException("Body is empty!"));
+					return resp;
+				}
+
+				/*
+				 * { "items": [ { "blueprint": "0e...", "max-width": 1234, "max-height": 1234,
+				 * "scale": 1.0, "alt-mode": true, "background": true (or "#2F2F2F") }, ... ],
+				 * "concurrency": 4, "format": "png" (or "qoi"), "palette": false, "dither":
+				 * false } | v multipart/mixed, an image part per render in completion order,
+				 * then { "info": [ ... ], "images": [ { "item": 1, "page": 1, "label":
+				 * "Blueprint Label", "part": "1-1-blueprint-label.png", "render-time": 123 } ]
+				 * }. Item options left out fall back to the same option on the batch.
+				 */
+				JSONObject body;
+				List<String> infos = new ArrayList<>();
+				List<BatchJob> jobs;
+				ImageFormat format;
+				try {
+					body = new JSONObject(new String(req.body()));
+					reporting.setCommand(body.toString(2));
+					format = ImageFormat.valueOf(body.optString("format", "png").toUpperCase());
+					jobs = createBatchJobs(body, infos);
+				} catch (Exception e) {
+					reporting.addException(e);
+					resp.code(400);
+					resp.plain("Bad batch request: " + e.getMessage());
+					return resp;
+				}
+
+				if (jobs.isEmpty()) {
+					resp.code(400);
+					resp.plain("No blueprints found!");
+					return resp;
+				}
+
+				int concurrency = Math.max(1,
+						Math.min(batchMaxConcurrency, body.optInt("concurrency", batchMaxConcurrency)));
+				streaming = true;
+				return streamBatch(req, resp, body, jobs, infos, format, concurrency, reporting);
+
+			} finally {
+				// A streamed response reports once it is done
+				if (!streaming) {
+					submitReport(reporting);
+				}
+			}
+		});
+
+		On.get("/atlas-stats").serve((req, resp) -> {
+			resp.contentType(MediaType.JSON);
+			resp.body(AtlasStore.getStatsJson().toString(2).getBytes());
+			return resp;
+		});
+
+		On.get("/ready").serve((req, resp) -> {
+			resp.code(WarmUp.isReady() ? 200 : 503);
+			resp.contentType(MediaType.JSON);
+			resp.body(WarmUp.getReportJson().toString(2).getBytes());
+			return resp;
+		});
+
+		On.get("/startup-stats").serve((req, resp) -> {
+			resp.contentType(MediaType.JSON);
+			resp.body(FBSR.getStartupTimingsJson().toString(2).getBytes());
+			return resp;
+		});
+
+		On.get("/encode-stats").serve((req, resp) -> {
+			resp.contentType(MediaType.JSON);
+			resp.body(SizeTargetedEncoder.getStatsJson().toString(2).getBytes());
+			return resp;
+		});
+
 		LOGGER.info("Web API Initialized at {}:{}", address, port);
 	}
 
@@ -12,6 +12,7 @@ import org.json.JSONObject;
 
 import com.demod.fbsr.BSUtils;
 import com.demod.fbsr.Direction;
+import com.demod.fbsr.PrototypeTable;
 import com.demod.fbsr.legacy.LegacyBlueprintEntity;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -39,6 +40,8 @@ public class BSEntity {
 
 	public final List<BSItemStack> items;
 
+	private int qualityId = PrototypeTable.UNRESOLVED;
+
 	public BSEntity(JSONObject json) {
 		entityNumber = json.getInt("entity_number");
 		name = json.getString("name");
@@ -84,4 +87,12 @@ public class BSEntity {
 			items = ImmutableList.of();
 		}
 	}
+
+	public int getQualityId() {
+		return qualityId;
+	}
+
+	public void setQualityId(int qualityId) {
+		this.qualityId = qualityId;
+	}
 }
@@ -5,11 +5,15 @@ import java.util.Optional;
 import org.json.JSONObject;
 
 import com.demod.fbsr.BSUtils;
+import com.demod.fbsr.PrototypeTable;
 
 public class BSItemWithQualityID {
     public final String name;
 	public final Optional<String> quality;
 
+	private int itemId = PrototypeTable.UNRESOLVED;
+	private int qualityId = PrototypeTable.UNRESOLVED;
+
     public BSItemWithQualityID(JSONObject json) {
 		name = json.getString("name");
 		quality = BSUtils.optString(json, "quality");
@@ -56,6 +60,22 @@ public class BSItemWithQualityID {
         return true;
     }
 
+	public int getItemId() {
+		return itemId;
+	}
+
+	public int getQualityId() {
+		return qualityId;
+	}
+
+	public void setItemId(int itemId) {
+		this.itemId = itemId;
+	}
+
+	public void setQualityId(int qualityId) {
+		this.qualityId = qualityId;
+	}
+
     public String formatted() {
         if (quality.isEmpty() || quality.get().equals("normal") || quality.get().trim().isEmpty()) {
             return name;
@@ -4,6 +4,7 @@ import java.util.Optional;
 
 import org.json.JSONObject;
 
+import com.demod.fbsr.PrototypeTable;
 import com.demod.fbsr.legacy.LegacyBlueprintEntity;
 
 public class BSMetaEntity extends BSEntity {
@@ -11,6 +12,7 @@ public class BSMetaEntity extends BSEntity {
 	private final JSONObject json;
 	private final LegacyBlueprintEntity legacy;
 	private Optional<Exception> parseException = Optional.empty();
+	private int prototypeId = PrototypeTable.UNRESOLVED;
 
 	public BSMetaEntity(JSONObject json) {
 		super(json);
@@ -38,10 +40,18 @@ public class BSMetaEntity extends BSEntity {
 		return parseException;
 	}
 
+	public int getPrototypeId() {
+		return prototypeId;
+	}
+
 	public boolean isLegacy() {
 		return legacy != null;
 	}
 
+	public void setPrototypeId(int prototypeId) {
+		this.prototypeId = prototypeId;
+	}
+
 	public void setParseException(Optional<Exception> parseException) {
 		this.parseException = parseException;
 	}
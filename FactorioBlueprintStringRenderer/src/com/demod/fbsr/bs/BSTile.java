@@ -5,12 +5,15 @@ import java.awt.geom.Point2D;
 import org.json.JSONObject;
 
 import com.demod.fbsr.BSUtils;
+import com.demod.fbsr.PrototypeTable;
 import com.demod.fbsr.legacy.LegacyBlueprintTile;
 
 public class BSTile {
 	public final BSPosition position;
 	public final String name;
 
+	private int prototypeId = PrototypeTable.UNRESOLVED;
+
 	public BSTile(JSONObject json) {
 		position = BSUtils.position(json, "position");
 		name = json.getString("name");
@@ -21,4 +24,12 @@ public class BSTile {
 		position = new BSPosition(pos.x, pos.y);
 		name = legacy.name;
 	}
+
+	public int getPrototypeId() {
+		return prototypeId;
+	}
+
+	public void setPrototypeId(int prototypeId) {
+		this.prototypeId = prototypeId;
+	}
 }
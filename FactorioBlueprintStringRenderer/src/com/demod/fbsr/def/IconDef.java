@@ -10,6 +10,7 @@ import com.demod.fbsr.fp.FPSprite;
 
 public class IconDef extends ImageDef {
 
+	private final List<IconLayer> layers;
 	private final int size;
 	private final DataPrototype prototype;
 
@@ -18,10 +19,16 @@ public class IconDef extends ImageDef {
 
 		setTrimmable(false);
 
+		this.layers = layers;
 		this.size = size;
 		this.prototype = prototype;
 	}
 
+	@Override
+	public long getSheetStamp() {
+		return IconLayer.stamp(layers, size);
+	}
+
 	public int getSize() {
 		return size;
 	}
@@ -20,6 +20,8 @@ public class ImageDef {
 	protected final ModsProfile profile;
 	protected final String path;
 	protected final ImageSheetLoader loader;
+	// Read with FactorioManager::lookupModImage, so the sheet is a mod file
+	private final boolean modImage;
 	private final boolean shadow;
 	protected final Rectangle source;
 	protected final AtlasRef atlasRef;
@@ -36,6 +38,7 @@ public class ImageDef {
 		this.profile = profile;
 		this.path = path;
 		this.loader = loader;
+		modImage = false;
 		this.shadow = shadow;
 		this.source = new Rectangle(source);
 		atlasRef = new AtlasRef();
@@ -49,6 +52,7 @@ public class ImageDef {
 		this.profile = profile;
 		this.path = path;
 		this.loader = FactorioManager::lookupModImage;
+		modImage = true;
 		this.shadow = shadow;
 		this.source = new Rectangle(source);
 		atlasRef = new AtlasRef();
@@ -59,6 +63,7 @@ public class ImageDef {
 		profile = shared.profile;
 		path = shared.path;
 		loader = shared.loader;
+		modImage = shared.modImage;
 		shadow = shared.shadow;
 		source = shared.source;
 		atlasRef = shared.atlasRef;
@@ -93,6 +98,15 @@ public class ImageDef {
 		return loader;
 	}
 
+	/**
+	 * Identifies the current contents of the sheet without decoding it, see
+	 * {@link FactorioManager#lookupModImageStamp(String)}. Returns 0 if that is not
+	 * known, as for sheets drawn by their own loader.
+	 */
+	public long getSheetStamp() {
+		return modImage ? FactorioManager.lookupModImageStamp(path) : 0;
+	}
+
 	public Rectangle getSource() {
 		return source;
 	}
@@ -19,18 +19,19 @@ import java.util.Optional;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.demod.dcba.CommandReporting;
 import com.demod.factorio.DataTable;
 import com.demod.factorio.TotalRawCalculator;
-import com.demod.factorio.prototype.TilePrototype;
 import com.demod.fbsr.FBSR;
 import com.demod.fbsr.FactorioManager;
 import com.demod.fbsr.RenderRequest;
 import com.demod.fbsr.RenderResult;
 import com.demod.fbsr.RenderUtils;
 import com.demod.fbsr.RichText.TagToken;
+import com.demod.fbsr.TileRendererFactory;
 import com.demod.fbsr.IconManager;
 import com.demod.fbsr.bs.BSBlueprint;
 import com.demod.fbsr.bs.BSItemWithQualityID;
@@ -59,6 +60,7 @@ public class GUILayoutBlueprint {
 
 	private BSBlueprint blueprint;
 	private CommandReporting reporting;
+	private Optional<Consumer<BufferedImage>> previewListener = Optional.empty();
 	private RenderResult result;
 
 	private Map<BSItemWithQualityID, Double> totalItems;
@@ -107,8 +109,8 @@ public class GUILayoutBlueprint {
 		renderTinted(panel);
 
 		boolean foundation = blueprint.tiles.stream().anyMatch(t -> {
-			Optional<TilePrototype> tile = FactorioManager.lookupTileByName(t.name);
-			return tile.isPresent() && tile.get().isFoundation();
+			TileRendererFactory factory = FactorioManager.lookupTileFactory(t);
+			return !factory.isUnknown() && factory.getPrototype().isFoundation();
 		});
 		if (foundation) {
 			g.setColor(new Color(0, 0, 2, 220));
@@ -127,6 +129,7 @@ public class GUILayoutBlueprint {
 		request.setMaxScale(OptionalDouble.of(2.0));
 		request.setBackground(Optional.empty());
 		request.setDontClipSprites(false);
+		request.setPreviewListener(previewListener);
 
 		this.result = FBSR.renderBlueprint(request);
 
@@ -233,13 +236,13 @@ public class GUILayoutBlueprint {
 						int iconShrink = (int) (itemCellSize * 0.15);
 						GUIBox iconBounds = cellBounds.shrink(iconShrink, iconShrink, iconShrink, iconShrink);
 
-						Optional<IconDef> icon = IconManager.lookupItem(item.name);
+						Optional<IconDef> icon = IconManager.lookupItem(item);
 						if (icon.isPresent()) {
 							GUIImageDef imgIcon = new GUIImageDef(iconBounds, icon.get());
 							imgIcon.render(g);
 
 							if (item.quality.isPresent() && !item.quality.get().equals("normal")) {
-								Optional<IconDef> qualityIcon = IconManager.lookupQuality(item.quality.get());
+								Optional<IconDef> qualityIcon = IconManager.lookupQuality(item);
 								if (qualityIcon.isPresent()) {
 									int qSize = (int) (0.4 * iconBounds.width);
 									GUIBox iconQualityBounds = iconBounds.cutLeft(qSize).cutBottom(qSize);
@@ -317,7 +320,7 @@ public class GUILayoutBlueprint {
 						if (item.name.equals(TotalRawCalculator.RAW_TIME)) {
 							image = Optional.of(GUIStyle.DEF_CLOCK);
 						} else {
-							image = IconManager.lookupItem(item.name);
+							image = IconManager.lookupItem(item);
 							if (image.isEmpty()) {
 								image = IconManager.lookupFluid(item.name);
 							}
@@ -393,9 +396,9 @@ public class GUILayoutBlueprint {
 		totalRawItems = baseDataOnly ? FBSR.generateTotalRawItems(totalItems) : ImmutableMap.of();
 
 		Set<String> groups = new LinkedHashSet<>();
-		blueprint.entities.stream().map(e -> FactorioManager.lookupEntityFactoryForName(e.name))
+		blueprint.entities.stream().map(FactorioManager::lookupEntityFactory)
 				.map(e -> e.isUnknown() ? "Modded" : e.getGroupName()).forEach(groups::add);
-		blueprint.tiles.stream().map(t -> FactorioManager.lookupTileFactoryForName(t.name)).filter(t -> !t.isUnknown())
+		blueprint.tiles.stream().map(FactorioManager::lookupTileFactory).filter(t -> !t.isUnknown())
 				.map(t -> t.getGroupName()).forEach(groups::add);
 
 		spaceAge = groups.contains("Space Age");
@@ -483,6 +486,10 @@ public class GUILayoutBlueprint {
 		this.blueprint = blueprint;
 	}
 
+	public void setPreviewListener(Optional<Consumer<BufferedImage>> previewListener) {
+		this.previewListener = previewListener;
+	}
+
 	public void setReporting(CommandReporting reporting) {
 		this.reporting = reporting;
 	}
@@ -425,9 +425,9 @@ public class GUILayoutBook {
 			pc = g.getComposite();
 			Set<String> groups = new LinkedHashSet<>();
 			for (BSBlueprint blueprint : book.getAllBlueprints()) {
-				blueprint.entities.stream().map(e -> FactorioManager.lookupEntityFactoryForName(e.name))
+				blueprint.entities.stream().map(FactorioManager::lookupEntityFactory)
 						.map(e -> e.isUnknown() ? "Modded" : e.getGroupName()).forEach(groups::add);
-				blueprint.tiles.stream().map(t -> FactorioManager.lookupTileFactoryForName(t.name)).filter(t -> !t.isUnknown())
+				blueprint.tiles.stream().map(FactorioManager::lookupTileFactory).filter(t -> !t.isUnknown())
 						.map(t -> t.getGroupName()).forEach(groups::add);
 			}
 
@@ -0,0 +1,10 @@
+package com.demod.fbsr.map;
+
+/**
+ * A renderable whose geometry can be merged into an {@link OverlayBatch}
+ * together with its neighbors in the same layer, instead of being stroked on
+ * its own.
+ */
+public interface MapBatchable {
+	void addTo(OverlayBatch batch);
+}
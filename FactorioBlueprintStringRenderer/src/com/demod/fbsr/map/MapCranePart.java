@@ -3,8 +3,6 @@ package com.demod.fbsr.map;
 import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
@@ -45,8 +43,6 @@ public class MapCranePart extends MapRenderable implements MapBounded {
     @Override
     public void render(Graphics2D g) {
         AtlasRef ref = def.getAtlasRef();
-		Image image = ref.getAtlas().getImage();
-		Rectangle source = ref.getRect();
 
 		Composite pc = g.getComposite();
 		AffineTransform pat = g.getTransform();
@@ -66,6 +62,7 @@ public class MapCranePart extends MapRenderable implements MapBounded {
 		}
 
         MapRect bounds = def.getTrimmedBounds();
+        int level = Atlas.selectMipLevel(Math.abs(pat.getScaleX()) * bounds.getWidth() / ref.getRect().width);
         
         g.translate(pos.getX(), pos.getY());
         g.rotate(orientation * Math.PI * 2);
@@ -77,7 +74,7 @@ public class MapCranePart extends MapRenderable implements MapBounded {
             g.clip(new Rectangle2D.Double(0, crop, 1, 1 - crop));
         }
 
-        g.drawImage(image, 0, 0, 1, 1, source.x, source.y, source.x + source.width, source.y + source.height, null);
+        ref.draw(g, level);
 
         if (crop > 0) {
             g.setClip(pclip);
@@ -17,7 +17,6 @@ import java.util.Map.Entry;
 import com.demod.fbsr.Direction;
 import com.demod.fbsr.FBSR;
 import com.demod.fbsr.Layer;
-import com.demod.fbsr.LogisticGridCell;
 import com.demod.fbsr.Dir16;
 import com.demod.fbsr.RenderRequest;
 import com.demod.fbsr.WorldMap;
@@ -26,7 +25,6 @@ import com.demod.fbsr.entity.RailRendering;
 import com.demod.fbsr.entity.RailRendering.RailDef;
 import com.demod.fbsr.gui.GUIStyle;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Table;
 
 public class MapDebug extends MapRenderable {
 
@@ -134,10 +132,8 @@ public class MapDebug extends MapRenderable {
 	private void renderPathItems(Graphics2D g) {
 		g.setStroke(STROKE_BOLD);
 		g.setColor(COLOR_PATH_ITEM);
-		Table<Integer, Integer, LogisticGridCell> logisticGrid = map.getLogisticGrid();
-		logisticGrid.cellSet().forEach(c -> {
-			MapPosition pos = MapPosition.byUnit(c.getRowKey() / 2.0 + 0.25, c.getColumnKey() / 2.0 + 0.25);
-			LogisticGridCell cell = c.getValue();
+		map.getLogisticGrid().forEach((x, y, cell) -> {
+			MapPosition pos = map.getLogisticCellPosition(x, y);
 			cell.getMovedFrom().ifPresent(l -> {
 				for (Direction d : l) {
 					MapPosition p = d.offset(pos, 0.5);
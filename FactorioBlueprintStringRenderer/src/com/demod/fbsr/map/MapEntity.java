@@ -13,17 +13,20 @@ import com.demod.fbsr.FactorioManager;
 import com.demod.fbsr.Layer;
 import com.demod.fbsr.bs.BSEntity;
 import com.demod.fbsr.bs.BSItemStack;
+import com.demod.fbsr.bs.BSItemWithQualityID;
 import com.demod.fbsr.def.LayeredSpriteDef;
 import com.demod.fbsr.def.SpriteDef;
 
 public class MapEntity {
 	public static class EntityModule {
+		public final BSItemWithQualityID id;
 		public final String name;
 		public final Optional<String> quality;
 
-		public EntityModule(String name, Optional<String> quality) {
-			this.name = name;
-			this.quality = quality;
+		public EntityModule(BSItemWithQualityID id) {
+			this.id = id;
+			this.name = id.name;
+			this.quality = id.quality;
 		}
 	}
 
@@ -32,11 +35,11 @@ public class MapEntity {
 		List<EntityModule> modules = new ArrayList<>();
 
 		for (BSItemStack itemStack : entity.items) {
-			String itemName = itemStack.id.name;
-			Optional<ItemPrototype> item = FactorioManager.lookupItemByName(itemName);
+			Optional<ItemPrototype> item = FactorioManager.lookupItem(itemStack.id);
 			if (item.isPresent() && item.get().getType().equals("module")) {
+				EntityModule module = new EntityModule(itemStack.id);
 				for (int i = 0; i < itemStack.itemsInInventory.size(); i++) {
-					modules.add(new EntityModule(itemName, itemStack.id.quality));
+					modules.add(module);
 				}
 			}
 		}
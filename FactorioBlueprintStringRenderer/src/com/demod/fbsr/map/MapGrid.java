@@ -4,7 +4,9 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
-import java.awt.geom.Line2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Path2D;
 import java.awt.geom.RoundRectangle2D;
 
 import com.demod.fbsr.FBSR;
@@ -15,6 +17,21 @@ public class MapGrid extends MapRenderable {
 	private static final BasicStroke STROKE = new BasicStroke((float) (3 / FBSR.TILE_SIZE));
 	public static final Font FONT = GUIStyle.FONT_BP_REGULAR.deriveFont(0.6f);
 
+	private static final String[] LABELS = new String[100];
+	static {
+		for (int i = 0; i < LABELS.length; i++) {
+			LABELS[i] = String.format("%02d", i);
+		}
+	}
+
+	private static GlyphVector getLabel(GlyphVector[] glyphs, FontRenderContext frc, int num) {
+		GlyphVector ret = glyphs[num];
+		if (ret == null) {
+			glyphs[num] = ret = FONT.createGlyphVector(frc, LABELS[num]);
+		}
+		return ret;
+	}
+
 	private final MapRect3D bounds;
 	private final Color color;
 	private final boolean showNumbers;
@@ -34,34 +51,45 @@ public class MapGrid extends MapRenderable {
 		int y1 = (int) Math.round(bounds.getY1());
 		int x2 = (int) Math.round(bounds.getX2());
 		int y2 = (int) Math.round(bounds.getY2());
+		// One path if the color is opaque, otherwise one per line so crossings blend
+		OverlayBatch lines = new OverlayBatch();
 		for (double x = x1 + 1; x <= x2 - 1; x++) {
-			g.draw(new Line2D.Double(x, y1, x, y2));
+			Path2D.Double line = lines.path(color, STROKE);
+			line.moveTo(x, y1);
+			line.lineTo(x, y2);
 		}
 		for (double y = y1 + 1; y <= y2 - 1; y++) {
-			g.draw(new Line2D.Double(x1, y, x2, y));
+			Path2D.Double line = lines.path(color, STROKE);
+			line.moveTo(x1, y);
+			line.lineTo(x2, y);
 		}
+		lines.render(g);
 		double gridRound = showNumbers ? 0.6 : 0.2;
 		g.draw(new RoundRectangle2D.Double(x1, y1, x2 - x1, y2 - y1, gridRound, gridRound));
 
 		if (showNumbers) {
 			g.setFont(FONT);
+			// Glyphs are laid out once per render and reused for every repeat
+			// of the same number
+			FontRenderContext frc = g.getFontRenderContext();
+			GlyphVector[] glyphs = new GlyphVector[LABELS.length];
 			float tx = 0.18f;
 			float ty = 0.68f;
-			for (double x = x1 + 1, i = 1; x <= x2 - 2; x++, i++) {
-				String strNum = String.format("%02d", (int) Math.round(i) % 100);
-				float sx = (float) x + tx;
+			for (int x = x1 + 1, i = 1; x <= x2 - 2; x++, i++) {
+				GlyphVector label = getLabel(glyphs, frc, i % 100);
+				float sx = x + tx;
 				float sy1 = y1 + ty;
 				float sy2 = y2 - 1 + ty;
-				g.drawString(strNum, sx, sy1);
-				g.drawString(strNum, sx, sy2);
+				g.drawGlyphVector(label, sx, sy1);
+				g.drawGlyphVector(label, sx, sy2);
 			}
-			for (double y = y1 + 1, i = 1; y <= y2 - 2; y++, i++) {
-				String strNum = String.format("%02d", (int) Math.round(i) % 100);
+			for (int y = y1 + 1, i = 1; y <= y2 - 2; y++, i++) {
+				GlyphVector label = getLabel(glyphs, frc, i % 100);
 				float sx1 = x1 + tx;
 				float sx2 = x2 - 1 + tx;
-				float sy = (float) y + ty;
-				g.drawString(strNum, sx1, sy);
-				g.drawString(strNum, sx2, sy);
+				float sy = y + ty;
+				g.drawGlyphVector(label, sx1, sy);
+				g.drawGlyphVector(label, sx2, sy);
 			}
 		}
 	}
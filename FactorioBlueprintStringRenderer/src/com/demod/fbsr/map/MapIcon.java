@@ -2,8 +2,6 @@ package com.demod.fbsr.map;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.RoundRectangle2D;
 import java.util.Optional;
@@ -54,15 +52,14 @@ public class MapIcon extends MapRenderable {
 		if (!ref.isValid()) {
 			throw new IllegalStateException("Icon not assigned to atlas! " + image.getPath());
 		}
-		Image image = ref.getAtlas().getImage();
-		Rectangle source = ref.getRect();
-
 		AffineTransform pat = g.getTransform();
+		double pixelSize = Math.abs(pat.getScaleX()) * size;
+		int level = Atlas.selectMipLevel(pixelSize / ref.getRect().width);
 
 		MapRect bounds = MapRect.byUnit(x - halfSize, y - halfSize, size, size);
 		g.translate(bounds.getX(), bounds.getY());
 		g.scale(bounds.getWidth(), bounds.getHeight());
-		g.drawImage(image, 0, 0, 1, 1, source.x, source.y, source.x + source.width, source.y + source.height, null);
+		ref.draw(g, level);
 
 		if (quality.isPresent()) {
 			Optional<IconDef> def = IconManager.lookupQuality(quality.get());
@@ -70,10 +67,7 @@ public class MapIcon extends MapRenderable {
 			g.translate(0, 1.0 - qSize);
 			g.scale(qSize, qSize);
 			AtlasRef qRef = def.get().getAtlasRef();
-			Image qImage = qRef.getAtlas().getImage();
-			Rectangle qSource = qRef.getRect();
-			g.drawImage(qImage, 0, 0, 1, 1, qSource.x, qSource.y, qSource.x + qSource.width, qSource.y + qSource.height,
-					null);
+			qRef.draw(g, Atlas.selectMipLevel(pixelSize * qSize / qRef.getRect().width));
 		}
 
 		g.setTransform(pat);
@@ -1,11 +1,11 @@
 package com.demod.fbsr.map;
 
 import java.awt.Graphics2D;
-import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
-import java.awt.image.BufferedImage;
 import java.util.List;
 
+import com.demod.fbsr.Atlas;
+import com.demod.fbsr.Atlas.AtlasRef;
 import com.demod.fbsr.Direction;
 import com.demod.fbsr.Layer;
 import com.demod.fbsr.def.SpriteDef;
@@ -33,14 +33,17 @@ public class MapInserterArm extends MapRenderable {
 
 		for (SpriteDef sprite : sprites) {
 			MapRect bounds = sprite.getTrimmedBounds();
-			Rectangle source = sprite.getAtlasRef().getRect();
-			BufferedImage image = sprite.getAtlasRef().getAtlas().getImage();
+			AtlasRef ref = sprite.getAtlasRef();
+			int level = Atlas.selectMipLevel(Math.abs(pat.getScaleX()) * bounds.getWidth() / ref.getRect().width);
 
 			g.translate(pos.getX(), pos.getY());
 			g.rotate(dir.ordinal() * Math.PI / 4.0);
 			g.translate(bounds.getX(), 0);
 			g.scale(bounds.getWidth(), armStretch);
-			g.drawImage(image, 0, 1, 1, 0, source.x, source.y, source.x + source.width, source.y + source.height, null);
+			// The arm is drawn flipped vertically
+			g.translate(0, 1);
+			g.scale(1, -1);
+			ref.draw(g, level);
 
 			g.setTransform(pat);
 		}
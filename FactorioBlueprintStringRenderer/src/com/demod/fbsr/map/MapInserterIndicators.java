@@ -3,13 +3,13 @@ package com.demod.fbsr.map;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
-import java.awt.image.BufferedImage;
 import java.util.List;
 
+import com.demod.fbsr.Atlas;
+import com.demod.fbsr.Atlas.AtlasRef;
 import com.demod.fbsr.Direction;
 import com.demod.fbsr.Layer;
 import com.demod.fbsr.RenderUtils;
@@ -52,8 +52,8 @@ public class MapInserterIndicators extends MapRenderable {
 
 		for (SpriteDef sprite : lineSprites) {
 			MapRect bounds = sprite.getTrimmedBounds();
-			Rectangle source = sprite.getAtlasRef().getRect();
-			BufferedImage image = sprite.getAtlasRef().getAtlas().getImage();
+			AtlasRef ref = sprite.getAtlasRef();
+			int level = Atlas.selectMipLevel(Math.abs(pat.getScaleX()) * 0.8 / ref.getRect().width);
 
 			if (modded) {
 				g.setTransform(pat);
@@ -75,7 +75,7 @@ public class MapInserterIndicators extends MapRenderable {
 			}
 			// magic numbers from Factorio code
 			g.scale(0.8, 0.8);
-			g.drawImage(image, 0, 0, 1, 1, source.x, source.y, source.x + source.width, source.y + source.height, null);
+			ref.draw(g, level);
 
 			g.setTransform(pat);
 		}
@@ -84,8 +84,8 @@ public class MapInserterIndicators extends MapRenderable {
 
 		for (SpriteDef sprite : arrowSprites) {
 			MapRect bounds = sprite.getTrimmedBounds();
-			Rectangle source = sprite.getAtlasRef().getRect();
-			BufferedImage image = sprite.getAtlasRef().getAtlas().getImage();
+			AtlasRef ref = sprite.getAtlasRef();
+			int level = Atlas.selectMipLevel(Math.abs(pat.getScaleX()) * 0.8 / ref.getRect().width);
 
 			if (modded) {
 				g.setTransform(pat);
@@ -107,7 +107,7 @@ public class MapInserterIndicators extends MapRenderable {
 			}
 			// magic numbers from Factorio code
 			g.scale(0.8, 0.8);
-			g.drawImage(image, 0, 0, 1, 1, source.x, source.y, source.x + source.width, source.y + source.height, null);
+			ref.draw(g, level);
 
 			g.setTransform(pat);
 		}
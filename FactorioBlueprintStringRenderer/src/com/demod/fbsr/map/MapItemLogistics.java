@@ -4,9 +4,12 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Stroke;
-import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
 
 import org.slf4j.Logger;
@@ -14,13 +17,13 @@ import org.slf4j.LoggerFactory;
 
 import com.demod.fbsr.Atlas;
 import com.demod.fbsr.Atlas.AtlasRef;
+import com.demod.fbsr.Direction;
 import com.demod.fbsr.IconManager;
 import com.demod.fbsr.Layer;
 import com.demod.fbsr.LogisticGridCell;
 import com.demod.fbsr.RenderUtils;
 import com.demod.fbsr.WorldMap;
 import com.demod.fbsr.def.IconDef;
-import com.google.common.collect.Table;
 
 public class MapItemLogistics extends MapRenderable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MapItemLogistics.class);
@@ -41,6 +44,21 @@ public class MapItemLogistics extends MapRenderable {
 		});
 	}
 
+	private static final BasicStroke[] strokes = new BasicStroke[16];
+	static {
+		for (int count = 1; count < strokes.length; count++) {
+			strokes[count] = createStroke(count);
+		}
+	}
+
+	private static BasicStroke createStroke(int count) {
+		return new BasicStroke(0.3f / count, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+	}
+
+	private static BasicStroke getStroke(int count) {
+		return (count < strokes.length) ? strokes[count] : createStroke(count);
+	}
+
 	private final WorldMap map;
 
 	public MapItemLogistics(WorldMap map) {
@@ -48,34 +66,60 @@ public class MapItemLogistics extends MapRenderable {
 		this.map = map;
 	}
 
+	/**
+	 * Draws each lane as a translucent line to the next cell. Lanes of the same
+	 * color and width share one path, drawn with a single call. Every lane in a
+	 * cell carries a different item, so lanes sharing a path only meet where a
+	 * lane runs on into the next cell. The line is continued there rather than
+	 * started again, and the joint is drawn once instead of blending twice.
+	 */
 	@Override
 	public void render(Graphics2D g) {
-		// TODO redo this logic for more performance
-		Table<Integer, Integer, LogisticGridCell> logisticGrid = map.getLogisticGrid();
-		logisticGrid.cellSet().forEach(c -> {
-			MapPosition pos = MapPosition.byUnit(c.getRowKey() / 2.0 + 0.25, c.getColumnKey() / 2.0 + 0.25);
-			LogisticGridCell cell = c.getValue();
-			cell.getTransits().ifPresent(s -> {
-				if (s.isEmpty()) {
-					return;
-				}
-				int i = 0;
-				float width = 0.3f / s.size();
-				Stroke ps = g.getStroke();
-				g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-				for (String itemName : s) {
-					double shift = ((i + 1) / (double) (s.size() + 1) - 0.5) / 3.0; // -0.25..0.25
-					cell.getMove().filter(d -> map.getLogisticGridCell(d.offset(pos, 0.5))
-							.map(LogisticGridCell::isAccepting).orElse(false)).ifPresent(d -> {
-								g.setColor(RenderUtils.withAlpha(getItemLogisticColor(itemName), 255 - 127 / s.size()));
-								g.draw(new Line2D.Double(d.right().offset(pos, shift).createPoint2D(),
-										d.right().offset(d.offset(pos, 0.5), shift).createPoint2D()));
-							});
-					i++;
+		Map<BasicStroke, Map<Color, Path2D.Double>> paths = new LinkedHashMap<>();
+		map.getLogisticGrid().forEach((x, y, cell) -> {
+			int count = cell.getTransitCount();
+			if (count == 0) {
+				return;
+			}
+			MapPosition pos = map.getLogisticCellPosition(x, y);
+			Optional<Direction> move = cell.getMove().filter(d -> map.getLogisticGridCell(d.offset(pos, 0.5))
+					.map(LogisticGridCell::isAccepting).orElse(false));
+			if (!move.isPresent()) {
+				return;
+			}
+			Direction d = move.get();
+			Direction right = d.right();
+			MapPosition next = d.offset(pos, 0.5);
+			Map<Color, Path2D.Double> strokePaths = paths.computeIfAbsent(getStroke(count),
+					k -> new LinkedHashMap<>());
+			int alpha = 255 - 127 / count;
+			int[] i = { 0 };
+			cell.forEachTransit(itemName -> {
+				double shift = ((i[0] + 1) / (double) (count + 1) - 0.5) / 3.0; // -0.25..0.25
+				MapPosition p1 = right.offset(pos, shift);
+				MapPosition p2 = right.offset(next, shift);
+				Path2D.Double path = strokePaths.computeIfAbsent(
+						RenderUtils.withAlpha(getItemLogisticColor(itemName), alpha), k -> new Path2D.Double());
+				Point2D current = path.getCurrentPoint();
+				if (current == null || current.getX() != p1.getX() || current.getY() != p1.getY()) {
+					path.moveTo(p1.getX(), p1.getY());
 				}
-				g.setStroke(ps);
+				path.lineTo(p2.getX(), p2.getY());
+				i[0]++;
 			});
 		});
+
+		Stroke ps = g.getStroke();
+		Color pc = g.getColor();
+		for (Entry<BasicStroke, Map<Color, Path2D.Double>> strokeEntry : paths.entrySet()) {
+			g.setStroke(strokeEntry.getKey());
+			for (Entry<Color, Path2D.Double> colorEntry : strokeEntry.getValue().entrySet()) {
+				g.setColor(colorEntry.getKey());
+				g.draw(colorEntry.getValue());
+			}
+		}
+		g.setStroke(ps);
+		g.setColor(pc);
 	}
 
 }
@@ -2,7 +2,6 @@ package com.demod.fbsr.map;
 
 import java.awt.Dimension;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
@@ -41,15 +40,18 @@ public class MapMaterialMaskedTile extends MapRenderable implements MapBounded {
 
 	@Override
 	public void render(Graphics2D g) {
-		AtlasRef refMaterial = material.getAtlasRef();
-		Rectangle sourceMaterial = refMaterial.getRect();
+		AffineTransform pat = g.getTransform();
+
+		// Low scale renders composite from a smaller mip instead of the full
+		// resolution atlases
+		Rectangle maskRect = mask.getAtlasRef().getRect();
+		int level = Atlas.selectMipLevel(Math.abs(pat.getScaleX()) * bounds.getWidth() / maskRect.width);
 
 		Dimension tile = material.getTile();
-		Point offsetMaterial = new Point(sourceMaterial.x + tile.width * col, sourceMaterial.y + tile.height * row);
+		Rectangle regionMaterial = new Rectangle(tile.width * col, tile.height * row, maskRect.width,
+				maskRect.height);
 
-		BufferedImage compositeImage = generateCompositeImage(offsetMaterial);
-
-		AffineTransform pat = g.getTransform();
+		BufferedImage compositeImage = generateCompositeImage(regionMaterial, level);
 
 		// TODO change the approach to eliminate transforming on every sprite
 		g.translate(bounds.getX(), bounds.getY());
@@ -59,37 +61,20 @@ public class MapMaterialMaskedTile extends MapRenderable implements MapBounded {
 		g.setTransform(pat);
 	}
 
-	private BufferedImage generateCompositeImage(Point offsetMaterial) {
+	private BufferedImage generateCompositeImage(Rectangle regionMaterial, int level) {
 		AtlasRef maskRef = mask.getAtlasRef();
-		Atlas maskAtlas = maskRef.getAtlas();
 		Rectangle maskRect = maskRef.getRect();
 
-		BufferedImage ret = new BufferedImage(maskRect.width, maskRect.height, BufferedImage.TYPE_INT_ARGB);
+		int width = Math.max(1, (maskRect.width + (1 << level) - 1) >> level);
+		int height = Math.max(1, (maskRect.height + (1 << level) - 1) >> level);
+		BufferedImage ret = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
 		Graphics2D g = ret.createGraphics();
+		g.scale(width, height);
+
+		maskRef.draw(g, level);
 
-		g.drawImage(maskAtlas.getImage(), //
-				0, //
-				0, //
-				maskRect.width, //
-				maskRect.height, //
-				maskRect.x, //
-				maskRect.y, //
-				maskRect.x + maskRect.width, //
-				maskRect.y + maskRect.height, //
-				null);
-
-		Atlas materialAtlas = material.getAtlasRef().getAtlas();
 		g.setComposite(new MaskedTextureComposite());
-		g.drawImage(materialAtlas.getImage(), //
-				0, //
-				0, //
-				maskRect.width, //
-				maskRect.height, //
-				offsetMaterial.x, //
-				offsetMaterial.y, //
-				offsetMaterial.x + maskRect.width, //
-				offsetMaterial.y + maskRect.height, //
-				null);
+		material.getAtlasRef().draw(g, level, regionMaterial);
 
 		g.dispose();
 		return ret;
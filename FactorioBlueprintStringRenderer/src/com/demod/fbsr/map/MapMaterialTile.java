@@ -2,8 +2,6 @@ package com.demod.fbsr.map;
 
 import java.awt.Dimension;
 import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 
@@ -37,18 +35,19 @@ public class MapMaterialTile extends MapRenderable implements MapBounded {
 	@Override
 	public void render(Graphics2D g) {
 		AtlasRef ref = def.getAtlasRef();
-		Image image = ref.getAtlas().getImage();
-		Rectangle source = ref.getRect();
 
 		Dimension tile = def.getTile();
-		Point offset = new Point(source.x + tile.width * col, source.y + tile.height * row);
+		Rectangle region = new Rectangle(tile.width * col, tile.height * row, tile.width, tile.height);
 
 		AffineTransform pat = g.getTransform();
 
+		// Low scale renders sample a smaller mip instead of the full resolution atlas
+		int level = Atlas.selectMipLevel(Math.abs(pat.getScaleX()) * bounds.getWidth() / tile.width);
+
 		// TODO change the approach to eliminate transforming on every sprite
 		g.translate(bounds.getX(), bounds.getY());
 		g.scale(bounds.getWidth(), bounds.getHeight());
-		g.drawImage(image, 0, 0, 1, 1, offset.x, offset.y, offset.x + tile.width, offset.y + tile.height, null);
+		ref.draw(g, level, region);
 
 		g.setTransform(pat);
 	}
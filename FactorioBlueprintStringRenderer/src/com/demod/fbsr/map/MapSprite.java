@@ -3,8 +3,6 @@ package com.demod.fbsr.map;
 import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.util.Optional;
 
@@ -51,12 +49,12 @@ public class MapSprite extends MapRenderable implements MapBounded {
 	@Override
 	public void render(Graphics2D g) {
 		AtlasRef ref = def.getAtlasRef();
-		Image image = ref.getAtlas().getImage();
-		Rectangle source = ref.getRect();
-
 		Composite pc = g.getComposite();
 		AffineTransform pat = g.getTransform();
 
+		// Low scale renders sample a smaller mip instead of the full resolution atlas
+		int level = Atlas.selectMipLevel(Math.abs(pat.getScaleX()) * bounds.getWidth() / ref.getRect().width);
+
 		BlendMode blendMode = def.getBlendMode();
 		Optional<Color> tint = tintOverride(def.getTint());
 		// TODO tint with additive blending
@@ -74,7 +72,7 @@ public class MapSprite extends MapRenderable implements MapBounded {
 		// TODO change the approach to eliminate transforming on every sprite
 		g.translate(bounds.getX(), bounds.getY());
 		g.scale(bounds.getWidth(), bounds.getHeight());
-		g.drawImage(image, 0, 0, 1, 1, source.x, source.y, source.x + source.width, source.y + source.height, null);
+		ref.draw(g, level);
 
 		g.setTransform(pat);
 		g.setComposite(pc);
@@ -0,0 +1,57 @@
+package com.demod.fbsr.task;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.demod.fbsr.QoiCodec;
+
+/**
+ * Converts QOI images written by the web API local storage to PNG, for serving
+ * them where QOI is not understood. Takes files or folders; a folder converts
+ * every .qoi image in it. PNGs are written next to their sources.
+ */
+public class FBSRQoiToPngTask {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FBSRQoiToPngTask.class);
+
+	private static int convert(File file, boolean delete) throws IOException {
+		if (file.isDirectory()) {
+			int count = 0;
+			File[] files = file.listFiles((dir, name) -> name.endsWith(".qoi"));
+			for (File child : files) {
+				count += convert(child, delete);
+			}
+			return count;
+		}
+
+		String name = file.getName();
+		File filePng = new File(file.getParentFile(), name.substring(0, name.length() - 4) + ".png");
+		QoiCodec.convertToPng(file, filePng);
+		if (delete) {
+			file.delete();
+		}
+		return 1;
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean delete = false;
+		int count = 0;
+		long startMillis = System.currentTimeMillis();
+		for (String arg : args) {
+			if (arg.equals("--delete")) {
+				delete = true;
+				continue;
+			}
+			File file = new File(arg);
+			if (!file.exists()) {
+				LOGGER.warn("Not found: {}", file.getAbsolutePath());
+				continue;
+			}
+			count += convert(file, delete);
+		}
+		LOGGER.info("Converted {} images in {} ms", count, System.currentTimeMillis() - startMillis);
+	}
+}